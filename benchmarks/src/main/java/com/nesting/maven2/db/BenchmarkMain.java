@@ -0,0 +1,30 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks with the JMH command line options. Unless -rf or -rff is given the
+ * results are written as JSON to target/jmh-result.json, so they can be compared between
+ * releases. */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() { }
+
+  /** @param args the JMH command line options
+   * @throws Exception on error */
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    OptionsBuilder options = new OptionsBuilder();
+    options.parent(cmd);
+    if (!cmd.getResultFormat().hasValue()) { options.resultFormat(ResultFormatType.JSON); }
+    if (!cmd.getResult().hasValue()) {
+      new File("target").mkdirs();
+      options.result("target/jmh-result.json");
+    }
+    new Runner(options.build()).run();
+  }
+}
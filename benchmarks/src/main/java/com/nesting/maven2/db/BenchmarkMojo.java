@@ -0,0 +1,37 @@
+package com.nesting.maven2.db;
+
+import java.lang.reflect.Field;
+
+/** Mojo which only gives the benchmarks access to the script execution of {@link AbstractDBMojo}. */
+class BenchmarkMojo extends AbstractDBMojo {
+
+  /** @param batchSize the batch size
+   * @param useBatch whether the batches are used
+   * @param adaptiveBatch whether the batch size is adaptive
+   * @throws ReflectiveOperationException when the mojo fields don't exist */
+  BenchmarkMojo(int batchSize, boolean useBatch, boolean adaptiveBatch) throws ReflectiveOperationException {
+    setLog(new NullLog());
+    set("batchSize", batchSize);
+    set("useBatch", useBatch);
+    set("adaptiveBatch", adaptiveBatch);
+    set("minBatchSize", 10);
+    set("maxBatchSize", 5000);
+    set("targetBatchTime", 500);
+    set("maxBatchBytes", 4194304L);
+    set("transactionMode", "AUTO");
+    set("commitInterval", 1000);
+    set("pipelineQueueSize", 1000);
+    set("readBufferSize", 262144);
+    set("inflateBufferSize", 262144);
+  }
+
+  /** Nothing, the benchmarks call the script execution directly. */
+  public void executeInternal(DbContext ctx) { }
+
+  /** Sets the private parameter of the mojo, Maven injects them the same way. */
+  private void set(String name, Object value) throws ReflectiveOperationException {
+    Field field = AbstractDBMojo.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(this, value);
+  }
+}
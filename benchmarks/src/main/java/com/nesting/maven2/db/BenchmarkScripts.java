@@ -0,0 +1,87 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/** Generator of the synthetic scripts used by the benchmarks. */
+final class BenchmarkScripts {
+
+  /** Statements ended by semicolon with comments and literals which contain semicolons. */
+  static final String SEMICOLON = "semicolon";
+  /** PL/SQL blocks ended by a slash on its own line. */
+  static final String SLASH = "slash";
+  /** PostgreSQL functions with dollar quoted bodies. */
+  static final String DOLLAR = "dollar";
+  /** Statements ended by semicolon in transactions ended by go lines. */
+  static final String TRANSACTION = "transaction";
+
+  /** The table filled by {@link #insert(int)}. */
+  static final String TABLE = "CREATE TABLE bench (id INTEGER NOT NULL PRIMARY KEY, name VARCHAR(60), amount DECIMAL(10,2))";
+
+  private BenchmarkScripts() { }
+
+  /** Creates the script.
+   * @param statements the number of statements
+   * @param style the delimiter style
+   * @return the script */
+  static String script(int statements, String style) {
+    StringBuilder sb = new StringBuilder(statements * 80);
+    for (int i = 0; i < statements; i++) {
+      if (SLASH.equals(style)) {
+        sb.append("BEGIN\n  INSERT INTO bench (id, name) VALUES (").append(i).append(", 'name; ").append(i)
+          .append("');\n  UPDATE bench SET amount = amount + 1 WHERE id = ").append(i).append(";\nEND;\n/\n");
+      } else if (DOLLAR.equals(style)) {
+        sb.append("CREATE FUNCTION f").append(i).append("() RETURNS integer AS $body$\nBEGIN\n  RETURN ")
+          .append(i).append("; -- ends here;\nEND;\n$body$ LANGUAGE plpgsql;\n");
+      } else {
+        if (i % 10 == 0) { sb.append("-- row ").append(i).append("; generated\n"); }
+        sb.append(insert(i)).append(";\n");
+        if (TRANSACTION.equals(style) && i % 100 == 99) { sb.append("go\n"); }
+      }
+    }
+    return sb.toString();
+  }
+
+  /** @return the delimiter of the style */
+  static String delimiter(String style) {
+    return SLASH.equals(style) ? "/" : ";";
+  }
+
+  /** @return the dialect of the style */
+  static SqlDialect dialect(String style) {
+    if (SLASH.equals(style)) { return SqlDialect.ORACLE; }
+    return DOLLAR.equals(style) ? SqlDialect.POSTGRESQL : SqlDialect.GENERIC;
+  }
+
+  /** @return insert into the table created by {@link #TABLE} */
+  static String insert(int i) {
+    return "INSERT INTO bench (id, name, amount) VALUES (" + i + ", 'name " + i + " with ; inside', " + (i % 1000) + ".25)";
+  }
+
+  /** Writes the script into a temporary file.
+   * @param script the script
+   * @param encoding the encoding
+   * @param bom whether the file starts with byte order mark
+   * @param gzip whether the file is gzipped
+   * @return the file
+   * @throws IOException on error */
+  static File write(String script, String encoding, boolean bom, boolean gzip) throws IOException {
+    File file = File.createTempFile("bench", gzip ? ".sql.gz" : ".sql");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    if (gzip) { out = new GZIPOutputStream(out, 64 * 1024); }
+    Writer writer = new OutputStreamWriter(out, encoding);
+    try {
+      if (bom) { writer.write('\uFEFF'); }
+      writer.write(script);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,118 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** End to end execution of an insert script against an in-process database, by
+ * batchExecuteSqlScript when useBatch is true and by executeSqlScript otherwise. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionBenchmark {
+
+  @Param({ "h2", "hsqldb", "derby" })
+  private String database;
+
+  @Param({ "10000" })
+  private int statements;
+
+  @Param({ "20", "500" })
+  private int batchSize;
+
+  @Param({ "true", "false" })
+  private boolean useBatch;
+
+  @Param({ "false", "true" })
+  private boolean adaptiveBatch;
+
+  @Param({ "false", "true" })
+  private boolean gzip;
+
+  private File file;
+  private Connection con;
+  private BenchmarkMojo mojo;
+  private DbContext ctx;
+
+  /** Writes the script and connects to the database.
+   * @throws Exception on error */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    file = BenchmarkScripts.write(BenchmarkScripts.script(statements, BenchmarkScripts.SEMICOLON), "UTF-8", false, gzip);
+    DatabaseConnectionSettings settings = new DatabaseConnectionSettings();
+    if ("hsqldb".equals(database)) {
+      settings.setJdbcUrl("jdbc:hsqldb:mem:bench");
+      settings.setUserName("SA");
+    } else if ("derby".equals(database)) {
+      // the log of the embedded engine goes to the build directory, not the working tree
+      if (System.getProperty("derby.stream.error.file") == null) {
+        new File("target").mkdirs();
+        System.setProperty("derby.stream.error.file", "target/derby.log");
+      }
+      settings.setJdbcUrl("jdbc:derby:memory:bench;create=true");
+    } else {
+      settings.setJdbcUrl("jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+      settings.setUserName("sa");
+    }
+    DbConfig config = new DbConfig();
+    config.setName(database);
+    config.setAppDbConnectionSettings(settings);
+    config.setScriptEncoding("UTF-8");
+    config.setSqlDelimiter(";");
+    ctx = new DbContext(config, new NullLog());
+    mojo = new BenchmarkMojo(batchSize, useBatch, adaptiveBatch);
+    con = DriverManager.getConnection(settings.getJdbcUrl(), settings.getUserName(), "");
+    execute(BenchmarkScripts.TABLE);
+  }
+
+  /** Empties the table before every execution of the script.
+   * @throws Exception on error */
+  @Setup(Level.Invocation)
+  public void emptyTable() throws Exception {
+    execute("DELETE FROM bench");
+  }
+
+  /** Drops the table and deletes the script.
+   * @throws Exception on error */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    execute("DROP TABLE bench");
+    con.close();
+    file.delete();
+  }
+
+  /** Executes the script.
+   * @throws Exception on error */
+  @Benchmark
+  public void executeScript() throws Exception {
+    mojo.executeScript(ctx, file, con);
+  }
+
+  private void execute(String sql) throws Exception {
+    Statement st = con.createStatement();
+    try {
+      st.execute(sql);
+    } finally {
+      st.close();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.nesting.maven2.db;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.ByteOrderMark;
+import org.apache.commons.io.input.BOMInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Reading and decoding of script files by {@link ScriptReader} compared with the
+ * InputStreamReader stack the plugin used before. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+
+  @Param({ "100000" })
+  private int statements;
+
+  @Param({ "UTF-8", "UTF-16LE" })
+  private String encoding;
+
+  @Param({ "true", "false" })
+  private boolean bom;
+
+  @Param({ "false", "true" })
+  private boolean gzip;
+
+  private File file;
+  private final char[] buffer = new char[64 * 1024];
+
+  /** Writes the script file.
+   * @throws IOException on error */
+  @Setup
+  public void setUp() throws IOException {
+    file = BenchmarkScripts.write(BenchmarkScripts.script(statements, BenchmarkScripts.SEMICOLON), encoding, bom, gzip);
+  }
+
+  /** Deletes the script file. */
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  /** Reads the file by {@link ScriptReader}.
+   * @return the number of chars
+   * @throws IOException on error */
+  @Benchmark
+  public long scriptReader() throws IOException {
+    return drain(new ScriptReader(file, encoding, gzip));
+  }
+
+  /** Reads the file by BOMInputStream and InputStreamReader.
+   * @return the number of chars
+   * @throws IOException on error */
+  @Benchmark
+  public long inputStreamReader() throws IOException {
+    InputStream in = new FileInputStream(file);
+    if (gzip) { in = new GZIPInputStream(in); }
+    BOMInputStream bomIn = new BOMInputStream(in, ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE,
+                                              ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
+    String charsetName = bomIn.getBOM() == null ? encoding : bomIn.getBOM().getCharsetName();
+    return drain(new InputStreamReader(new BufferedInputStream(bomIn), charsetName));
+  }
+
+  private long drain(Reader reader) throws IOException {
+    long chars = 0;
+    try {
+      int n;
+      while ((n = reader.read(buffer, 0, buffer.length)) > 0) { chars += n; }
+    } finally {
+      reader.close();
+    }
+    return chars;
+  }
+}
@@ -0,0 +1,56 @@
+package com.nesting.maven2.db;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Splitting of synthetic scripts in memory, without any I/O. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitterBenchmark {
+
+  @Param({ "1000", "100000" })
+  private int statements;
+
+  @Param({ BenchmarkScripts.SEMICOLON, BenchmarkScripts.SLASH, BenchmarkScripts.DOLLAR, BenchmarkScripts.TRANSACTION })
+  private String style;
+
+  private String script;
+
+  /** Generates the script. */
+  @Setup
+  public void setUp() {
+    script = BenchmarkScripts.script(statements, style);
+  }
+
+  /** Splits the whole script.
+   * @param blackhole the consumer of the statements
+   * @throws IOException on error */
+  @Benchmark
+  public void split(Blackhole blackhole) throws IOException {
+    SqlStatementSplitter splitter = new SqlStatementSplitter(new StringReader(script), BenchmarkScripts.dialect(style),
+                                                             BenchmarkScripts.delimiter(style), "go");
+    SqlStatement statement;
+    while ((statement = splitter.nextStatement()) != null) {
+      blackhole.consume(statement);
+    }
+    splitter.close();
+  }
+}
@@ -2,21 +2,40 @@ package com.nesting.maven2.db;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.io.ByteOrderMark;
-import org.apache.commons.io.input.BOMInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -34,25 +53,294 @@ public abstract class AbstractDBMojo extends AbstractMojo {
    * @required */
   private DbConfig[] dbConfig;
 
-  public DbConfig getDbConfig() { return currentDbConfig; }
-  /** Currenent executed db config */
-  private DbConfig currentDbConfig;
-
   /** The names of configs which is executed, if length = 0 or null then execute for all configs
    * the application.
    * @parameter */
   private String[] runConfigs;
 
+  /** The number of configs which are executed concurrently. The log of every config
+   * is prefixed by its name and written when the config is finished. All configs
+   * are executed even when some of them fail, the failures are reported at the end.
+   * @parameter default-value="1" */
+  private int configParallelism;
+
+  /** The number of workers which execute the order independent scripts
+   * (see parallelDirectory and parallelScriptPattern of dbConfig) concurrently,
+   * every worker uses its own database connection.
+   * @parameter default-value="1" */
+  private int parallelism;
+
+  /** Whether the connections are taken from the pool shared by all goals executed in
+   * the Maven session, so the goals don't connect again. The pooled connections stay open
+   * between the goals, which keeps a database from being dropped and created again by the
+   * same build.
+   * @parameter default-value="false" */
+  private boolean usePool;
+
+  /** The maximal number of open connections of one connection settings in the pool.
+   * It should be greater than parallelism.
+   * @parameter default-value="16" */
+  private int poolMaxSize;
+
+  /** The time in seconds after which the idle pooled connection is closed.
+   * @parameter default-value="300" */
+  private int poolIdleTimeout;
+
+  /** The timeout in seconds of validation of the idle connection before it's reused.
+   * @parameter default-value="5" */
+  private int poolValidationTimeout;
+
   /** The batch size when executing batches.
    * @parameter default-value="20"
    * @required */
   private int batchSize;
 
+  /** Whether the batch size is adapted to the measured duration of executeBatch instead of
+   * the fixed batchSize. The size starts at minBatchSize, grows while the batches take less
+   * than half of targetBatchTime and shrinks when they take longer, the chosen size and the
+   * reached throughput are logged for every file.
+   * @parameter default-value="false" */
+  private boolean adaptiveBatch;
+
+  /** The minimal and initial batch size of the adaptive batches.
+   * @parameter default-value="10" */
+  private int minBatchSize;
+
+  /** The maximal batch size of the adaptive batches.
+   * @parameter default-value="5000" */
+  private int maxBatchSize;
+
+  /** The target duration in milliseconds of one adaptive batch.
+   * @parameter default-value="500" */
+  private int targetBatchTime;
+
+  /** The maximal length of the SQL text of one adaptive batch, 0 for no limit.
+   * @parameter default-value="4194304" */
+  private long maxBatchBytes;
+
+  /** When the executed statements are committed: AUTO leaves the connection in auto-commit
+   * mode, STATEMENT commits every statement (every batch in batch mode), FILE commits every
+   * script file, INTERVAL commits every commitInterval statements and DELIMITER commits at the
+   * transaction delimiters. The failed script is rolled back to its last commit.
+   * @parameter default-value="AUTO" */
+  private String transactionMode;
+
+  /** The number of statements in a transaction for transactionMode INTERVAL.
+   * @parameter default-value="1000" */
+  private int commitInterval;
+
+  /** Whether the scripts are read and split by a separate thread, so the reading and
+   * decompression overlap with the execution of the statements.
+   * @parameter default-value="false" */
+  private boolean pipelined;
+
+  /** The maximal number of statements read ahead in the pipelined mode.
+   * @parameter default-value="1000" */
+  private int pipelineQueueSize;
+
+  /** The name of the manifest of the script dependencies in the script directories, a
+   * properties file which maps a script name to the comma separated names of the scripts it
+   * depends on. The scripts can declare the dependencies by their header comments too, like
+   * {@code -- depends: 010_users.sql}. When the scripts of a directory declare dependencies
+   * they're executed by the dependency graph, the ready ones concurrently by parallelism
+   * workers, a script without declaration depends on the script before it by name.
+   * @parameter default-value="script-dependencies.properties" */
+  private String dependencyManifest;
+
+  /** The number of gzipped scripts of a directory which are inflated ahead of their
+   * execution by background threads, 0 inflates every script when it's executed.
+   * @parameter default-value="0" */
+  private int prefetchScripts;
+
+  /** The maximal number of inflated bytes of one prefetched script held in memory.
+   * @parameter default-value="67108864" */
+  private long prefetchSize;
+
+  /** The size of the byte buffer of the script reader.
+   * @parameter default-value="262144" */
+  private int readBufferSize;
+
+  /** The size of the input buffer of the inflater of gzipped scripts and zip archives.
+   * @parameter default-value="262144" */
+  private int inflateBufferSize;
+
   /** Whether or not to use SQL batches.
    * @parameter default-value="true"
    * @required */
   private boolean useBatch;
 
+  /** Whether the metrics report of the execution is written to metricsDirectory. The report
+   * has the bytes read, statements, batches, affected rows and the time spent in the driver,
+   * in reading and in parsing of every file and the slowest statements, as JSON and CSV.
+   * @parameter default-value="false" */
+  private boolean metrics;
+
+  /** The directory of the metrics report.
+   * @parameter default-value="${project.build.directory}/db-metrics" */
+  private File metricsDirectory;
+
+  /** The number of the slowest statements (batches in batch mode) in the metrics report.
+   * @parameter default-value="20" */
+  private int metricsTopStatements;
+
+  /** Whether the position after the last committed statement of every script is saved in
+   * checkpointDirectory, so a failed or interrupted execution can be resumed there. The
+   * checkpoints of a config are deleted when the config succeeds. With transactionMode AUTO
+   * in batch mode a failed batch may be applied partly, use the other modes to resume
+   * exactly after the committed statements.
+   * @parameter default-value="false" */
+  private boolean checkpoint;
+
+  /** Whether the execution resumes from the saved checkpoints: the completed scripts are
+   * skipped and the interrupted one continues after its last committed statement, plain
+   * script is read from the saved byte offset. The script must not be changed meanwhile.
+   * Resume implies checkpoint.
+   * @parameter default-value="false" */
+  private boolean resume;
+
+  /** Whether the statements of the scripts are cached in statementCacheDirectory, so the
+   * unchanged scripts aren't split again by the next builds. The cached script is executed
+   * by decoding only the bytes of its statements. The cache of a script is invalidated when
+   * its size, modification time and checksum or the delimiter, dialect or encoding of the
+   * config change.
+   * @parameter default-value="false" */
+  private boolean statementCache;
+
+  /** The directory of the statement cache.
+   * @parameter default-value="${project.build.directory}/db-statement-cache" */
+  private File statementCacheDirectory;
+
+  /** The directory of the checkpoints.
+   * @parameter default-value="${project.build.directory}/db-checkpoints" */
+  private File checkpointDirectory;
+
+  /** Whether the INSERT statements are executed as prepared statements in batch mode. The
+   * string, numeric and NULL values of their VALUES tuples are replaced by parameters, so
+   * the runs of statements of the same shape are executed by batches of one prepared
+   * statement, which the database parses and plans only once. The statements which can't be
+   * parameterized safely are executed as text.
+   * @parameter default-value="false" */
+  private boolean parameterize;
+
+  /** The number of prepared statements of the parameterized templates kept open per script.
+   * @parameter default-value="16" */
+  private int preparedStatementCacheSize;
+
+  /** Whether the runs of single row INSERT statements of the batch executed scripts with the
+   * same table and columns are combined into statements with a multi-row VALUES list, so the
+   * database parses and executes one statement for many rows. Only the statements whose
+   * VALUES tuple holds nothing but literals are combined, the other ones are executed as
+   * they are. A combined statement counts as one statement for the batch size and the commit
+   * interval. It's not used together with parameterize or continueOnError, nor for the
+   * dialects without multi-row VALUES (GENERIC, ORACLE).
+   * @parameter default-value="false" */
+  private boolean coalesceInserts;
+
+  /** The maximal number of rows of a combined INSERT statement, at most 1000 for SQL Server.
+   * @parameter default-value="500" */
+  private int coalesceMaxRows;
+
+  /** The maximal length in chars of a combined INSERT statement.
+   * @parameter default-value="1048576" */
+  private int coalesceMaxBytes;
+
+  /** Whether the execution continues when statements fail. A failed batch is undone and
+   * executed again in parts until the failed statements are isolated, the other ones are
+   * executed and committed as usual. Every batch is executed in a savepoint, in AUTO
+   * transactions in a transaction of its own, so the driver has to support savepoints
+   * unless the mode is AUTO. In statement mode every statement is isolated the same way.
+   * The failed statements are written to the reject file in rejectDirectory with their file
+   * and line. Delimited data files don't continue on error.
+   * @parameter default-value="false" */
+  private boolean continueOnError;
+
+  /** The number of statements of a config which may fail when the execution continues on
+   * error, the execution fails with the next one. Negative value is no limit.
+   * @parameter default-value="100" */
+  private int errorBudget;
+
+  /** Whether the executed update scripts are recorded in the ledger table on the
+   * target database, so only new scripts are executed. Used by the update and watch goals.
+   * @parameter default-value="false" */
+  private boolean useLedger;
+
+  /** The name of the ledger table.
+   * @parameter default-value="DB_SCRIPT_LEDGER" */
+  private String ledgerTable;
+
+  /** Whether the applied script which was changed since fails the build,
+   * otherwise only warning is logged.
+   * @parameter default-value="true" */
+  private boolean failOnChecksumDrift;
+
+  /** The directory of the reject files, goal-config.sql for every config.
+   * @parameter default-value="${project.build.directory}/db-rejects" */
+  private File rejectDirectory;
+
+  /** Whether the goal only plans the execution: the scripts and data files of all configs
+   * are read, decoded and split without connecting to any database, and the plan report with
+   * the statements, bytes and errors of every file is written to planDirectory. Malformed
+   * input of the encoding, unclosed literals and comments and inconsistent delimited records
+   * are reported as errors. The connection settings and the ledger aren't used.
+   * @parameter default-value="false" */
+  private boolean plan;
+
+  /** The number of threads which read the files of all configs in the plan.
+   * @parameter default-value="4" */
+  private int planParallelism;
+
+  /** The directory of the plan report.
+   * @parameter default-value="${project.build.directory}/db-plan" */
+  private File planDirectory;
+
+  /** Whether an error found by the plan fails the goal.
+   * @parameter default-value="true" */
+  private boolean failOnPlanError;
+
+  /** Whether the databases are provisioned from templates: the create goal creates the
+   * database of a config from the template saved for the same fingerprint of its scripts and
+   * settings, the schema, data and update goals of the session skip the config then. The
+   * snapshot goal saves the template after a full build. PostgreSQL and the embedded H2, Derby
+   * and HSQLDB databases are supported, the scripts of the other ones are executed.
+   * @parameter default-value="false" */
+  private boolean snapshot;
+
+  /** The directory of the template index and of the files of the embedded database templates.
+   * @parameter default-value="${user.home}/.m2/db-snapshots" */
+  private File snapshotDirectory;
+
+  /** The number of templates kept for every config, the least recently used ones are deleted.
+   * @parameter default-value="3" */
+  private int snapshotLimit;
+
+  /** The class name of a {@link DatabaseTemplate} subclass for other databases.
+   * @parameter */
+  private String snapshotStrategy;
+
+  /** Whether the drop, create, schema and data goals skip a config whose database is up to
+   * date: the fingerprint of the create script, the schema and data files and the settings of
+   * the config matches the one recorded by the goal in the marker table of the application
+   * database and the one of the last build in upToDateDirectory. A change or a failed goal
+   * builds the whole database again. The update goal isn't checked, its ledger is.
+   * @parameter default-value="false" */
+  private boolean upToDateCheck;
+
+  /** Whether the goals execute the scripts even when the database is up to date.
+   * @parameter default-value="false" */
+  private boolean force;
+
+  /** The directory of the recorded fingerprints, config.sha256 for every config.
+   * @parameter default-value="${project.build.directory}/db-fingerprints" */
+  private File upToDateDirectory;
+
+  /** The name of the marker table of the recorded fingerprints.
+   * @parameter default-value="DB_BUILD_MARKER" */
+  private String markerTable;
+
+  /** The number of threads which hash the files for the fingerprint.
+   * @parameter default-value="4" */
+  private int fingerprintParallelism;
+
   /** The {@link Settings} object.
    * @parameter default-value="${settings}"
    * @required
@@ -62,21 +350,528 @@ public abstract class AbstractDBMojo extends AbstractMojo {
   /** Child mojos need to implement this.
    * @throws MojoExecutionException on error.
    * @throws MojoFailureException on error */
-  public abstract void executeInternal() throws MojoExecutionException,  MojoFailureException;
+  public abstract void executeInternal(DbContext ctx) throws MojoExecutionException,  MojoFailureException;
+
+  /** Lists the scripts and data files which the goal executes for the config, the directories
+   * are listed the same way as by {@link #executeScriptsInDirectory}. The goals which execute
+   * scripts override it for the plan.
+   * @param ctx the context of the config
+   * @return the files and directories of the config */
+  protected List<File> plannedFiles(DbContext ctx) {
+    return new ArrayList<>();
+  }
+
+  /** @param files the configured files or directories, may be null or hold nulls
+   * @return the list of the configured ones */
+  protected static List<File> configured(File... files) {
+    List<File> list = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        if (file != null) { list.add(file); }
+      }
+    }
+    return list;
+  }
 
   /** {@inheritDoc} */
   public final void execute() throws MojoExecutionException, MojoFailureException {
+    try {
+      TransactionMode.forName(transactionMode);
+    } catch (IllegalArgumentException e) {
+      throw new MojoFailureException("Unknown transactionMode: "+transactionMode);
+    }
     Set<String> cfNames = new HashSet<>();
     if (runConfigs != null) { cfNames.addAll(Arrays.asList(runConfigs)); }
+    List<DbConfig> selected = new ArrayList<>();
     for (DbConfig cf : dbConfig) {
       if (cfNames.isEmpty() || cfNames.contains(cf.getName())) {
-        getLog().info("dbConfig: " + cf.getName());
-        currentDbConfig = cf;
-        checkDbSettings(cf.getAdminDbConnectionSettings(), "admin");
-        checkDbSettings(cf.getAppDbConnectionSettings(), "application");
-        executeInternal();
+        if (!plan) {
+          checkDbSettings(cf.getAdminDbConnectionSettings(), cf.getName() + "/admin");
+          checkDbSettings(cf.getAppDbConnectionSettings(), cf.getName() + "/application");
+        }
+        selected.add(cf);
+      }
+    }
+    if (plan) {
+      planConfigs(selected);
+      return;
+    }
+    long created = ConnectionPool.getCreated();
+    long reused = ConnectionPool.getReused();
+    ExecutionMetrics executionMetrics = new ExecutionMetrics(metrics ? metricsTopStatements : 0);
+    try {
+      if (configParallelism > 1 && selected.size() > 1) {
+        executeConcurrently(selected, executionMetrics);
+      } else {
+        for (DbConfig cf : selected) {
+          getLog().info("dbConfig: " + cf.getName());
+          executeConfig(new DbContext(cf, getLog(), executionMetrics));
+        }
+      }
+      afterConfigs();
+    } finally {
+      if (metrics) { writeMetrics(executionMetrics); }
+    }
+    if (usePool) {
+      getLog().info("connections: " + (ConnectionPool.getCreated() - created) + " created, "
+                    + (ConnectionPool.getReused() - reused) + " reused from pool");
+    }
+  }
+
+  /** Called after all configs were executed, the goals which work across the configs
+   * override it.
+   * @throws MojoExecutionException on error
+   * @throws MojoFailureException on error */
+  protected void afterConfigs() throws MojoExecutionException, MojoFailureException {
+  }
+
+  /** Plans the execution of the configs: every file of every config is read and split by
+   * a pool of {@link #planParallelism} threads, the results are logged in the order of the
+   * configs and files and written to the plan report.
+   * @param configs the planned configs
+   * @throws MojoExecutionException on error
+   * @throws MojoFailureException when a file has an error and failOnPlanError is set */
+  private void planConfigs(List<DbConfig> configs) throws MojoExecutionException, MojoFailureException {
+    ScriptPlan scriptPlan = new ScriptPlan();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(planParallelism, 1));
+    Map<DbContext, List<Future<List<ScriptPlan.FilePlan>>>> futures = new LinkedHashMap<>();
+    try {
+      for (DbConfig cf : configs) {
+        final DbContext ctx = new DbContext(cf, getLog());
+        checkEncoding(ctx);
+        List<Future<List<ScriptPlan.FilePlan>>> list = new ArrayList<>();
+        for (final File file : plannedFileList(ctx)) {
+          list.add(executor.submit(new Callable<List<ScriptPlan.FilePlan>>() {
+              public List<ScriptPlan.FilePlan> call() {
+                return planFile(ctx, file);
+              } }));
+        }
+        futures.put(ctx, list);
+      }
+      for (Map.Entry<DbContext, List<Future<List<ScriptPlan.FilePlan>>>> entry : futures.entrySet()) {
+        getLog().info("plan of dbConfig: " + entry.getKey().getName());
+        long statements = 0;
+        long sqlBytes = 0;
+        for (Future<List<ScriptPlan.FilePlan>> future : entry.getValue()) {
+          for (ScriptPlan.FilePlan filePlan : future.get()) {
+            scriptPlan.add(filePlan);
+            statements += filePlan.getStatements();
+            sqlBytes += filePlan.getSqlBytes();
+            if (filePlan.getError() != null) {
+              getLog().error(" " + filePlan.getFile().getName() + ": " + filePlan.getError());
+            } else {
+              getLog().info(" " + filePlan.getFile().getName() + ": " + filePlan.getStatements()
+                            + ("load".equals(filePlan.getMode()) ? " record(s), " : " statement(s), ")
+                            + filePlan.getSqlBytes() + " byte(s) of SQL, " + filePlan.getBytesRead() + " byte(s) read");
+            }
+          }
+        }
+        getLog().info(" " + statements + " statement(s) and record(s), " + sqlBytes + " byte(s) of SQL in dbConfig "
+                      + entry.getKey().getName());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while planning", e);
+    } catch (ExecutionException e) {
+      throw new MojoExecutionException("Planning failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    try {
+      File report = scriptPlan.write(planDirectory, goalName());
+      getLog().info("plan report written to " + report);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Writing of plan report failed", e);
+    }
+    int errors = scriptPlan.getErrors();
+    if (errors > 0 && failOnPlanError) {
+      throw new MojoFailureException(errors + " file(s) have errors, see the plan report in " + planDirectory);
+    }
+  }
+
+  /** @param ctx the context of the config
+   * @return the planned files of the config with the directories listed */
+  private List<File> plannedFileList(DbContext ctx) {
+    List<File> files = new ArrayList<>();
+    for (File file : plannedFiles(ctx)) {
+      if (file.isDirectory()) {
+        for (File script : scriptFiles(file)) {
+          if (!script.getName().equals(dependencyManifest)) { files.add(script); }
+        }
+      } else {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  /** Reads and splits the file, the scripts of an archive are planned one by one.
+   * @param ctx the context of the config
+   * @param file the file
+   * @return the plans of the file or of the scripts of the archive */
+  private List<ScriptPlan.FilePlan> planFile(DbContext ctx, File file) {
+    List<ScriptPlan.FilePlan> plans = new ArrayList<>();
+    if (!file.isFile() || !file.canRead()) {
+      ScriptPlan.FilePlan filePlan = new ScriptPlan.FilePlan(ctx.getName(), file, "script");
+      filePlan.finish(null, 0, file.getPath() + " is not a readable file");
+      plans.add(filePlan);
+    } else if (ScriptReader.isZip(file)) {
+      long startTime = System.nanoTime();
+      try (ScriptArchive archive = new ScriptArchive(file, inflateBufferSize)) {
+        ScriptArchive.Entry entry;
+        while ((entry = archive.next()) != null) {
+          plans.add(planScript(ctx, entry));
+        }
+      } catch (IOException e) {
+        ScriptPlan.FilePlan filePlan = new ScriptPlan.FilePlan(ctx.getName(), file, "archive");
+        filePlan.finish(null, System.nanoTime() - startTime, e.getMessage());
+        plans.add(filePlan);
+      }
+    } else {
+      plans.add(planScript(ctx, file));
+    }
+    return plans;
+  }
+
+  /** Reads and splits the script or reads the records of the data file.
+   * @param ctx the context of the config
+   * @param file the file
+   * @return the plan of the file */
+  private ScriptPlan.FilePlan planScript(DbContext ctx, File file) {
+    DelimitedFileSettings delimited = delimitedFileSettings(ctx, file);
+    ScriptPlan.FilePlan filePlan = new ScriptPlan.FilePlan(ctx.getName(), file, delimited != null ? "load" : "script");
+    long startTime = System.nanoTime();
+    ScriptReader reader = null;
+    SqlStatementSplitter splitter = null;
+    String error = null;
+    try {
+      reader = newReader(ctx, file, 0, false);
+      reader.reportMalformedInput();
+      if (delimited != null) {
+        filePlan.records(new DelimitedDataLoader(ctx, delimited).plan(file, reader));
+      } else {
+        splitter = new SqlStatementSplitter(reader, SqlDialect.forConfig(ctx.getConfig()),
+                                            ctx.getConfig().getSqlDelimiter(), ctx.getConfig().getTransactionDelimiter());
+        SqlStatement statement;
+        while ((statement = splitter.nextStatement()) != null) {
+          filePlan.statement(statement);
+        }
+        error = splitter.getUnterminated();
+      }
+    } catch (IOException | MojoFailureException | RuntimeException e) {
+      error = (splitter != null ? "line " + splitter.getLineNumber() + ": " : "") + e.getMessage();
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // nothing was written
+        }
       }
     }
+    filePlan.finish(reader, System.nanoTime() - startTime, error);
+    return filePlan;
+  }
+
+  /** Executes the config, the checkpoints of the config are deleted before it unless
+   * it's resumed and after it succeeds.
+   * @param ctx the context of the config
+   * @throws MojoExecutionException on error
+   * @throws MojoFailureException on error */
+  private void executeConfig(DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    String template = snapshot && skipsClonedDatabase() ? TemplateStore.clonedFrom(ctx.getConfig()) : null;
+    if (template != null) {
+      ctx.getLog().info(" database created from template " + template + ", skipping the scripts");
+      return;
+    }
+    BuildMarker marker = null;
+    String fingerprint = null;
+    if (upToDateCheck && markerGoal() != null) {
+      marker = new BuildMarker(ctx, markerTable, new File(upToDateDirectory,
+                               ctx.getName().replaceAll("[^A-Za-z0-9._-]", "_") + ".sha256"));
+      try {
+        fingerprint = ScriptFingerprint.of(ctx.getConfig(), false, fingerprintParallelism);
+        if (!force && isUpToDate(ctx, marker, fingerprint)) {
+          ctx.getLog().info(" database is up to date with fingerprint " + fingerprint.substring(0, 16)
+                            + ", skipping the scripts");
+          return;
+        }
+        marker.clear();
+      } catch (IOException e) {
+        throw new MojoExecutionException("Can't check whether database is up to date", e);
+      }
+    }
+    File directory = checkpoint || resume ? checkpointDirectory(ctx) : null;
+    if (continueOnError) {
+      File rejectFile = new File(rejectDirectory, goalName() + "-" + ctx.getName().replaceAll("[^A-Za-z0-9._-]", "_") + ".sql");
+      ctx.setRejects(new ScriptRejects(rejectFile, ctx.getConfig().getSqlDelimiter(), errorBudget));
+    }
+    try {
+      if (directory != null && !resume) { ScriptCheckpoint.clear(directory); }
+      executeInternal(ctx);
+      if (directory != null) { ScriptCheckpoint.clear(directory); }
+      // the database with rejected statements isn't built from the inputs
+      if (marker != null && (ctx.getRejects() == null || ctx.getRejects().getCount() == 0)) {
+        recordMarker(ctx, marker, fingerprint);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Can't delete checkpoints in " + directory, e);
+    } finally {
+      ScriptRejects rejects = ctx.getRejects();
+      if (rejects != null) {
+        rejects.close();
+        if (rejects.getCount() > 0) {
+          ctx.getLog().warn(rejects.getCount() + " failed statement(s) written to " + rejects.getFile());
+        }
+      }
+    }
+  }
+
+  /** @return the goal whose marker decides whether the goal is up to date, it's the goal
+   *   itself for the goals which build the database and record their marker, null when the
+   *   goal has no up to date check */
+  protected String markerGoal() {
+    return null;
+  }
+
+  /** @return whether the marker file and the marker table of the application database hold
+   *   the fingerprint, false when the database can't be connected */
+  private boolean isUpToDate(DbContext ctx, BuildMarker marker, String fingerprint)
+    throws IOException, MojoFailureException {
+    if (!marker.getFile().isFile()) { return false; }
+    Connection con;
+    try {
+      con = openApplicationDbConnection(ctx);
+    } catch (SQLException e) {
+      ctx.getLog().debug(" database can't be connected: " + e.getMessage());
+      return false;
+    }
+    try {
+      return marker.isUpToDate(con, markerGoal(), fingerprint);
+    } finally {
+      closeConnection(con);
+    }
+  }
+
+  private void recordMarker(DbContext ctx, BuildMarker marker, String fingerprint)
+    throws MojoExecutionException, MojoFailureException {
+    try {
+      if (!markerGoal().equals(goalName())) {
+        marker.recordFile(fingerprint);
+        return;
+      }
+      Connection con = openApplicationDbConnection(ctx);
+      try {
+        marker.record(con, markerGoal(), fingerprint);
+      } finally {
+        closeConnection(con);
+      }
+    } catch (SQLException | IOException e) {
+      throw new MojoExecutionException("Can't record fingerprint in " + markerTable + " and " + marker.getFile(), e);
+    }
+  }
+
+  /** @return whether the goal skips the configs whose database was created from a template */
+  protected boolean skipsClonedDatabase() {
+    return false;
+  }
+
+  /** Creates the application database from the template saved for the fingerprint of the
+   * config when snapshots are enabled. A failure is logged and the scripts are executed then.
+   * A database created otherwise is no longer taken as cloned by the later goals, even when
+   * an earlier create of the session cloned it.
+   * @param ctx the context of the config
+   * @return whether the database was created from a template
+   * @throws MojoFailureException when the custom strategy can't be created */
+  protected boolean cloneTemplate(DbContext ctx) throws MojoFailureException {
+    TemplateStore.forget(ctx.getConfig());
+    if (!snapshot) { return false; }
+    DatabaseTemplate strategy = DatabaseTemplate.forConfig(ctx.getConfig(), snapshotStrategy);
+    if (strategy == null) {
+      ctx.getLog().info(" snapshots aren't supported for "
+                        + ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl() + ", executing the scripts");
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    String name = null;
+    try {
+      TemplateStore store = new TemplateStore(snapshotDirectory, ctx.getConfig());
+      name = store.name(ScriptFingerprint.of(ctx.getConfig()));
+      if (!store.contains(name)) {
+        ctx.getLog().info(" no template " + name + ", executing the scripts");
+        return false;
+      }
+      strategy.restore(this, ctx, name, store.getDirectory());
+      store.used(name);
+    } catch (SQLException | IOException e) {
+      ctx.getLog().warn("Can't create database from template " + name + ", executing the scripts: " + e);
+      return false;
+    }
+    TemplateStore.cloned(ctx.getConfig(), name);
+    ctx.getLog().info(" database created from template " + name + " in "
+                      + ((System.currentTimeMillis() - start) / 1000.0) + " second(s)");
+    return true;
+  }
+
+  /** Saves the application database as the template for the fingerprint of the config and
+   * deletes the least recently used templates above the limit. Nothing is saved when the
+   * database was created from a template in this session or the template exists. A failure
+   * is logged, the database itself is fine.
+   * @param ctx the context of the config
+   * @throws MojoFailureException when the custom strategy can't be created */
+  protected void saveTemplate(DbContext ctx) throws MojoFailureException {
+    DatabaseTemplate strategy = DatabaseTemplate.forConfig(ctx.getConfig(), snapshotStrategy);
+    if (strategy == null) {
+      ctx.getLog().warn("Snapshots aren't supported for " + ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl());
+      return;
+    }
+    String cloned = TemplateStore.clonedFrom(ctx.getConfig());
+    if (cloned != null) {
+      ctx.getLog().info(" database created from template " + cloned + ", nothing to save");
+      return;
+    }
+    long start = System.currentTimeMillis();
+    String name = null;
+    try {
+      TemplateStore store = new TemplateStore(snapshotDirectory, ctx.getConfig());
+      name = store.name(ScriptFingerprint.of(ctx.getConfig()));
+      if (store.contains(name)) {
+        store.used(name);
+        ctx.getLog().info(" template " + name + " exists");
+        return;
+      }
+      File directory = store.getDirectory();
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Can't create directory " + directory);
+      }
+      strategy.save(this, ctx, name, directory);
+      store.added(name);
+      ctx.getLog().info(" template " + name + " saved in " + ((System.currentTimeMillis() - start) / 1000.0) + " second(s)");
+      for (String old : store.evictable(snapshotLimit)) {
+        strategy.delete(this, ctx, old, directory);
+        store.removed(old);
+        ctx.getLog().info(" template " + old + " deleted");
+      }
+    } catch (SQLException | IOException e) {
+      ctx.getLog().warn("Can't save template " + name + ": " + e);
+    }
+  }
+
+  /** @return the name of the goal, used in the names of the reports */
+  private String goalName() {
+    return getClass().getSimpleName().replaceFirst("^DB", "").replaceFirst("Mojo$", "").toLowerCase();
+  }
+
+  /** @param ctx the context of the config
+   * @return the checkpoint directory of the config */
+  private File checkpointDirectory(DbContext ctx) {
+    return new File(new File(checkpointDirectory, goalName()), ctx.getName().replaceAll("[^A-Za-z0-9._-]", "_"));
+  }
+
+  /** @param ctx the context of the executed config
+   * @return the statement cache for the splitting settings of the config */
+  private StatementIndex statementIndex(DbContext ctx) {
+    checkEncoding(ctx);
+    DbConfig config = ctx.getConfig();
+    String splitting = SqlDialect.forConfig(config) + "|" + config.getSqlDelimiter() + "|"
+      + config.getTransactionDelimiter() + "|" + config.getScriptEncoding();
+    return new StatementIndex(statementCacheDirectory, splitting, ScriptReader.BUFFER_SIZE);
+  }
+
+  /** Opens the checkpoint of the script.
+   * @param ctx the context of the executed config
+   * @param file the script
+   * @return the checkpoint or null when the checkpoints are off
+   * @throws IOException on error
+   * @throws MojoFailureException when the script was changed since the checkpoint */
+  private ScriptCheckpoint openCheckpoint(DbContext ctx, File file) throws IOException, MojoFailureException {
+    if (!checkpoint && !resume) { return null; }
+    ScriptCheckpoint result = ScriptCheckpoint.open(checkpointDirectory(ctx), file, resume);
+    if (result.isComplete()) {
+      ctx.getLog().info(" script "+file.getName()+" is completed by the resumed execution, skipped");
+    } else if (result.getIndex() > 0) {
+      ctx.getLog().info(" resuming script "+file.getName()+" after statement "+result.getIndex()+" at line "+result.getLine());
+    }
+    return result;
+  }
+
+  /** Writes the metrics report, failure is only logged so it doesn't hide the result of the goal.
+   * @param executionMetrics the metrics */
+  private void writeMetrics(ExecutionMetrics executionMetrics) {
+    String goal = goalName();
+    try {
+      File report = executionMetrics.write(metricsDirectory, goal);
+      getLog().info("metrics report written to " + report);
+    } catch (IOException e) {
+      getLog().warn("Writing of metrics report failed: " + e.getMessage());
+    }
+  }
+
+  /** Executes the configs concurrently on a pool of {@link #configParallelism} threads.
+   * Every config is executed to its end, the failed ones are summarized afterwards.
+   * @param configs the configs to execute
+   * @param executionMetrics the metrics of the execution
+   * @throws MojoExecutionException on error
+   * @throws MojoFailureException on error */
+  private void executeConcurrently(List<DbConfig> configs, final ExecutionMetrics executionMetrics)
+    throws MojoExecutionException, MojoFailureException {
+    int threads = Math.min(configParallelism, configs.size());
+    getLog().info("executing " + configs.size() + " dbConfig(s) by " + threads + " thread(s)");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Map<String, Future<Void>> futures = new LinkedHashMap<>();
+    for (final DbConfig cf : configs) {
+      futures.put(cf.getName(), executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            BufferedLog log = new BufferedLog(getLog(), "[" + cf.getName() + "] ");
+            long startTime = System.currentTimeMillis();
+            try {
+              log.info("dbConfig: " + cf.getName());
+              executeConfig(new DbContext(cf, log, executionMetrics));
+              log.info("dbConfig " + cf.getName() + " finished in "
+                       + ((System.currentTimeMillis() - startTime) / 1000.0) + " second(s)");
+              return null;
+            } catch (Exception e) {
+              log.error("dbConfig " + cf.getName() + " failed: " + e.getMessage());
+              throw e;
+            } finally {
+              log.flush();
+            }
+          } }));
+    }
+    executor.shutdown();
+
+    Map<String, Throwable> failures = new LinkedHashMap<>();
+    for (Map.Entry<String, Future<Void>> entry : futures.entrySet()) {
+      try {
+        entry.getValue().get();
+      } catch (ExecutionException e) {
+        failures.put(entry.getKey(), e.getCause());
+      } catch (InterruptedException e) {
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while waiting for configs", e);
+      }
+    }
+    if (failures.isEmpty()) { return; }
+
+    StringBuilder summary = new StringBuilder();
+    summary.append(failures.size()).append(" of ").append(configs.size()).append(" dbConfig(s) failed:");
+    boolean failure = true;
+    for (Map.Entry<String, Throwable> entry : failures.entrySet()) {
+      summary.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue().getMessage());
+      if (entry.getValue().getCause() != null) {
+        summary.append(" (").append(entry.getValue().getCause().getMessage()).append(")");
+      }
+      failure = failure && entry.getValue() instanceof MojoFailureException;
+    }
+    getLog().error(summary);
+    Throwable first = failures.values().iterator().next();
+    if (failure) {
+      MojoFailureException fe = new MojoFailureException(summary.toString());
+      fe.initCause(first);
+      throw fe;
+    }
+    throw new MojoExecutionException(summary.toString(), first);
   }
 
   /** Checks the given database connection settings.
@@ -111,17 +906,33 @@ public abstract class AbstractDBMojo extends AbstractMojo {
 
   /** Executes all of the sql scripts in a given directory
    * using the given database connection.
+   * @param ctx the context of the executed config
    * @param directory the directory where the scripts reside
    * @param con the database connection
    * @throws SQLException on error
    * @throws MojoFailureException on error
    * @throws MojoExecutionException on error
    * @throws IOException on error */
-  protected void executeScriptsInDirectory(File directory, Connection con)
+  protected void executeScriptsInDirectory(DbContext ctx, File directory, Connection con)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    executeScriptsInDirectory(ctx, directory, con, null);
+  }
+
+  /** Executes the sql scripts in a given directory which aren't recorded
+   * in the ledger and records them there.
+   * @param ctx the context of the executed config
+   * @param directory the directory where the scripts reside
+   * @param con the database connection
+   * @param ledger the ledger of applied scripts, null to execute all scripts
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  protected void executeScriptsInDirectory(DbContext ctx, File directory, Connection con, ScriptLedger ledger)
     throws SQLException, MojoFailureException, MojoExecutionException, IOException {
 
     // talk a bit :)
-    getLog().info("Executing scripts in: "+directory.getName());
+    ctx.getLog().info("Executing scripts in: "+directory.getName());
 
     // make sure we can read it, and that it's
     // a file and not a directory
@@ -130,6 +941,51 @@ public abstract class AbstractDBMojo extends AbstractMojo {
                                      directory.getName()+" is not a directory");
     }
 
+    // collect the scripts which aren't applied yet
+    long dirStartTime = System.currentTimeMillis();
+    int skipCount = 0;
+    File manifest = null;
+    Set<String> names = new HashSet<>();
+    List<File> pending = new ArrayList<>();
+    for (File file : scriptFiles(directory)) {
+      if (file.getName().equals(dependencyManifest)) {
+        manifest = file;
+        continue;
+      }
+      names.add(file.getName());
+      if (ledger != null && !ledger.isPending(file)) {
+        skipCount++;
+        continue;
+      }
+      pending.add(file);
+    }
+    int scriptCount = pending.size();
+    if (prefetchScripts > 0) {
+      List<File> compressed = new ArrayList<>();
+      for (File file : pending) {
+        if (ScriptReader.isGzip(file)) { compressed.add(file); }
+      }
+      if (!compressed.isEmpty()) {
+        ctx.setPrefetcher(new ScriptPrefetcher(compressed, prefetchScripts, prefetchSize, readBufferSize, inflateBufferSize));
+      }
+    }
+    try {
+      executeScripts(ctx, directory, con, ledger, pending, names, manifest);
+    } finally {
+      if (ctx.getPrefetcher() != null) {
+        ctx.getPrefetcher().close();
+        ctx.setPrefetcher(null);
+      }
+    }
+    double elapsed = ((System.currentTimeMillis()-dirStartTime)/1000.0);
+    ctx.getLog().info(scriptCount+" script(s) in "+directory.getName()+" completed execution in "+elapsed+" second(s)"
+                      +(skipCount > 0 ? ", "+skipCount+" already applied script(s) skipped" : ""));
+  }
+
+  /** Lists the files of the directory in name order, the backup files ending with ~ are left out.
+   * @param directory the directory
+   * @return the files */
+  protected List<File> scriptFiles(File directory) {
     // get all files in directory
     File[] files = directory.listFiles();
 
@@ -140,42 +996,530 @@ public abstract class AbstractDBMojo extends AbstractMojo {
         } }
       );
 
-    // loop through all the files and execute them
+    List<File> list = new ArrayList<>();
     for (int i = 0; i<files.length; i++) {
       if (!files[i].isDirectory() && files[i].isFile() && !files[i].getName().endsWith("~")) {
-        double startTime = System.currentTimeMillis();
-        if (useBatch) {
-          batchExecuteSqlScript(files[i], con);
+        list.add(files[i]);
+      }
+    }
+    return list;
+  }
+
+  /** @param file the file of a script directory
+   * @return whether the file is the manifest of the script dependencies */
+  protected boolean isDependencyManifest(File file) {
+    return file.getName().equals(dependencyManifest);
+  }
+
+  /** Executes the pending scripts of the directory, by their dependencies if they're declared.
+   * @param ctx the context of the executed config
+   * @param directory the directory where the scripts reside
+   * @param con the database connection
+   * @param ledger the ledger of applied scripts, may be null
+   * @param pending the scripts to execute in name order
+   * @param names the names of all scripts of the directory
+   * @param manifest the manifest of the dependencies, may be null
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  private void executeScripts(DbContext ctx, File directory, Connection con, ScriptLedger ledger,
+                              List<File> pending, Set<String> names, File manifest)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    ScriptGraph graph = new ScriptGraph(pending, names);
+    if (manifest != null) { graph.readManifest(manifest); }
+    String encoding = ctx.getConfig().getScriptEncoding() == null
+      ? Charset.defaultCharset().name() : ctx.getConfig().getScriptEncoding();
+    for (File file : pending) {
+      if (delimitedFileSettings(ctx, file) == null && !ScriptReader.isZip(file)) {
+        graph.readHeader(file, new ScriptReader(file, encoding));
+      }
+    }
+    if (graph.isDeclared()) {
+      graph.resolve();
+      executeScriptGraph(ctx, graph, con, ledger);
+    } else {
+      // loop through all the files and execute them, the runs of
+      // independent scripts are executed concurrently
+      List<File> independent = new ArrayList<>();
+      for (File file : pending) {
+        if (parallelism > 1 && isIndependentScript(ctx, directory, file)) {
+          independent.add(file);
         } else {
-          executeSqlScript(files[i], con);
+          executeScriptsConcurrently(ctx, independent, con, ledger);
+          independent.clear();
+          executeScript(ctx, file, con, ledger);
         }
-        double endTime = System.currentTimeMillis();
-        double elapsed = ((endTime-startTime)/1000.0);
-        getLog().info(" script completed execution in "+elapsed+" second(s)");
       }
+      executeScriptsConcurrently(ctx, independent, con, ledger);
     }
+  }
 
+  /** Opens the ledger of the applied update scripts of the config on its own connection.
+   * @param ctx the context of the config
+   * @return the ledger or null when the ledger isn't used
+   * @throws SQLException on error
+   * @throws MojoFailureException on error */
+  protected ScriptLedger openLedger(DbContext ctx) throws SQLException, MojoFailureException {
+    if (!useLedger) { return null; }
+    ScriptLedger ledger = new ScriptLedger(ctx, openApplicationDbConnection(ctx), ledgerTable, failOnChecksumDrift,
+                                           ctx.getConfig().getUpdateDirectory());
+    try {
+      ledger.open();
+    } catch (SQLException | RuntimeException e) {
+      try {
+        ledger.close();
+      } catch (SQLException ce) {
+        e.addSuppressed(ce);
+      }
+      throw e;
+    }
+    return ledger;
+  }
+
+  /** Executes single script file and records it in the ledger. The script whose statements
+   * were rejected isn't recorded, so it's executed again after the fix.
+   * @param ctx the context of the executed config
+   * @param file the script
+   * @param con the database connection
+   * @param ledger the ledger, may be null
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  protected void executeScript(DbContext ctx, File file, Connection con, ScriptLedger ledger)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    long startTime = System.currentTimeMillis();
+    ScriptRejects rejects = ctx.getRejects();
+    int rejected = rejects == null ? 0 : rejects.getCount(file);
+    try {
+      executeScript(ctx, file, con);
+    } finally {
+      if (ctx.getPrefetcher() != null) { ctx.getPrefetcher().discard(file); }
+    }
+    if (ledger != null) {
+      if (rejects != null && rejects.getCount(file) > rejected) {
+        ctx.getLog().warn(" " + file.getName() + " isn't recorded in the ledger, "
+                          + (rejects.getCount(file) - rejected) + " statement(s) of it were rejected");
+      } else {
+        ledger.record(file, startTime, System.currentTimeMillis() - startTime);
+      }
+    }
+  }
+
+  /** Executes single script file and logs how long it took.
+   * @param ctx the context of the executed config
+   * @param file the script
+   * @param con the database connection
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  protected void executeScript(DbContext ctx, File file, Connection con)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    double startTime = System.currentTimeMillis();
+    DelimitedFileSettings delimited = delimitedFileSettings(ctx, file);
+    if (ScriptReader.isZip(file) && !(file instanceof ScriptArchive.Entry)) {
+      executeArchive(ctx, file, con);
+    } else if (delimited != null) {
+      loadDelimitedFile(ctx, delimited, file, con);
+    } else if (useBatch) {
+      batchExecuteSqlScript(ctx, file, con);
+    } else {
+      executeSqlScript(ctx, file, con);
+    }
+    double endTime = System.currentTimeMillis();
+    double elapsed = ((endTime-startTime)/1000.0);
+    ctx.getLog().info(" script "+file.getName()+" completed execution in "+elapsed+" second(s)");
+  }
+
+  /** Executes the scripts of the zip archive in the order of its entries, they're read
+   * from the archive without extraction.
+   * @param ctx the context of the executed config
+   * @param file the archive
+   * @param con the connection
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  protected void executeArchive(DbContext ctx, File file, Connection con)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    ctx.getLog().info("executing archive: "+file.getName());
+    int count = 0;
+    try (ScriptArchive archive = new ScriptArchive(file, inflateBufferSize)) {
+      ScriptArchive.Entry entry;
+      while ((entry = archive.next()) != null) {
+        executeScript(ctx, entry, con);
+        count++;
+      }
+    }
+    ctx.getLog().info(" "+count+" script(s) executed from archive "+file.getName());
+  }
+
+  /** Returns settings of delimited data file, the first {@link DelimitedFileSettings} of config
+   * which pattern matches the file name. Files *.csv and *.tsv (optionally gzipped) which don't
+   * match any pattern are loaded with the default settings.
+   * @param ctx the context of the executed config
+   * @param file the file
+   * @return the settings or null if the file is a script */
+  protected DelimitedFileSettings delimitedFileSettings(DbContext ctx, File file) {
+    if (ctx.getConfig().getDelimitedFile() != null) {
+      for (DelimitedFileSettings settings : ctx.getConfig().getDelimitedFile()) {
+        if (settings.getPattern() != null && file.getName().matches(settings.getPattern())) { return settings; }
+      }
+    }
+    String name = file.getName().toLowerCase();
+    if (name.endsWith(".gz")) { name = name.substring(0, name.length() - 3); }
+    return name.endsWith(".csv") || name.endsWith(".tsv") ? new DelimitedFileSettings() : null;
+  }
+
+  /** Loads delimited data file into its table.
+   * @param ctx the context of the executed config
+   * @param settings the settings of the file
+   * @param file the data file
+   * @param con the connection
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws IOException on error */
+  protected void loadDelimitedFile(DbContext ctx, DelimitedFileSettings settings, File file, Connection con)
+    throws SQLException, MojoFailureException, IOException {
+    ctx.getLog().info("loading data file: "+file.getName());
+    if (!file.exists() || !file.canRead() || file.isDirectory() || !file.isFile()) {
+      throw new MojoFailureException(file.getName()+" is not a file");
+    }
+    long startTime = System.currentTimeMillis();
+    FileMetrics fileMetrics = ctx.getMetrics().startFile(ctx.getName(), file, "load");
+    boolean failed = true;
+    long rows;
+    try {
+      Reader reader = openReader(ctx, file);
+      fileMetrics.setReader(reader);
+      rows = new DelimitedDataLoader(ctx, settings).load(file, reader, con);
+      fileMetrics.loaded(rows);
+      failed = false;
+    } finally {
+      ctx.getMetrics().finish(fileMetrics, failed);
+    }
+    double elapsed = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+    ctx.getLog().info(" "+rows+" row(s) loaded from "+file.getName()+" ("+Math.round(rows / elapsed)+" rows/s)");
+  }
+
+  /** Checks whether the script doesn't depend on the other scripts in the directory,
+   * so it can be executed concurrently with them.
+   * @param ctx the context of the executed config
+   * @param directory the directory of the script
+   * @param file the script
+   * @return true if the script is order independent */
+  private boolean isIndependentScript(DbContext ctx, File directory, File file) {
+    if (ctx.getConfig().getParallelDirectory() != null) {
+      for (File dir : ctx.getConfig().getParallelDirectory()) {
+        if (dir.getAbsoluteFile().equals(directory.getAbsoluteFile())) { return true; }
+      }
+    }
+    if (ctx.getConfig().getParallelScriptPattern() != null) {
+      for (String pattern : ctx.getConfig().getParallelScriptPattern()) {
+        if (file.getName().matches(pattern)) { return true; }
+      }
+    }
+    return false;
+  }
+
+  /** Executes the scripts concurrently on a pool of {@link #parallelism} workers. Every worker
+   * opens its own application database connection. When a script fails no further scripts
+   * are started and the first error is thrown after the running ones finish.
+   * @param ctx the context of the executed config
+   * @param files the order independent scripts
+   * @param con the connection used when there is only one script
+   * @param ledger the ledger of applied scripts, may be null
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  private void executeScriptsConcurrently(final DbContext ctx, List<File> files, Connection con, final ScriptLedger ledger)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    if (files.size() <= 1) {
+      for (File file : files) { executeScript(ctx, file, con, ledger); }
+      return;
+    }
+    int workers = Math.min(parallelism, files.size());
+    ctx.getLog().info(" executing "+files.size()+" independent script(s) by "+workers+" worker(s)");
+    final Queue<File> queue = new ConcurrentLinkedQueue<>(files);
+    final AtomicBoolean failed = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      futures.add(executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            Connection workerCon = openApplicationDbConnection(ctx);
+            try {
+              File file;
+              while (!failed.get() && (file = queue.poll()) != null) {
+                try {
+                  executeScript(ctx, file, workerCon, ledger);
+                } catch (Exception e) {
+                  failed.set(true);
+                  throw e;
+                }
+              }
+            } finally {
+              closeConnection(workerCon);
+            }
+            return null;
+          } }));
+    }
+    executor.shutdown();
+    Throwable error = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (error == null) { error = e.getCause(); }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while waiting for scripts", e);
+      }
+    }
+    if (error != null) { rethrow(error); }
+  }
+
+  /** Executes the scripts by their dependency graph. The scripts whose dependencies are
+   * executed are started in name order on a pool of {@link #parallelism} workers, every
+   * worker uses its own application database connection. When a script fails no further
+   * scripts are started and the first error is thrown after the running ones finish.
+   * @param ctx the context of the executed config
+   * @param graph the resolved graph of the scripts
+   * @param con the connection used when there is a single worker
+   * @param ledger the ledger of applied scripts, may be null
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  private void executeScriptGraph(final DbContext ctx, ScriptGraph graph, Connection con, final ScriptLedger ledger)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    Queue<File> ready = new PriorityQueue<>(graph.start());
+    int workers = Math.min(parallelism, graph.size());
+    if (workers <= 1) {
+      while (!ready.isEmpty()) {
+        File file = ready.poll();
+        executeScript(ctx, file, con, ledger);
+        ready.addAll(graph.completed(file));
+      }
+      return;
+    }
+    ctx.getLog().info(" executing "+graph.size()+" script(s) by their dependencies on "+workers+" worker(s)");
+    final BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(workers);
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    CompletionService<File> completion = new ExecutorCompletionService<>(executor);
+    Throwable error = null;
+    try {
+      int running = 0;
+      while (true) {
+        while (error == null && running < workers && !ready.isEmpty()) {
+          final File file = ready.poll();
+          completion.submit(new Callable<File>() {
+              public File call() throws Exception {
+                Connection workerCon = connections.poll();
+                if (workerCon == null) { workerCon = openApplicationDbConnection(ctx); }
+                try {
+                  executeScript(ctx, file, workerCon, ledger);
+                } finally {
+                  connections.add(workerCon);
+                }
+                return file;
+              } });
+          running++;
+        }
+        if (running == 0) { break; }
+        Future<File> done = completion.take();
+        running--;
+        try {
+          ready.addAll(graph.completed(done.get()));
+        } catch (ExecutionException e) {
+          if (error == null) { error = e.getCause(); }
+        }
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while waiting for scripts", e);
+    } finally {
+      executor.shutdown();
+      for (Connection workerCon : connections) { closeConnection(workerCon); }
+    }
+    if (error != null) { rethrow(error); }
+  }
+
+  /** Rethrows error of a worker thread with its original type.
+   * @param error the error
+   * @throws SQLException on error
+   * @throws MojoFailureException on error
+   * @throws MojoExecutionException on error
+   * @throws IOException on error */
+  private static void rethrow(Throwable error)
+    throws SQLException, MojoFailureException, MojoExecutionException, IOException {
+    if (error instanceof SQLException) { throw (SQLException) error; }
+    if (error instanceof MojoFailureException) { throw (MojoFailureException) error; }
+    if (error instanceof MojoExecutionException) { throw (MojoExecutionException) error; }
+    if (error instanceof IOException) { throw (IOException) error; }
+    if (error instanceof RuntimeException) { throw (RuntimeException) error; }
+    if (error instanceof Error) { throw (Error) error; }
+    throw new MojoExecutionException(error.getMessage(), error);
+  }
+
+  /** Opens reader of the script file. Gzipped file is decompressed and the encoding
+   * is taken from the BOM or from the config. The file is read by {@link ScriptReader}
+   * which maps big plain files into memory.
+   * @param ctx the context of the executed config
+   * @param file the script file
+   * @return the reader
+   * @throws IOException on error */
+  protected Reader openReader(DbContext ctx, File file) throws IOException {
+    return openReader(ctx, file, 0);
+  }
+
+  /** Opens reader of the script file at the byte offset, see {@link #openReader(DbContext, File)}.
+   * @param ctx the context of the executed config
+   * @param file the script file
+   * @param offset the offset after a line break, 0 for gzipped file
+   * @return the reader
+   * @throws IOException on error or when the offset doesn't follow a line break */
+  protected Reader openReader(DbContext ctx, File file, long offset) throws IOException {
+    return openReader(ctx, file, offset, false);
+  }
+
+  /** Opens reader of the script file at the byte offset, see {@link #openReader(DbContext, File)}.
+   * @param ctx the context of the executed config
+   * @param file the script file
+   * @param offset the offset after a line break, 0 for gzipped file
+   * @param checksum whether the reader computes the checksum of the file, the offset has to be 0
+   * @return the reader
+   * @throws IOException on error or when the offset doesn't follow a line break */
+  protected Reader openReader(DbContext ctx, File file, long offset, boolean checksum) throws IOException {
+    // if it's a compressed file (gzip) then unzip as
+    // we read it in
+    boolean gzip = ScriptReader.isGzip(file);
+    if (gzip) {
+      ctx.getLog().info(" file is gz compressed, using gzip stream");
+    }
+
+    // check encoding
+    checkEncoding(ctx);
+
+    return newReader(ctx, file, offset, checksum);
+  }
+
+  /** Creates the reader of the file, the entry of an archive or the prefetched stream.
+   * @param ctx the context of the executed config
+   * @param file the file
+   * @param offset the offset of the first read byte
+   * @param checksum whether the reader of the file computes its checksum, the stream has none
+   * @return the reader
+   * @throws IOException on error */
+  private ScriptReader newReader(DbContext ctx, File file, long offset, boolean checksum) throws IOException {
+    boolean gzip = ScriptReader.isGzip(file);
+    String encoding = ctx.getConfig().getScriptEncoding();
+    if (file instanceof ScriptArchive.Entry) {
+      if (offset > 0) { throw new IOException("Script in archive can't be read from offset " + offset); }
+      InputStream in = ((ScriptArchive.Entry) file).open();
+      return new ScriptReader(gzip ? new GZIPInputStream(in, inflateBufferSize) : in, encoding, readBufferSize);
+    }
+    InputStream prefetched = offset == 0 && ctx.getPrefetcher() != null ? ctx.getPrefetcher().take(file) : null;
+    if (prefetched != null) {
+      return new ScriptReader(prefetched, encoding, readBufferSize);
+    }
+    return new ScriptReader(file, encoding, gzip, offset, readBufferSize, inflateBufferSize, checksum);
   }
 
-  private Reader inputStreamToReaderBOM(InputStream in) throws IOException {
-    BOMInputStream bOMInputStream = new BOMInputStream(in, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE,
-                                                       ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
-    ByteOrderMark bom = bOMInputStream.getBOM();
-    String charsetName = bom == null ? getDbConfig().getScriptEncoding() : bom.getCharsetName();
-    return new InputStreamReader(new BufferedInputStream(bOMInputStream), charsetName);
+  /** Opens the script file and creates splitter of its statements, in the pipelined mode
+   * the splitter runs on its own thread.
+   * @param ctx the context of the executed config
+   * @param file the script file
+   * @return the source of the statements
+   * @throws IOException on error */
+  protected StatementSource openScript(DbContext ctx, File file) throws IOException {
+    return openScript(ctx, file, null);
+  }
+
+  /** Opens the script file and creates splitter of its statements, in the pipelined mode
+   * the splitter runs on its own thread.
+   * @param ctx the context of the executed config
+   * @param file the script file
+   * @param fileMetrics the metrics which measure the reading, may be null
+   * @return the source of the statements
+   * @throws IOException on error */
+  protected StatementSource openScript(DbContext ctx, File file, FileMetrics fileMetrics) throws IOException {
+    return openScript(ctx, file, fileMetrics, null);
+  }
+
+  /** Opens the script file after the checkpoint and creates splitter of its statements.
+   * Plain script is read from the byte offset of the checkpoint, gzipped script or script
+   * without valid offset is read from its beginning and the committed statements are skipped.
+   * @param ctx the context of the executed config
+   * @param file the script file
+   * @param fileMetrics the metrics which measure the reading, may be null
+   * @param checkpoint the checkpoint of the script, may be null
+   * @return the source of the statements
+   * @throws IOException on error */
+  protected StatementSource openScript(DbContext ctx, File file, FileMetrics fileMetrics, ScriptCheckpoint checkpoint)
+    throws IOException {
+    long skip = checkpoint == null ? 0 : checkpoint.getIndex();
+    boolean gzip = ScriptReader.isGzip(file);
+    boolean entry = file instanceof ScriptArchive.Entry;
+    StatementIndex index = statementCache && !entry ? statementIndex(ctx) : null;
+    if (index != null) {
+      StatementSource cached = index.open(file, gzip, skip);
+      if (cached != null) {
+        ctx.getLog().info(" statements of "+file.getName()+" read from cache");
+        return pipelined ? new PipelinedStatementSource(cached, pipelineQueueSize, file.getName()) : cached;
+      }
+    }
+    Reader reader = null;
+    if (skip > 0 && checkpoint.getOffset() > 0 && !gzip && !entry) {
+      try {
+        reader = openReader(ctx, file, checkpoint.getOffset());
+        skip = 0;
+      } catch (IOException e) {
+        ctx.getLog().warn(" "+e.getMessage()+", skipping "+checkpoint.getIndex()+" statement(s) of "+file.getName());
+      }
+    }
+    // the index of the whole script gets the checksum of the bytes the splitter reads
+    if (reader == null) { reader = openReader(ctx, file, 0, index != null && skip == 0); }
+    if (fileMetrics != null) { fileMetrics.setReader(reader); }
+    SqlStatementSplitter splitter = new SqlStatementSplitter(reader, SqlDialect.forConfig(ctx.getConfig()),
+                                                             ctx.getConfig().getSqlDelimiter(),
+                                                             ctx.getConfig().getTransactionDelimiter());
+    StatementSource source = splitter;
+    if ((checkpoint != null || index != null) && reader instanceof ScriptReader) {
+      ScriptReader scriptReader = (ScriptReader) reader;
+      boolean counted = splitter.countBytes(scriptReader.getCharset(), scriptReader.getStartOffset());
+      if (index != null && counted && skip == 0 && (checkpoint == null || checkpoint.getIndex() == 0)) {
+        source = index.record(file, gzip, scriptReader, splitter);
+      }
+    }
+    if (checkpoint != null && checkpoint.getIndex() > 0) {
+      if (skip == 0) {
+        splitter.resume(checkpoint.getIndex(), checkpoint.getLine(), checkpoint.isEndAfterCR());
+      } else {
+        for (long i = 0; i < skip && splitter.nextStatement() != null; i++) {
+          // the statement is committed already
+        }
+      }
+    }
+    return pipelined ? new PipelinedStatementSource(source, pipelineQueueSize, file.getName()) : source;
   }
 
   /** Batch executes a script file.
+   * @param ctx the context of the executed config
    * @param file the file
    * @param con the connection
    * @throws SQLException on error
    * @throws MojoFailureException on error
    * @throws MojoExecutionException on error
    * @throws IOException on error */
-  protected void batchExecuteSqlScript(File file, Connection con)
+  protected void batchExecuteSqlScript(DbContext ctx, File file, Connection con)
     throws SQLException, MojoFailureException, MojoExecutionException, IOException {
     // talk a bit :)
-    getLog().info("batch executing script: "+file.getName());
+    ctx.getLog().info("batch executing script: "+file.getName());
 
     // make sure we can read it, and that it's
     // a file and not a directory
@@ -184,148 +1528,371 @@ public abstract class AbstractDBMojo extends AbstractMojo {
       throw new MojoFailureException(file.getName()+" is not a file");
     }
 
-    // open input stream to file
-    InputStream ips = new FileInputStream(file);
-
-    // if it's a compressed file (gzip) then unzip as
-    // we read it in
-    if (file.getName().toUpperCase().endsWith("GZ")) {
-      ips = new GZIPInputStream(ips);
+    ScriptCheckpoint checkpoint = openCheckpoint(ctx, file);
+    if (checkpoint != null && checkpoint.isComplete()) { return; }
+    FileMetrics fileMetrics = ctx.getMetrics().startFile(ctx.getName(), file, "batch");
+    boolean failed = true;
+    StatementSource splitter;
+    try {
+      long openStart = System.nanoTime();
+      splitter = openScript(ctx, file, fileMetrics, checkpoint);
+      fileMetrics.source(System.nanoTime() - openStart);
+    } catch (IOException | RuntimeException e) {
+      ctx.getMetrics().finish(fileMetrics, true);
+      throw e;
+    }
+    SqlDialect dialect = SqlDialect.forConfig(ctx.getConfig());
+    InsertCoalescer coalescer = null;
+    if (coalesceInserts && !parameterize && ctx.getRejects() == null && dialect.isMultiRowValues()) {
+      coalescer = new InsertCoalescer(splitter, dialect, coalesceMaxRows, coalesceMaxBytes);
+      splitter = coalescer;
     }
-
-    // check encoding
-    checkEncoding();
-    // our file reader
-    Reader reader = inputStreamToReaderBOM(ips);
     // create SQL Statement
     Statement st = con.createStatement();
 
-    StringBuilder sql = new StringBuilder();
-    String line;
-    BufferedReader in = new BufferedReader(reader);
-
-    // loop through the statements
+    // loop through the statements, the batch is sent when it's full,
+    // when the transaction delimiter is reached or when a commit is due
     int execCount = 0;
+    long startTime = System.currentTimeMillis();
+    TransactionControl tx = transactionControl(con);
+    AdaptiveBatchSizer sizer = adaptiveBatch
+      ? new AdaptiveBatchSizer(minBatchSize, maxBatchSize, targetBatchTime, maxBatchBytes) : null;
     List<String> sqlLines = new ArrayList<>();
-    line = in.readLine();
-    do {
-      // append the line
-      line = line == null ? getDbConfig().getTransactionDelimiter() : line;
-      line.trim();
-      if (getDbConfig().getTransactionDelimiter().toUpperCase().equals(line.toUpperCase())) {
-        sqlLines.add(sql.toString());
-        executeBatch(st, sqlLines);
-        sql.delete(0, sql.length());
-        sqlLines.clear();
-        execCount++;
-      } else {
-        sql.append("\n").append(line);
-        // if the line ends with the delimiter, then
-        // lets execute it
-        if (sql.toString().endsWith(getDbConfig().getSqlDelimiter())) {
-          String sqlLine = sql.substring(0, sql.length() - getDbConfig().getSqlDelimiter().length());
-          sqlLines.add(sqlLine);
-          sql.replace(0, sql.length(), "");
-          execCount++;
-          if (sqlLines.size() >= batchSize) {
-            executeBatch(st, sqlLines);
-            sqlLines.clear();
+    List<Integer> lines = new ArrayList<>();
+    StatementTemplates templates = parameterize
+      ? new StatementTemplates(con, dialect, preparedStatementCacheSize) : null;
+    List<StatementTemplates.Template> parsed = new ArrayList<>();
+    String batchTemplate = null;
+    long batchBytes = 0;
+    int batchLine = 0;
+    long committed = 0;
+    try {
+      tx.begin();
+      SqlStatement statement;
+      SqlStatement previous = null;
+      long sourceStart = System.nanoTime();
+      while ((statement = splitter.nextStatement()) != null) {
+        fileMetrics.source(System.nanoTime() - sourceStart);
+        if (!statement.isEmpty()) {
+          if (templates != null) {
+            // the batch holds the statements of one template or the ones executed as text
+            StatementTemplates.Template template = templates.parse(statement.getSql());
+            String key = template == null ? null : template.getSql();
+            if (!sqlLines.isEmpty() && !(key == null ? batchTemplate == null : key.equals(batchTemplate))) {
+              executeBatch(ctx, file, st, sqlLines, lines, templates, parsed, tx, sizer, batchBytes, fileMetrics, batchLine);
+              batchBytes = 0;
+              // the statement isn't executed yet, the checkpoint is after the flushed batch
+              if (checkpoint != null && tx.getCommitted() != committed) {
+                committed = tx.getCommitted();
+                checkpoint.save(previous);
+              }
+            }
+            batchTemplate = key;
+            parsed.add(template);
           }
+          if (sqlLines.isEmpty()) { batchLine = statement.getLine(); }
+          sqlLines.add(statement.getSql());
+          lines.add(statement.getLine());
+          batchBytes += statement.getSql().length();
+          execCount++;
+        }
+        boolean full = sizer == null ? sqlLines.size() >= batchSize : sizer.isFull(sqlLines.size(), batchBytes);
+        if (statement.isTransactionEnd() || full || tx.isCommitDue(sqlLines.size())) {
+          executeBatch(ctx, file, st, sqlLines, lines, templates, parsed, tx, sizer, batchBytes, fileMetrics, batchLine);
+          batchBytes = 0;
+        }
+        if (statement.isTransactionEnd()) { tx.transactionEnd(); }
+        if (checkpoint != null && tx.getCommitted() != committed) {
+          committed = tx.getCommitted();
+          checkpoint.save(statement);
         }
+        previous = statement;
+        sourceStart = System.nanoTime();
       }
-    } while ((line = in.readLine()) != null || sql.length() > 0);
+      fileMetrics.source(System.nanoTime() - sourceStart);
+      executeBatch(ctx, file, st, sqlLines, lines, templates, parsed, tx, sizer, batchBytes, fileMetrics, batchLine);
+      tx.end();
+      if (checkpoint != null) { checkpoint.complete(); }
+      failed = false;
+    } catch (SQLException | IOException | RuntimeException e) {
+      rollback(ctx, tx, e);
+      throw e;
+    } finally {
+      st.close();
+      if (templates != null) { templates.close(); }
+      splitter.close();
+      if (checkpoint != null) { checkpoint.close(); }
+      ctx.getMetrics().finish(fileMetrics, failed);
+    }
 
-    st.close();
-    reader.close();
-    in.close();
+    ctx.getLog().info(" "+execCount+" statements batch executed from "+file.getName()+statementRate(tx, execCount, startTime));
+    if (sizer != null) {
+      ctx.getLog().info(" adaptive "+sizer.summary());
+    }
+    if (templates != null) {
+      ctx.getLog().info(" "+templates.getParameterized()+" statement(s) executed with parameters"
+                        +(templates.getUnsafe() > 0 ? ", "+templates.getUnsafe()+" template(s) executed as text" : ""));
+    }
+    if (coalescer != null && coalescer.getStatements() > 0) {
+      ctx.getLog().info(" "+coalescer.getCombined()+" INSERT(s) combined into "+coalescer.getStatements()+" statement(s)");
+    }
+  }
 
-    getLog().info(" "+execCount+" statements batch executed from "+file.getName());
+  /** Executes and clears the batch, the transaction control, the adaptive sizer and
+   * the metrics are told about the executed statements. When the execution continues on
+   * error the failed statements are isolated and rejected. */
+  private void executeBatch(DbContext ctx, File file, Statement st, List<String> sqlLines, List<Integer> lines,
+                            StatementTemplates templates, List<StatementTemplates.Template> parsed,
+                            TransactionControl tx, AdaptiveBatchSizer sizer, long batchBytes,
+                            FileMetrics fileMetrics, int batchLine)
+    throws SQLException {
+    int count = sqlLines.size();
+    if (count == 0) { return; }
+    String first = sqlLines.get(0);
+    long start = System.nanoTime();
+    long rows = ctx.getRejects() == null ? executeBatch(ctx, st, sqlLines, templates, parsed)
+      : executeIsolated(ctx, file, st, tx, sqlLines, lines, templates, parsed);
+    long elapsed = System.nanoTime() - start;
+    if (sizer != null) { sizer.executed(count, batchBytes, elapsed); }
+    fileMetrics.batch(batchLine, count, first, elapsed, rows);
+    sqlLines.clear();
+    lines.clear();
+    parsed.clear();
+    tx.executed(count);
+  }
+
+  /** Executes the batch by the prepared statement of its template, or as text when its
+   * statements aren't parameterized or a value can't be bound.
+   * @return the number of affected rows */
+  private long executeBatch(DbContext ctx, Statement st, List<String> sqlLines,
+                            StatementTemplates templates, List<StatementTemplates.Template> parsed)
+    throws SQLException {
+    if (templates == null || parsed.isEmpty() || parsed.get(0) == null) { return executeBatch(ctx, st, sqlLines); }
+    PreparedStatement ps = null;
+    for (StatementTemplates.Template template : parsed) {
+      ps = templates.bind(template);
+      if (ps == null) {
+        // the template turned out to be unsafe, its prepared statement is closed
+        return executeBatch(ctx, st, sqlLines);
+      }
+      ps.addBatch();
+    }
+    if (ctx.getLog().isDebugEnabled()) {
+      ctx.getLog().debug("Executing batch of "+parsed.size()+" statement(s): "+parsed.get(0).getSql());
+    }
+    int[] ret;
+    try {
+      ret = ps.executeBatch();
+    } catch (SQLException e) {
+      ps.clearBatch();
+      int failed = failedIndex(e, sqlLines.size());
+      if (failed < 0 || failed >= sqlLines.size()) { throw e; }
+      // the driver reports the template, the message tells the failed statement
+      throw new BatchUpdateException(e.getMessage()+" (statement: "+sqlLines.get(failed)+")",
+                                     e.getSQLState(), e.getErrorCode(), ((BatchUpdateException) e).getUpdateCounts(), e);
+    }
+    templates.executed(parsed.size());
+    return countRows(ctx, ret, sqlLines);
+  }
+
+  /** Executes the batch so it can be undone alone. When it fails it's undone and its parts
+   * are executed the same way: the statements before the one the driver reports as failed,
+   * the failed one alone and the rest, or both halves when the driver doesn't tell which one
+   * failed. A single statement which fails is rejected.
+   * @return the number of affected rows of the executed statements */
+  private long executeIsolated(DbContext ctx, File file, Statement st, TransactionControl tx,
+                               List<String> sqlLines, List<Integer> lines,
+                               StatementTemplates templates, List<StatementTemplates.Template> parsed)
+    throws SQLException {
+    int count = sqlLines.size();
+    tx.isolate();
+    try {
+      long rows = executeBatch(ctx, st, new ArrayList<>(sqlLines), templates, parsed);
+      tx.keep();
+      return rows;
+    } catch (SQLException e) {
+      undo(tx, e);
+      st.clearBatch();
+      if (count == 1) {
+        ctx.getRejects().reject(file, lines.get(0), sqlLines.get(0), e);
+        return 0;
+      }
+      int failed = failedIndex(e, count);
+      int[] bounds = failed < 0 ? new int[] {0, count / 2, count} : new int[] {0, failed, failed + 1, count};
+      if (ctx.getLog().isDebugEnabled()) {
+        ctx.getLog().debug(" batch of "+count+" statement(s) at line "+lines.get(0)+" of "+file.getName()
+                           +" failed, executing it in "+(bounds.length - 1)+" part(s)");
+      }
+      long rows = 0;
+      for (int i = 0; i < bounds.length - 1; i++) {
+        if (bounds[i] < bounds[i + 1]) {
+          rows += executeIsolated(ctx, file, st, tx, sqlLines.subList(bounds[i], bounds[i + 1]),
+                                  lines.subList(bounds[i], bounds[i + 1]), templates,
+                                  parsed.isEmpty() ? parsed : parsed.subList(bounds[i], bounds[i + 1]));
+        }
+      }
+      return rows;
+    }
+  }
+
+  /** Undoes the isolated statements which failed, when it isn't possible (a statement
+   * committed implicitly) the execution can't continue and the error is thrown. */
+  private static void undo(TransactionControl tx, SQLException error) throws SQLException {
+    try {
+      tx.undo();
+    } catch (SQLException e) {
+      error.addSuppressed(e);
+      throw error;
+    }
+  }
+
+  /** Finds the first failed statement of the batch by the update counts of the error.
+   * @return the index or -1 if it isn't known */
+  private static int failedIndex(SQLException error, int count) {
+    if (!(error instanceof BatchUpdateException)) { return -1; }
+    int[] counts = ((BatchUpdateException) error).getUpdateCounts();
+    if (counts == null) { return -1; }
+    for (int i = 0; i < counts.length && i < count; i++) {
+      if (counts[i] == Statement.EXECUTE_FAILED) { return i; }
+    }
+    return counts.length < count ? counts.length : -1;
   }
 
   /** Executes the given sql script, using the given
    * connection.
+   * @param ctx the context of the executed config
    * @param file the file to execute
    * @param con the connection
    * @throws SQLException on error
    * @throws MojoFailureException on error
    * @throws MojoExecutionException on error
    * @throws IOException on error */
-  protected void executeSqlScript(File file, Connection con)
+  protected void executeSqlScript(DbContext ctx, File file, Connection con)
     throws SQLException, MojoFailureException, MojoExecutionException, IOException {
     // talk a bit :)
-    getLog().info("executing script: "+file.getName());
+    ctx.getLog().info("executing script: "+file.getName());
     // make sure we can read it, and that it's
     // a file and not a directory
     if (!file.exists() || !file.canRead() || file.isDirectory() || !file.isFile()) {
       throw new MojoFailureException(file.getName()+" is not a file");
     }
 
-    // open input stream to file
-    InputStream ips = new FileInputStream(file);
-
-    // if it's a compressed file (gzip) then unzip as
-    // we read it in
-    if (file.getName().toUpperCase().endsWith("GZ")) {
-      ips = new GZIPInputStream(ips);
-      getLog().info(" file is gz compressed, using gzip stream");
+    ScriptCheckpoint checkpoint = openCheckpoint(ctx, file);
+    if (checkpoint != null && checkpoint.isComplete()) { return; }
+    FileMetrics fileMetrics = ctx.getMetrics().startFile(ctx.getName(), file, "statement");
+    boolean failed = true;
+    StatementSource splitter;
+    try {
+      long openStart = System.nanoTime();
+      splitter = openScript(ctx, file, fileMetrics, checkpoint);
+      fileMetrics.source(System.nanoTime() - openStart);
+    } catch (IOException | RuntimeException e) {
+      ctx.getMetrics().finish(fileMetrics, true);
+      throw e;
     }
-
-    // check encoding
-    checkEncoding();
-
-    // our file reader
-    Reader reader = inputStreamToReaderBOM(ips);
-
     // create SQL Statement
     Statement st = con.createStatement();
 
-    StringBuffer sql = new StringBuffer();
-    String line;
-    BufferedReader in = new BufferedReader(reader);
-
     // loop through the statements
     int execCount = 0;
-    line = in.readLine();
-    do {
-      line = line == null ? getDbConfig().getTransactionDelimiter() : line;
-      if (getDbConfig().getTransactionDelimiter().toUpperCase().equals(line.toUpperCase())) {
-        executeStatement(st, sql.toString());
-        sql.delete(0, sql.length());
-        execCount++;
-      } else {
-        // append the line
-        line.trim();
-        sql.append("\n").append(line);
-        // if the line ends with the delimiter, then
-        // lets execute it
-        if (sql.toString().endsWith(getDbConfig().getSqlDelimiter())) {
-          String sqlLine = sql.substring(0, sql.length() - getDbConfig().getSqlDelimiter().length());
-          executeStatement(st, sqlLine);
-          sql.replace(0, sql.length(), "");
+    long startTime = System.currentTimeMillis();
+    TransactionControl tx = transactionControl(con);
+    long committed = 0;
+    try {
+      tx.begin();
+      SqlStatement statement;
+      long sourceStart = System.nanoTime();
+      while ((statement = splitter.nextStatement()) != null) {
+        fileMetrics.source(System.nanoTime() - sourceStart);
+        if (!statement.isEmpty()) {
+          long start = System.nanoTime();
+          long rows = ctx.getRejects() == null ? executeStatement(ctx, st, statement.getSql())
+            : executeIsolated(ctx, file, st, tx, statement);
+          fileMetrics.statement(statement.getLine(), statement.getSql(), System.nanoTime() - start, rows);
           execCount++;
+          tx.executed(1);
+        }
+        if (statement.isTransactionEnd()) { tx.transactionEnd(); }
+        if (checkpoint != null && tx.getCommitted() != committed) {
+          committed = tx.getCommitted();
+          checkpoint.save(statement);
         }
+        sourceStart = System.nanoTime();
       }
-    } while ((line = in.readLine()) != null || sql.length() > 0);
+      fileMetrics.source(System.nanoTime() - sourceStart);
+      tx.end();
+      if (checkpoint != null) { checkpoint.complete(); }
+      failed = false;
+    } catch (SQLException | IOException | RuntimeException e) {
+      rollback(ctx, tx, e);
+      throw e;
+    } finally {
+      st.close();
+      splitter.close();
+      if (checkpoint != null) { checkpoint.close(); }
+      ctx.getMetrics().finish(fileMetrics, failed);
+    }
 
-    st.close();
-    reader.close();
-    in.close();
+    ctx.getLog().info(" "+execCount+" statements executed from "+file.getName()+statementRate(tx, execCount, startTime));
+  }
+
+  /** Executes the statement so it can be undone alone, the failed statement is undone and rejected.
+   * @return the number of affected rows */
+  private long executeIsolated(DbContext ctx, File file, Statement st, TransactionControl tx, SqlStatement statement)
+    throws SQLException {
+    tx.isolate();
+    try {
+      long rows = executeStatement(ctx, st, statement.getSql());
+      tx.keep();
+      return rows;
+    } catch (SQLException e) {
+      undo(tx, e);
+      ctx.getRejects().reject(file, statement.getLine(), statement.getSql(), e);
+      return 0;
+    }
+  }
+
+  /** Creates control of transactions of a script execution.
+   * @param con the connection
+   * @return the control */
+  protected TransactionControl transactionControl(Connection con) {
+    return new TransactionControl(con, TransactionMode.forName(transactionMode), commitInterval);
+  }
+
+  /** Rolls back the failed script, error of the rollback is only logged
+   * so the original error isn't hidden.
+   * @param ctx the context of the executed config
+   * @param tx the transaction control
+   * @param error the original error */
+  private void rollback(DbContext ctx, TransactionControl tx, Exception error) {
+    try {
+      tx.rollback();
+    } catch (SQLException e) {
+      ctx.getLog().warn(" rollback failed: "+e.getMessage());
+      error.addSuppressed(e);
+    }
+  }
 
-    getLog().info(" "+execCount+" statements executed from "+file.getName());
+  private static String statementRate(TransactionControl tx, int execCount, long startTime) {
+    double elapsed = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+    return " ("+tx.getMode()+" transactions, "+tx.getCommits()+" commit(s), "+Math.round(execCount / elapsed)+" statements/s)";
   }
 
   /** Executes a batch update.
+   * @param ctx the context of the executed config
    * @param st the statement
    * @param sqlLines the sql lines
+   * @return the number of affected rows reported by the driver
    * @throws SQLException on error */
-  protected void executeBatch(Statement st, List<String> sqlLines) throws SQLException {
+  protected long executeBatch(DbContext ctx, Statement st, List<String> sqlLines) throws SQLException {
+    if (sqlLines.isEmpty()) { return 0; }
     for (Iterator<String> itt = sqlLines.iterator(); itt.hasNext(); ) {
       String str = itt.next();
       if (str == null || "".equals(str.trim())) { itt.remove(); }
     }
-    if (getLog().isDebugEnabled()) {
-      getLog().debug("Executing batch");
-      getLog().debug(StringUtils.join(sqlLines, "\n"));
+    if (ctx.getLog().isDebugEnabled()) {
+      ctx.getLog().debug("Executing batch");
+      ctx.getLog().debug(StringUtils.join(sqlLines, "\n"));
     }
 
     // add to batch
@@ -334,30 +1901,44 @@ public abstract class AbstractDBMojo extends AbstractMojo {
     }
 
     int[] ret  = st.executeBatch();
-    if (getLog().isDebugEnabled()) {
-      getLog().debug("    "+ret.length+" statement(s) executed");
+    return countRows(ctx, ret, sqlLines);
+  }
+
+  /** Sums the affected rows of the executed batch.
+   * @param ctx the context of the executed config
+   * @param ret the update counts of the batch
+   * @param sqlLines the statements of the batch
+   * @return the number of affected rows reported by the driver
+   * @throws SQLException when a statement failed */
+  private long countRows(DbContext ctx, int[] ret, List<String> sqlLines) throws SQLException {
+    if (ctx.getLog().isDebugEnabled()) {
+      ctx.getLog().debug("    "+ret.length+" statement(s) executed");
     }
 
+    long rows = 0;
     for (int i=0; i<ret.length; i++) {
-      if (ret[i] == Statement.SUCCESS_NO_INFO && getLog().isDebugEnabled()) {
-        getLog().debug("    statement " + i + " processed successfully without return results");
+      if (ret[i] > 0) { rows += ret[i]; }
+      if (ret[i] == Statement.SUCCESS_NO_INFO && ctx.getLog().isDebugEnabled()) {
+        ctx.getLog().debug("    statement " + i + " processed successfully without return results");
       } else if (ret[i] == Statement.EXECUTE_FAILED) {
-        getLog().error("    error durring batch execution of statement: "+sqlLines.get(i));
-        throw new SQLException("Error executing: "+ sqlLines.get(i));
-      } else if (ret[i] >= 0 && getLog().isDebugEnabled()) {
-        getLog().debug("    statement "+i+" processed successfully with "+ret[i]+" records effected");
+        ctx.getLog().error("    error durring batch execution of statement: "+sqlLines.get(i));
+        throw new BatchUpdateException("Error executing: "+ sqlLines.get(i), ret);
+      } else if (ret[i] >= 0 && ctx.getLog().isDebugEnabled()) {
+        ctx.getLog().debug("    statement "+i+" processed successfully with "+ret[i]+" records effected");
       }
     }
-
+    return rows;
   }
 
   /** Runs the given SQL statement.
+   * @param ctx the context of the executed config
    * @param st the statement to run it on
    * @param sqlLine the sql statement
+   * @return the number of affected rows reported by the driver
    * @throws SQLException on error */
-  protected void executeStatement(Statement st, String sqlLine) throws SQLException {
-    if (getLog().isDebugEnabled()) {
-      getLog().debug("    executing:\n"+sqlLine);
+  protected long executeStatement(DbContext ctx, Statement st, String sqlLine) throws SQLException {
+    if (ctx.getLog().isDebugEnabled()) {
+      ctx.getLog().debug("    executing:\n"+sqlLine);
     }
     boolean execRet = false;
     try {
@@ -368,10 +1949,11 @@ public abstract class AbstractDBMojo extends AbstractMojo {
       se.setNextException(sqle);
       throw se;
     }
+    long rows = 0;
     boolean loop = true;
     while (loop) {
       if (execRet) {
-        getLog().warn(" statement returned a resultset");
+        ctx.getLog().warn(" statement returned a resultset");
       } else {
         // Got an update count
         int count = st.getUpdateCount();
@@ -379,32 +1961,38 @@ public abstract class AbstractDBMojo extends AbstractMojo {
         if (count == -1) {
           // Nothing left
           loop = false;
-        } else if (getLog().isDebugEnabled()){
+        } else {
           // An update count was returned
-          getLog().debug("    "+count+" row(s) updated");
+          rows += count;
+          if (ctx.getLog().isDebugEnabled()) {
+            ctx.getLog().debug("    "+count+" row(s) updated");
+          }
         }
       }
       if (loop) {
         execRet = st.getMoreResults();
       }
     }
+    return rows;
   }
 
   /** Returns a {@link Connection} to the application database.
+   * @param ctx the context of the executed config
    * @return the connection
    * @throws SQLException on error
    * @throws MojoFailureException on error */
-  protected Connection openApplicationDbConnection() throws SQLException, MojoFailureException {
-    return openConnection(getDbConfig().getAppDbConnectionSettings());
+  protected Connection openApplicationDbConnection(DbContext ctx) throws SQLException, MojoFailureException {
+    return openConnection(ctx.getConfig().getAppDbConnectionSettings());
   }
 
   /** Returns a {@link Connection} to the application
    * database.
+   * @param ctx the context of the executed config
    * @return the connection
    * @throws SQLException on error
    * @throws MojoFailureException on error */
-  protected Connection openAdminDbConnection() throws SQLException, MojoFailureException {
-    return openConnection(getDbConfig().getAdminDbConnectionSettings());
+  protected Connection openAdminDbConnection(DbContext ctx) throws SQLException, MojoFailureException {
+    return openConnection(ctx.getConfig().getAdminDbConnectionSettings());
   }
 
   /** Opens a connection using the given settings.
@@ -436,18 +2024,95 @@ public abstract class AbstractDBMojo extends AbstractMojo {
       throw new MojoFailureException(e.getMessage());
     }
 
-    // consult the driver manager for the connection
+    // borrow the connection from the pool shared by the mojos
+    // of the session or consult the driver manager
+    if (usePool) {
+      return ConnectionPool.get(dbSettings, poolMaxSize, poolIdleTimeout * 1000L, poolValidationTimeout)
+        .borrow(dbSettings.getJdbcUrl(), username, password);
+    }
     Connection con = DriverManager.getConnection(dbSettings.getJdbcUrl(), username, password);
     // we're good :)
     return con;
   }
 
-  private void checkEncoding() {
-    if (getDbConfig().getScriptEncoding() == null) {
-      getDbConfig().setScriptEncoding(Charset.defaultCharset().name());
-      getLog().warn("Using platform encoding (" + getDbConfig().getScriptEncoding() + ") for executing script, i.e. build is platform dependent!");
+  /** Closes the connection, the pooled connection is returned to the pool.
+   * @param con the connection, may be null */
+  protected void closeConnection(Connection con) {
+    if (con == null) { return; }
+    try {
+      con.close();
+    } catch (SQLException e) {
+      getLog().warn("Closing of connection failed: "+e.getMessage());
+    }
+  }
+
+  /** Resolves the configured tables and patterns of {@link DatabaseMetaData#getTables},
+   * optionally prefixed by the schema. The tables matched by a pattern are sorted by name.
+   * @param con the connection
+   * @param tablePatterns the names or patterns, all tables of the current schema when empty
+   * @param parameter the name of the parameter of the patterns
+   * @return the names of the tables, qualified by the schema when it was configured
+   * @throws SQLException on error
+   * @throws MojoFailureException when a pattern doesn't match any table */
+  protected List<String> tables(Connection con, String[] tablePatterns, String parameter) throws SQLException, MojoFailureException {
+    DatabaseMetaData md = con.getMetaData();
+    String[] patterns = tablePatterns == null || tablePatterns.length == 0 ? new String[] {"%"} : tablePatterns;
+    Set<String> result = new LinkedHashSet<>();
+    for (String pattern : patterns) {
+      String name = identifier(md, pattern.trim());
+      String schema = null;
+      int dot = name.lastIndexOf('.');
+      if (dot > 0) {
+        schema = name.substring(0, dot);
+        name = name.substring(dot + 1);
+      }
+      List<String> matched = new ArrayList<>();
+      ResultSet rs = md.getTables(con.getCatalog(), schema == null ? currentSchema(con) : schema, name,
+                                  new String[] {"TABLE"});
+      try {
+        while (rs.next()) {
+          String table = rs.getString("TABLE_NAME");
+          matched.add(schema == null ? table : rs.getString("TABLE_SCHEM") + "." + table);
+        }
+      } finally {
+        rs.close();
+      }
+      if (matched.isEmpty()) {
+        throw new MojoFailureException("No table matches " + pattern + " of " + parameter);
+      }
+      Collections.sort(matched);
+      result.addAll(matched);
+    }
+    return new ArrayList<>(result);
+  }
+
+  /** @param md the metadata of the database
+   * @param name the unquoted name
+   * @return the name in the case of the unquoted identifiers of the database */
+  protected static String identifier(DatabaseMetaData md, String name) throws SQLException {
+    if (md.storesUpperCaseIdentifiers()) { return name.toUpperCase(); }
+    if (md.storesLowerCaseIdentifiers()) { return name.toLowerCase(); }
+    return name;
+  }
+
+  /** @param con the connection
+   * @return the current schema, null when the driver doesn't tell it */
+  protected static String currentSchema(Connection con) {
+    try {
+      return con.getSchema();
+    } catch (SQLException | AbstractMethodError e) {
+      return null;
+    }
+  }
+
+  /** Checks the script encoding of the config, the platform encoding is used when it isn't set.
+   * @param ctx the context of the executed config */
+  protected void checkEncoding(DbContext ctx) {
+    if (ctx.getConfig().getScriptEncoding() == null) {
+      ctx.getConfig().setScriptEncoding(Charset.defaultCharset().name());
+      ctx.getLog().warn("Using platform encoding (" + ctx.getConfig().getScriptEncoding() + ") for executing script, i.e. build is platform dependent!");
     } else {
-      getLog().info(" setting encoding for executing script: " + getDbConfig().getScriptEncoding());
+      ctx.getLog().info(" setting encoding for executing script: " + ctx.getConfig().getScriptEncoding());
     }
   }
 }
@@ -0,0 +1,83 @@
+package com.nesting.maven2.db;
+
+/** Chooses the size of the next batch by the measured duration of the executed ones.
+ * <p>The size starts at the minimum. After a full batch which took less than half of the
+ * target time the size is doubled, after a batch which took longer than the target time it's
+ * halved, always within the bounds. The batch is also full when its statements reach the
+ * maximal payload, measured as the length of the SQL text. The size with the best throughput
+ * is remembered, so it can be reported and used as the fixed batch size.</p> */
+public class AdaptiveBatchSizer {
+
+  private final int minSize;
+  private final int maxSize;
+  private final long targetNanos;
+  private final long maxBytes;
+  private int size;
+
+  private int batches;
+  private long statements;
+  private long bytes;
+  private long nanos;
+  private int bestSize;
+  private double bestRate;
+
+  /** @param minSize the minimal and initial batch size
+   * @param maxSize the maximal batch size
+   * @param targetMillis the target duration of one batch in milliseconds
+   * @param maxBytes the maximal payload of one batch, 0 for no limit */
+  public AdaptiveBatchSizer(int minSize, int maxSize, long targetMillis, long maxBytes) {
+    this.minSize = Math.max(minSize, 1);
+    this.maxSize = Math.max(maxSize, this.minSize);
+    this.targetNanos = Math.max(targetMillis, 1) * 1000000L;
+    this.maxBytes = maxBytes;
+    this.size = this.minSize;
+  }
+
+  /** @return the size of the next batch */
+  public int getBatchSize() { return size; }
+
+  /** Checks whether the batch should be sent.
+   * @param count the number of statements in the batch
+   * @param batchBytes the payload of the batch
+   * @return true if the batch is full */
+  public boolean isFull(int count, long batchBytes) {
+    return count >= size || (maxBytes > 0 && batchBytes >= maxBytes);
+  }
+
+  /** Records the executed batch and adjusts the size.
+   * @param count the number of statements in the batch
+   * @param batchBytes the payload of the batch
+   * @param elapsedNanos the duration of the execution */
+  public void executed(int count, long batchBytes, long elapsedNanos) {
+    if (count == 0) { return; }
+    batches++;
+    statements += count;
+    bytes += batchBytes;
+    nanos += elapsedNanos;
+    boolean full = isFull(count, batchBytes);
+    double rate = count * 1e9 / Math.max(elapsedNanos, 1);
+    if (full && rate > bestRate) {
+      bestRate = rate;
+      bestSize = count;
+    }
+    if (elapsedNanos > targetNanos) {
+      size = Math.max(minSize, size / 2);
+    } else if (full && elapsedNanos < targetNanos / 2) {
+      long limit = maxSize;
+      if (maxBytes > 0 && batchBytes > 0) { limit = Math.min(limit, maxBytes * count / batchBytes); }
+      size = (int) Math.max(minSize, Math.min(limit, size * 2L));
+    }
+  }
+
+  /** @return the size with the best throughput, the current size when no batch was full */
+  public int getBestSize() { return bestSize > 0 ? bestSize : size; }
+
+  /** @return the chosen tuning and the reached throughput */
+  public String summary() {
+    double seconds = nanos / 1e9;
+    return "batch size " + minSize + " -> " + size + ", best " + getBestSize()
+      + (bestRate > 0 ? " (" + Math.round(bestRate) + " statements/s)" : "")
+      + ", " + batches + " batch(es), " + (statements == 0 ? 0 : bytes / statements) + " bytes/statement, "
+      + (seconds == 0 ? 0 : Math.round(statements / seconds)) + " statements/s in executeBatch";
+  }
+}
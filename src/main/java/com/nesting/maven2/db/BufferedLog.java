@@ -0,0 +1,116 @@
+package com.nesting.maven2.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/** Log which prefixes the messages and keeps them until {@link #flush()} is called,
+ * so output of configs executed concurrently isn't interleaved. */
+public class BufferedLog implements Log {
+
+  private static final int DEBUG = 0;
+  private static final int INFO = 1;
+  private static final int WARN = 2;
+  private static final int ERROR = 3;
+
+  private final Log target;
+  private final String prefix;
+  private final List<Object[]> entries = new ArrayList<>();
+
+  /** @param target the log where the messages are written by {@link #flush()}
+   * @param prefix the prefix of every message */
+  public BufferedLog(Log target, String prefix) {
+    this.target = target;
+    this.prefix = prefix;
+  }
+
+  private synchronized void add(int level, CharSequence content, Throwable error) {
+    entries.add(new Object[] { level, content == null ? null : prefix + content, error });
+  }
+
+  /** Writes the kept messages to the target log as one block. */
+  public void flush() {
+    List<Object[]> copy;
+    synchronized (this) {
+      copy = new ArrayList<>(entries);
+      entries.clear();
+    }
+    synchronized (target) {
+      for (Object[] entry : copy) {
+        CharSequence content = (CharSequence) entry[1];
+        Throwable error = (Throwable) entry[2];
+        switch ((Integer) entry[0]) {
+          case DEBUG:
+            if (error == null) {
+              target.debug(content);
+            } else if (content == null) {
+              target.debug(error);
+            } else {
+              target.debug(content, error);
+            }
+            break;
+          case INFO:
+            if (error == null) {
+              target.info(content);
+            } else if (content == null) {
+              target.info(error);
+            } else {
+              target.info(content, error);
+            }
+            break;
+          case WARN:
+            if (error == null) {
+              target.warn(content);
+            } else if (content == null) {
+              target.warn(error);
+            } else {
+              target.warn(content, error);
+            }
+            break;
+          default:
+            if (error == null) {
+              target.error(content);
+            } else if (content == null) {
+              target.error(error);
+            } else {
+              target.error(content, error);
+            }
+        }
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  public boolean isDebugEnabled() { return target.isDebugEnabled(); }
+  /** {@inheritDoc} */
+  public void debug(CharSequence content) { if (isDebugEnabled()) { add(DEBUG, content, null); } }
+  /** {@inheritDoc} */
+  public void debug(CharSequence content, Throwable error) { if (isDebugEnabled()) { add(DEBUG, content, error); } }
+  /** {@inheritDoc} */
+  public void debug(Throwable error) { if (isDebugEnabled()) { add(DEBUG, null, error); } }
+  /** {@inheritDoc} */
+  public boolean isInfoEnabled() { return target.isInfoEnabled(); }
+  /** {@inheritDoc} */
+  public void info(CharSequence content) { add(INFO, content, null); }
+  /** {@inheritDoc} */
+  public void info(CharSequence content, Throwable error) { add(INFO, content, error); }
+  /** {@inheritDoc} */
+  public void info(Throwable error) { add(INFO, null, error); }
+  /** {@inheritDoc} */
+  public boolean isWarnEnabled() { return target.isWarnEnabled(); }
+  /** {@inheritDoc} */
+  public void warn(CharSequence content) { add(WARN, content, null); }
+  /** {@inheritDoc} */
+  public void warn(CharSequence content, Throwable error) { add(WARN, content, error); }
+  /** {@inheritDoc} */
+  public void warn(Throwable error) { add(WARN, null, error); }
+  /** {@inheritDoc} */
+  public boolean isErrorEnabled() { return target.isErrorEnabled(); }
+  /** {@inheritDoc} */
+  public void error(CharSequence content) { add(ERROR, content, null); }
+  /** {@inheritDoc} */
+  public void error(CharSequence content, Throwable error) { add(ERROR, content, error); }
+  /** {@inheritDoc} */
+  public void error(Throwable error) { add(ERROR, null, error); }
+}
@@ -0,0 +1,132 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/** Marker of the inputs the application database of a config was built from. After a goal
+ * succeeds, the {@link ScriptFingerprint fingerprint} of the inputs is recorded for the goal
+ * in the marker table of the database and for the config in a file of the build directory.
+ * A goal is up to date when both hold the current fingerprint, so a dropped or recreated
+ * database and a cleaned build directory are built again. The file is deleted before any
+ * goal changes the database, so after a failed goal the whole database is built again. */
+public class BuildMarker {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final DbContext ctx;
+  private final String table;
+  private final File file;
+
+  /** @param ctx the context of the config
+   * @param table the name of the marker table
+   * @param file the marker file of the config */
+  public BuildMarker(DbContext ctx, String table, File file) {
+    this.ctx = ctx;
+    this.table = table;
+    this.file = file;
+  }
+
+  /** @return the marker file */
+  public File getFile() { return file; }
+
+  /** Checks whether the goal built the database from the same inputs.
+   * @param con the connection to the application database
+   * @param goal the name of the goal
+   * @param fingerprint the fingerprint of the inputs
+   * @return whether the file and the marker table hold the fingerprint
+   * @throws IOException when the file can't be read */
+  public boolean isUpToDate(Connection con, String goal, String fingerprint) throws IOException {
+    if (!file.isFile() || !fingerprint.equals(new String(Files.readAllBytes(file.toPath()), UTF8).trim())) {
+      ctx.getLog().debug(" marker file " + file + " doesn't match");
+      return false;
+    }
+    try {
+      PreparedStatement ps = con.prepareStatement("SELECT FINGERPRINT FROM " + table + " WHERE GOAL_NAME = ?");
+      try {
+        ps.setString(1, goal);
+        ResultSet rs = ps.executeQuery();
+        boolean match = rs.next() && fingerprint.equals(rs.getString(1));
+        rs.close();
+        return match;
+      } finally {
+        ps.close();
+      }
+    } catch (SQLException e) {
+      ctx.getLog().debug(" marker table " + table + " can't be read: " + e.getMessage());
+      rollback(con);
+      return false;
+    }
+  }
+
+  /** Deletes the marker file before a goal changes the database.
+   * @throws IOException when the file can't be deleted */
+  public void clear() throws IOException {
+    if (file.exists() && !file.delete()) { throw new IOException("Can't delete " + file); }
+  }
+
+  /** Records the fingerprint after the goal succeeded, the marker table is created when it
+   * doesn't exist.
+   * @param con the connection to the application database
+   * @param goal the name of the goal
+   * @param fingerprint the fingerprint of the inputs
+   * @throws SQLException on error
+   * @throws IOException when the file can't be written */
+  public void record(Connection con, String goal, String fingerprint) throws SQLException, IOException {
+    Statement st = con.createStatement();
+    try {
+      try {
+        st.executeQuery("SELECT GOAL_NAME FROM " + table + " WHERE 1 = 0").close();
+      } catch (SQLException e) {
+        rollback(con);
+        ctx.getLog().info("Creating build marker table " + table);
+        st.execute("CREATE TABLE " + table + " (GOAL_NAME VARCHAR(64) NOT NULL PRIMARY KEY, "
+                   + "FINGERPRINT VARCHAR(64) NOT NULL, BUILT_AT " + ScriptLedger.timestampType(ctx.getConfig())
+                   + " NOT NULL)");
+        if (!con.getAutoCommit()) { con.commit(); }
+      }
+    } finally {
+      st.close();
+    }
+    PreparedStatement delete = con.prepareStatement("DELETE FROM " + table + " WHERE GOAL_NAME = ?");
+    PreparedStatement insert = con.prepareStatement("INSERT INTO " + table + " (GOAL_NAME, FINGERPRINT, BUILT_AT) VALUES (?, ?, ?)");
+    try {
+      delete.setString(1, goal);
+      delete.executeUpdate();
+      insert.setString(1, goal);
+      insert.setString(2, fingerprint);
+      insert.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+      insert.executeUpdate();
+      if (!con.getAutoCommit()) { con.commit(); }
+    } finally {
+      delete.close();
+      insert.close();
+    }
+    recordFile(fingerprint);
+  }
+
+  /** Records the fingerprint only in the file, after a goal which leaves no database to
+   * record it in.
+   * @param fingerprint the fingerprint of the inputs
+   * @throws IOException when the file can't be written */
+  public void recordFile(String fingerprint) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) { throw new IOException("Can't create directory " + directory); }
+    Files.write(file.toPath(), (fingerprint + "\n").getBytes(UTF8));
+  }
+
+  private static void rollback(Connection con) {
+    try {
+      if (!con.getAutoCommit()) { con.rollback(); }
+    } catch (SQLException e) {
+      // the statement failed already
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package com.nesting.maven2.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Small pool of database connections keyed by {@link DatabaseConnectionSettings}. The pools
+ * are static, so they are shared by all executions of the plugin mojos in one Maven session.
+ * <p>The borrowed connection is a proxy whose {@link Connection#close()} returns the
+ * connection to the pool, rolled back and in auto-commit mode. The idle connection is
+ * validated before it's lent again, the connections idle longer than the idle timeout are
+ * closed by a daemon thread and all connections are closed when the JVM exits.</p> */
+public class ConnectionPool {
+
+  private static final Map<DatabaseConnectionSettings, ConnectionPool> POOLS = new HashMap<>();
+  private static final AtomicLong CREATED = new AtomicLong();
+  private static final AtomicLong REUSED = new AtomicLong();
+  private static ScheduledExecutorService evictor;
+
+  /** How long borrow waits for a free connection when the pool is exhausted. */
+  private static final long MAX_WAIT = 300000L;
+
+  private final Deque<Idle> idle = new ArrayDeque<>();
+  private int open;
+  private int maxSize;
+  private long idleTimeout;
+  private int validationTimeout;
+
+  private ConnectionPool() { }
+
+  /** Returns the pool for the connection settings, the limits of existing pool are updated.
+   * @param settings the connection settings
+   * @param maxSize the maximal number of open connections
+   * @param idleTimeout the time in milliseconds after which the idle connection is closed
+   * @param validationTimeout the timeout in seconds of the connection validation
+   * @return the pool */
+  public static synchronized ConnectionPool get(DatabaseConnectionSettings settings, int maxSize,
+                                                long idleTimeout, int validationTimeout) {
+    ConnectionPool pool = POOLS.get(settings);
+    if (pool == null) {
+      pool = new ConnectionPool();
+      POOLS.put(settings, pool);
+    }
+    synchronized (pool) {
+      pool.maxSize = Math.max(maxSize, 1);
+      pool.idleTimeout = idleTimeout;
+      pool.validationTimeout = validationTimeout;
+    }
+    startEvictor();
+    return pool;
+  }
+
+  /** Closes idle connections of the settings, for example before the database is dropped.
+   * @param settings the connection settings */
+  public static void closeIdle(DatabaseConnectionSettings settings) {
+    ConnectionPool pool;
+    synchronized (ConnectionPool.class) {
+      pool = POOLS.get(settings);
+    }
+    if (pool != null) { pool.evict(-1); }
+  }
+
+  /** Closes idle connections of all pools. */
+  public static void closeAll() {
+    List<ConnectionPool> pools;
+    synchronized (ConnectionPool.class) {
+      pools = new ArrayList<>(POOLS.values());
+    }
+    for (ConnectionPool pool : pools) { pool.evict(-1); }
+  }
+
+  /** @return the number of connections opened by the pools */
+  public static long getCreated() { return CREATED.get(); }
+  /** @return the number of times an idle connection was lent again */
+  public static long getReused() { return REUSED.get(); }
+
+  /** Borrows connection, the idle one when there is a valid one, a new one otherwise.
+   * @param jdbcUrl the jdbc url
+   * @param userName the user name
+   * @param password the password
+   * @return the connection, closing it returns it to the pool
+   * @throws SQLException on error or when no connection is returned to the exhausted pool in time */
+  public Connection borrow(String jdbcUrl, String userName, String password) throws SQLException {
+    long deadline = System.currentTimeMillis() + MAX_WAIT;
+    while (true) {
+      Connection con = null;
+      synchronized (this) {
+        if (!idle.isEmpty()) {
+          con = idle.pollLast().con;
+        } else if (open < maxSize) {
+          open++;
+        } else {
+          long wait = deadline - System.currentTimeMillis();
+          if (wait <= 0) {
+            throw new SQLException("No connection returned to the pool of " + maxSize + " connections to " + jdbcUrl
+                                   + " in " + (MAX_WAIT / 1000) + " seconds");
+          }
+          try {
+            wait(wait);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for connection", e);
+          }
+          continue;
+        }
+      }
+      if (con == null) {
+        try {
+          con = DriverManager.getConnection(jdbcUrl, userName, password);
+        } catch (SQLException | RuntimeException e) {
+          discarded();
+          throw e;
+        }
+        CREATED.incrementAndGet();
+        return wrap(con);
+      }
+      if (isValid(con)) {
+        REUSED.incrementAndGet();
+        return wrap(con);
+      }
+      closeQuietly(con);
+      discarded();
+    }
+  }
+
+  private boolean isValid(Connection con) {
+    try {
+      return con.isValid(validationTimeout);
+    } catch (SQLException | AbstractMethodError e) {
+      return false;
+    }
+  }
+
+  private Connection wrap(Connection con) {
+    return (Connection) Proxy.newProxyInstance(con.getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                                               new Handler(con));
+  }
+
+  /** Takes the returned connection back. */
+  private void release(Connection con) {
+    try {
+      if (!con.getAutoCommit()) {
+        con.rollback();
+        con.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      closeQuietly(con);
+      discarded();
+      return;
+    }
+    synchronized (this) {
+      idle.addLast(new Idle(con, System.currentTimeMillis()));
+      notifyAll();
+    }
+  }
+
+  private synchronized void discarded() {
+    open--;
+    notifyAll();
+  }
+
+  /** Closes connections idle longer than the timeout, all idle ones for negative timeout. */
+  private void evict(long timeout) {
+    List<Connection> expired = new ArrayList<>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (Iterator<Idle> it = idle.iterator(); it.hasNext(); ) {
+        Idle entry = it.next();
+        if (timeout < 0 || now - entry.since > timeout) {
+          it.remove();
+          expired.add(entry.con);
+          open--;
+        }
+      }
+      notifyAll();
+    }
+    for (Connection con : expired) { closeQuietly(con); }
+  }
+
+  private static void closeQuietly(Connection con) {
+    try {
+      con.close();
+    } catch (SQLException e) {
+      // nothing to do, the connection is gone anyway
+    }
+  }
+
+  private static synchronized void startEvictor() {
+    if (evictor != null) { return; }
+    evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "db-maven-plugin-pool-evictor");
+          t.setDaemon(true);
+          return t;
+        } });
+    evictor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          List<ConnectionPool> pools;
+          synchronized (ConnectionPool.class) {
+            pools = new ArrayList<>(POOLS.values());
+          }
+          for (ConnectionPool pool : pools) {
+            long timeout;
+            synchronized (pool) {
+              timeout = pool.idleTimeout;
+            }
+            pool.evict(timeout);
+          }
+        } }, 1, 1, TimeUnit.SECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread("db-maven-plugin-pool-cleanup") {
+        public void run() {
+          closeAll();
+        } });
+  }
+
+  /** Idle connection with the time when it was returned. */
+  private static class Idle {
+    private final Connection con;
+    private final long since;
+
+    Idle(Connection con, long since) {
+      this.con = con;
+      this.since = since;
+    }
+  }
+
+  /** Handler of the connection proxy, close returns the connection to the pool. */
+  private class Handler implements InvocationHandler {
+    private final Connection con;
+    private boolean closed;
+
+    Handler(Connection con) {
+      this.con = con;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if ("close".equals(name) && method.getParameterTypes().length == 0) {
+        if (!closed) {
+          closed = true;
+          release(con);
+        }
+        return null;
+      }
+      if ("isClosed".equals(name) && method.getParameterTypes().length == 0) {
+        return closed || con.isClosed();
+      }
+      if ("equals".equals(name) && method.getParameterTypes().length == 1) {
+        return proxy == args[0];
+      }
+      if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+        return System.identityHashCode(proxy);
+      }
+      if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+        return "Pooled " + con;
+      }
+      if (closed) { throw new SQLException("Connection was returned to the pool"); }
+      try {
+        return method.invoke(con, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
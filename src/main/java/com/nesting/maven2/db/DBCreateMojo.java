@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -22,9 +23,25 @@ public class DBCreateMojo extends AbstractDBMojo {
   */
 
   /** {@inheritDoc} */
-  public void executeInternal() throws MojoExecutionException, MojoFailureException {
+  protected String markerGoal() {
+    return "create";
+  }
+
+  /** {@inheritDoc} */
+  protected List<File> plannedFiles(DbContext ctx) {
+    return configured(ctx.getConfig().getDbCreateFile());
+  }
+
+  /** {@inheritDoc} */
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    if (cloneTemplate(ctx)) { return; }
     try {
-      executeSqlScript(getDbConfig().getDbCreateFile(), openAdminDbConnection());
+      Connection con = openAdminDbConnection(ctx);
+      try {
+        executeSqlScript(ctx, ctx.getConfig().getDbCreateFile(), con);
+      } finally {
+        closeConnection(con);
+      }
     } catch(SQLException se) {
       throw new MojoExecutionException("Error executing database query", se);
     } catch(IOException ioe) {
@@ -4,6 +4,14 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -12,12 +20,64 @@ import org.apache.maven.plugin.MojoFailureException;
  * @goal data */
 public class DBDataMojo extends AbstractDBMojo {
 
+  /** Whether the non-unique indexes and the foreign keys of the loaded tables are dropped
+   * before the data scripts are executed and created again afterwards, the tables
+   * concurrently by rebuildParallelism connections. The definitions are restored also when
+   * the load fails, the statements which restore them are kept in restoreDirectory until
+   * they're restored.
+   * @parameter default-value="false" */
+  private boolean deferIndexes;
+
+  /** The tables whose indexes and foreign keys are deferred, names or patterns of
+   * {@link java.sql.DatabaseMetaData#getTables} optionally prefixed by the schema. All tables
+   * of the current schema when empty.
+   * @parameter */
+  private String[] deferTables;
+
+  /** The number of tables whose indexes and foreign keys are created concurrently.
+   * @parameter default-value="4" */
+  private int rebuildParallelism;
+
+  /** The directory of the restore scripts of the deferred indexes, data-config.sql for
+   * every config.
+   * @parameter default-value="${project.build.directory}/db-deferred" */
+  private File restoreDirectory;
+
   /** {@inheritDoc} */
-  public void executeInternal() throws MojoExecutionException, MojoFailureException {
+  protected boolean skipsClonedDatabase() {
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  protected String markerGoal() {
+    return "data";
+  }
+
+  /** {@inheritDoc} */
+  protected List<File> plannedFiles(DbContext ctx) {
+    return configured(ctx.getConfig().getDataDirectory());
+  }
+
+  /** {@inheritDoc} */
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    IndexDeferral deferral = null;
+    boolean loaded = false;
     try {
-      Connection con = openApplicationDbConnection();
-      for (File dataDirectory : getDbConfig().getDataDirectory()) {
-        executeScriptsInDirectory(dataDirectory, con);
+      Connection con = openApplicationDbConnection(ctx);
+      try {
+        if (deferIndexes) {
+          deferral = new IndexDeferral(ctx, new File(restoreDirectory, "data-" + ctx.getName().replaceAll("[^A-Za-z0-9._-]", "_") + ".sql"));
+          deferral.defer(con, tables(con, deferTables, "deferTables"));
+        }
+        for (File dataDirectory : ctx.getConfig().getDataDirectory()) {
+          executeScriptsInDirectory(ctx, dataDirectory, con);
+        }
+        loaded = true;
+      } finally {
+        closeConnection(con);
+        // the error of the failed load isn't hidden by the one of the restore, a failed
+        // defer restored what it dropped already
+        if (deferral != null && deferral.hasPending()) { restore(ctx, deferral, loaded); }
       }
     } catch(SQLException se) {
       throw new MojoExecutionException("Error executing database scripts", se);
@@ -25,4 +85,59 @@ public class DBDataMojo extends AbstractDBMojo {
       throw new MojoExecutionException("Error executing database scripts", ioe);
     }
   }
+
+  /** Creates the deferred indexes and then the foreign keys, the definitions of every table
+   * on their own connection.
+   * @param ctx the context of the executed config
+   * @param deferral the deferred definitions
+   * @param fail whether the goal fails when a definition couldn't be restored, it's logged otherwise
+   * @throws MojoExecutionException when a definition couldn't be restored */
+  private void restore(final DbContext ctx, final IndexDeferral deferral, boolean fail) throws MojoExecutionException {
+    long startTime = System.currentTimeMillis();
+    int errors = 0;
+    // the foreign keys use the restored indexes
+    for (List<List<IndexDeferral.Definition>> phase : Arrays.asList(deferral.getIndexes(), deferral.getForeignKeys())) {
+      if (phase.isEmpty()) { continue; }
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(rebuildParallelism, phase.size())));
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (final List<IndexDeferral.Definition> definitions : phase) {
+        futures.add(executor.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+              Connection con = openApplicationDbConnection(ctx);
+              try {
+                return deferral.restore(con, definitions);
+              } finally {
+                closeConnection(con);
+              }
+            } }));
+      }
+      executor.shutdown();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          errors += futures.get(i).get();
+        } catch (ExecutionException e) {
+          ctx.getLog().error("Restoring of " + phase.get(i).get(0).getTable() + " failed: " + e.getCause().getMessage());
+          errors += phase.get(i).size();
+        } catch (InterruptedException e) {
+          executor.shutdownNow();
+          Thread.currentThread().interrupt();
+          errors++;
+          break;
+        }
+      }
+    }
+    String error;
+    try {
+      File remaining = deferral.finish();
+      error = remaining == null ? null : errors + " deferred index(es) or foreign key(s) couldn't be restored, see " + remaining;
+    } catch (IOException e) {
+      error = "Can't write the restore script of the deferred indexes: " + e.getMessage();
+    }
+    if (error != null) {
+      if (fail) { throw new MojoExecutionException(error); }
+      ctx.getLog().error(error);
+      return;
+    }
+    ctx.getLog().info(" indexes and foreign keys restored in " + ((System.currentTimeMillis() - startTime) / 1000.0) + " second(s)");
+  }
 }
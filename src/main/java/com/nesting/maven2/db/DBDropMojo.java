@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -21,10 +22,28 @@ public class DBDropMojo extends AbstractDBMojo {
    private String dbDropStatements;
   */
 
+  /** The database is dropped unless the create goal built it from the current inputs.
+   * @return the create goal */
+  protected String markerGoal() {
+    return "create";
+  }
+
+  /** {@inheritDoc} */
+  protected List<File> plannedFiles(DbContext ctx) {
+    return configured(ctx.getConfig().getDbDropFile());
+  }
+
   /** {@inheritDoc} */
-  public void executeInternal() throws MojoExecutionException, MojoFailureException {
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
     try {
-      executeSqlScript(getDbConfig().getDbDropFile(), openAdminDbConnection());
+      // the idle pooled connections of application would block the drop
+      ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      Connection con = openAdminDbConnection(ctx);
+      try {
+        executeSqlScript(ctx, ctx.getConfig().getDbDropFile(), con);
+      } finally {
+        closeConnection(con);
+      }
     } catch(SQLException se) {
       throw new MojoExecutionException("Error executing database query", se);
     } catch(IOException ioe) {
@@ -0,0 +1,150 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Mojo for exporting tables of the application database into files which the data goal
+ * executes: INSERT scripts or delimited files, optionally gzipped, in the script encoding and
+ * with the sql delimiter of the config. Every table is exported on its own connection and the
+ * tables are exported concurrently. The files of a config are written to a directory of its
+ * name in exportDirectory, named by the order of the tables, like 001_users.sql.
+ * @goal export */
+public class DBExportMojo extends AbstractDBMojo {
+
+  /** The tables to export in the order of their files, names or patterns of
+   * {@link java.sql.DatabaseMetaData#getTables} (% and _ wildcards) optionally prefixed by the schema,
+   * like app.user_%. The tables matched by a pattern are sorted by name. All tables of the
+   * current schema when empty.
+   * @parameter */
+  private String[] exportTables;
+
+  /** The format of the files: sql for INSERT scripts, csv or tsv for delimited files.
+   * @parameter default-value="sql" */
+  private String exportFormat;
+
+  /** The directory of the exported files, every config has its own directory in it.
+   * @parameter default-value="${project.build.directory}/db-export" */
+  private File exportDirectory;
+
+  /** Whether the exported files are gzipped.
+   * @parameter default-value="false" */
+  private boolean exportCompress;
+
+  /** The number of rows fetched from the database at once.
+   * @parameter default-value="1000" */
+  private int exportFetchSize;
+
+  /** The number of tables exported concurrently, each on its own connection.
+   * @parameter default-value="4" */
+  private int exportParallelism;
+
+  /** The size in bytes after which the file of a table is closed and the next part is
+   * started, 0 for one file per table. Gzipped files are measured compressed.
+   * @parameter default-value="0" */
+  private long exportMaxFileSize;
+
+  /** {@inheritDoc} */
+  public void executeInternal(final DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    final String format = exportFormat == null ? "sql" : exportFormat.trim().toLowerCase();
+    if (!"sql".equals(format) && !"csv".equals(format) && !"tsv".equals(format)) {
+      throw new MojoFailureException("Unknown exportFormat: " + exportFormat);
+    }
+    checkEncoding(ctx);
+    final Charset charset = Charset.forName(ctx.getConfig().getScriptEncoding());
+    final File directory = new File(exportDirectory, ctx.getName().replaceAll("[^A-Za-z0-9._-]", "_"));
+    long startTime = System.currentTimeMillis();
+    List<String> tables;
+    try {
+      Connection con = openApplicationDbConnection(ctx);
+      try {
+        tables = tables(con, exportTables, "exportTables");
+      } finally {
+        closeConnection(con);
+      }
+      clean(directory);
+    } catch (SQLException se) {
+      throw new MojoExecutionException("Error reading tables of database", se);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Error cleaning export directory " + directory, ioe);
+    }
+
+    int threads = Math.max(1, Math.min(exportParallelism, tables.size()));
+    ctx.getLog().info(" exporting " + tables.size() + " table(s) into " + directory + " by " + threads + " thread(s)");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Map<String, Future<TableExporter>> futures = new LinkedHashMap<>();
+    for (int i = 0; i < tables.size(); i++) {
+      final String table = tables.get(i);
+      final String baseName = String.format("%03d_%s", i + 1, table.substring(table.lastIndexOf('.') + 1));
+      futures.put(table, executor.submit(new Callable<TableExporter>() {
+          public TableExporter call() throws Exception {
+            TableExporter exporter = new TableExporter(SqlDialect.forConfig(ctx.getConfig()), format, charset,
+                                                       ctx.getConfig().getSqlDelimiter(), exportCompress,
+                                                       exportFetchSize, exportMaxFileSize);
+            long start = System.currentTimeMillis();
+            Connection con = openApplicationDbConnection(ctx);
+            try {
+              exporter.export(con, table, directory, baseName);
+            } finally {
+              closeConnection(con);
+            }
+            ctx.getLog().info(" " + exporter.getRows() + " row(s) of " + table + " exported into "
+                              + exporter.getFiles().size() + " file(s) in "
+                              + ((System.currentTimeMillis() - start) / 1000.0) + " second(s)");
+            return exporter;
+          } }));
+    }
+    executor.shutdown();
+
+    long rows = 0;
+    int files = 0;
+    try {
+      for (Map.Entry<String, Future<TableExporter>> entry : futures.entrySet()) {
+        TableExporter exporter;
+        try {
+          exporter = entry.getValue().get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof MojoFailureException) { throw (MojoFailureException) cause; }
+          throw new MojoExecutionException("Error exporting table " + entry.getKey(), cause);
+        }
+        rows += exporter.getRows();
+        files += exporter.getFiles().size();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while waiting for exports", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    ctx.getLog().info(" " + rows + " row(s) of " + tables.size() + " table(s) exported into " + files + " file(s) in "
+                      + ((System.currentTimeMillis() - startTime) / 1000.0) + " second(s)");
+  }
+
+  /** Deletes the files of the previous export, so no stale part is loaded with the new ones. */
+  private static void clean(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create directory " + directory);
+    }
+    File[] files = directory.listFiles();
+    if (files == null) { return; }
+    for (File file : files) {
+      if (file.getName().matches("[0-9]{3}_.+\\.(sql|csv|tsv)(\\.gz)?") && !file.delete()) {
+        throw new IOException("Can't delete " + file);
+      }
+    }
+  }
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -13,11 +14,30 @@ import org.apache.maven.plugin.MojoFailureException;
 public class DBSchemaMojo extends AbstractDBMojo {
 
   /** {@inheritDoc} */
-  public void executeInternal() throws MojoExecutionException, MojoFailureException {
+  protected boolean skipsClonedDatabase() {
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  protected String markerGoal() {
+    return "schema";
+  }
+
+  /** {@inheritDoc} */
+  protected List<File> plannedFiles(DbContext ctx) {
+    return configured(ctx.getConfig().getSchemaDirectory());
+  }
+
+  /** {@inheritDoc} */
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
     try {
-      Connection con = openApplicationDbConnection();
-      for (File schemaDirectory : getDbConfig().getSchemaDirectory()) {
-        executeScriptsInDirectory(schemaDirectory, con);
+      Connection con = openApplicationDbConnection(ctx);
+      try {
+        for (File schemaDirectory : ctx.getConfig().getSchemaDirectory()) {
+          executeScriptsInDirectory(ctx, schemaDirectory, con);
+        }
+      } finally {
+        closeConnection(con);
       }
     } catch(SQLException se) {
       throw new MojoExecutionException("Error executing database scripts", se);
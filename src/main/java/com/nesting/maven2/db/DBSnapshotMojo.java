@@ -0,0 +1,17 @@
+package com.nesting.maven2.db;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Mojo for saving the application databases as templates, which the create goal creates the
+ * databases from when snapshot is enabled. It runs after the last goal which executes
+ * scripts, the template is saved for the fingerprint of the scripts and settings of the config
+ * in snapshotDirectory, the least recently used templates above snapshotLimit are deleted.
+ * @goal snapshot */
+public class DBSnapshotMojo extends AbstractDBMojo {
+
+  /** {@inheritDoc} */
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    saveTemplate(ctx);
+  }
+}
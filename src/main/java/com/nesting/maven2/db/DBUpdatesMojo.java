@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -13,11 +14,32 @@ import org.apache.maven.plugin.MojoFailureException;
 public class DBUpdatesMojo extends AbstractDBMojo {
 
   /** {@inheritDoc} */
-  public void executeInternal() throws MojoExecutionException, MojoFailureException {
+  protected boolean skipsClonedDatabase() {
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  protected List<File> plannedFiles(DbContext ctx) {
+    return configured(ctx.getConfig().getUpdateDirectory());
+  }
+
+  /** {@inheritDoc} */
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    Connection con = null;
+    ScriptLedger ledger = null;
     try {
-      Connection con = openApplicationDbConnection();
-      for (File updateDirectory : getDbConfig().getUpdateDirectory()) {
-        executeScriptsInDirectory(updateDirectory, con);
+      try {
+        con = openApplicationDbConnection(ctx);
+        ledger = openLedger(ctx);
+        for (File updateDirectory : ctx.getConfig().getUpdateDirectory()) {
+          executeScriptsInDirectory(ctx, updateDirectory, con, ledger);
+        }
+      } finally {
+        try {
+          if (ledger != null) { ledger.close(); }
+        } finally {
+          if (con != null) { closeConnection(con); }
+        }
       }
     } catch(SQLException se) {
       throw new MojoExecutionException("Error executing database scripts", se);
@@ -0,0 +1,248 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Mojo for applying the changed scripts to a warm development database while they're
+ * edited. The goal watches the schema and update directories of the configs and executes a
+ * new or modified script as soon as it's saved, on the application connection which stays
+ * open for the whole session. The scripts present at the start are taken as applied, a
+ * script is executed again only when its content changes. A failed script is logged and
+ * executed again at its next change.
+ * <p>With useLedger the update scripts follow the ledger like in the update goal: the
+ * pending ones are executed at the start, a new script is recorded when it's executed and
+ * an applied one isn't executed again, its change is reported as checksum drift.</p>
+ * @goal watch */
+public class DBWatchMojo extends AbstractDBMojo {
+
+  /** The time in milliseconds without further changes before the changed scripts are
+   * executed, so a file an editor writes in several steps is executed once.
+   * @parameter default-value="200" */
+  private long watchDebounce;
+
+  /** The number of seconds after which the goal stops, 0 to watch until the build is
+   * interrupted.
+   * @parameter default-value="0" */
+  private long watchTimeout;
+
+  /** The configs are set up concurrently with configParallelism, afterConfigs watches them. */
+  private final List<Watched> watched = Collections.synchronizedList(new ArrayList<Watched>());
+  private WatchService watcher;
+
+  /** {@inheritDoc} */
+  public void executeInternal(DbContext ctx) throws MojoExecutionException, MojoFailureException {
+    Watched config = new Watched(ctx);
+    config.directories.addAll(configured(ctx.getConfig().getSchemaDirectory()));
+    config.updates.addAll(configured(ctx.getConfig().getUpdateDirectory()));
+    config.directories.addAll(config.updates);
+    boolean opened = false;
+    try {
+      WatchService watcher = watcher();
+      for (File directory : config.directories) {
+        if (!directory.isDirectory()) {
+          throw new MojoFailureException(directory.getName() + " is not a directory");
+        }
+        for (File file : scripts(directory)) {
+          config.checksums.put(file.getAbsoluteFile(), ScriptLedger.checksum(file));
+        }
+        directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+      }
+      config.con = openApplicationDbConnection(ctx);
+      config.ledger = openLedger(ctx);
+      if (config.ledger != null) {
+        for (File directory : config.updates) {
+          executeScriptsInDirectory(ctx, directory, config.con, config.ledger);
+        }
+      }
+      opened = true;
+    } catch (SQLException se) {
+      throw new MojoExecutionException("Error opening database connection", se);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Error watching script directories", ioe);
+    } finally {
+      if (!opened) { close(config); }
+    }
+    watched.add(config);
+    ctx.getLog().info(" watching " + config.checksums.size() + " script(s) in " + config.directories.size()
+                      + " directory(ies)");
+  }
+
+  /** @return the watch service of all configs, created by the first one */
+  private synchronized WatchService watcher() throws IOException {
+    if (watcher == null) { watcher = FileSystems.getDefault().newWatchService(); }
+    return watcher;
+  }
+
+  /** {@inheritDoc} */
+  protected void afterConfigs() throws MojoExecutionException, MojoFailureException {
+    if (watched.isEmpty()) { return; }
+    long deadline = watchTimeout > 0 ? System.currentTimeMillis() + watchTimeout * 1000 : Long.MAX_VALUE;
+    for (Watched config : watched) {
+      // the log of a concurrently executed config was flushed, the reject file was closed
+      config.ctx = new DbContext(config.ctx.getConfig(), getLog());
+      if (config.ledger != null) {
+        closeLedger(config);
+        try {
+          config.ledger = openLedger(config.ctx);
+        } catch (SQLException e) {
+          throw new MojoExecutionException("Error reading script ledger", e);
+        }
+      }
+    }
+    getLog().info("watching for changed scripts" + (watchTimeout > 0 ? " for " + watchTimeout + " second(s)" : ""));
+    try {
+      while (true) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) { break; }
+        WatchKey key = watcher.poll(wait, TimeUnit.MILLISECONDS);
+        if (key == null) { continue; }
+        Set<File> changed = new HashSet<>();
+        drain(key, changed);
+        while ((key = watcher.poll(Math.max(watchDebounce, 1), TimeUnit.MILLISECONDS)) != null) {
+          drain(key, changed);
+        }
+        for (Watched config : watched) { apply(config, changed); }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while watching scripts", e);
+    } finally {
+      for (Watched config : watched) { close(config); }
+      watched.clear();
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        getLog().warn("Can't close watch service: " + e);
+      }
+      watcher = null;
+    }
+  }
+
+  /** Collects the files of the events of the key, all files of the directory when events
+   * were lost. */
+  private void drain(WatchKey key, Set<File> changed) {
+    File directory = ((Path) key.watchable()).toFile().getAbsoluteFile();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changed.addAll(files(directory));
+      } else {
+        changed.add(new File(directory, ((Path) event.context()).toString()));
+      }
+    }
+    if (!key.reset()) {
+      getLog().warn("Directory " + directory + " isn't watched anymore");
+    }
+  }
+
+  /** Executes the changed scripts of the config whose content differs from the last applied
+   * one, in the order of the directories and the names of the scripts. */
+  private void apply(Watched config, Set<File> changed) {
+    DbContext ctx = config.ctx;
+    for (File directory : config.directories) {
+      List<File> files = new ArrayList<>();
+      for (File file : changed) {
+        if (file.getParentFile().equals(directory.getAbsoluteFile()) && !file.getName().startsWith(".")
+            && !file.getName().endsWith("~") && !isDependencyManifest(file)) {
+          files.add(file);
+        }
+      }
+      Collections.sort(files);
+      for (File file : files) {
+        if (!file.isFile()) {
+          config.checksums.remove(file);
+          continue;
+        }
+        long start = System.currentTimeMillis();
+        try {
+          String checksum = ScriptLedger.checksum(file);
+          if (checksum.equals(config.checksums.put(file, checksum))) { continue; }
+          ScriptLedger ledger = config.updates.contains(directory) ? config.ledger : null;
+          if (ledger != null && !ledger.isPending(file)) { continue; }
+          if (config.con == null) { config.con = openApplicationDbConnection(ctx); }
+          executeScript(ctx, file, config.con, ledger);
+          long end = System.currentTimeMillis();
+          ctx.getLog().info(" applied " + file.getName() + " of dbConfig " + ctx.getName() + " in " + (end - start) + " ms, "
+                            + Math.max(end - file.lastModified(), 0) + " ms after it was saved");
+        } catch (SQLException | IOException | MojoExecutionException | MojoFailureException e) {
+          ctx.getLog().error("Applying " + file.getName() + " failed: " + e.getMessage());
+          // the next script starts on a fresh connection, without a transaction left open
+          if (config.con != null) {
+            closeConnection(config.con);
+            config.con = null;
+          }
+        }
+      }
+    }
+  }
+
+  private void close(Watched config) {
+    if (config.con != null) { closeConnection(config.con); }
+    config.con = null;
+    closeLedger(config);
+  }
+
+  private void closeLedger(Watched config) {
+    if (config.ledger == null) { return; }
+    try {
+      config.ledger.close();
+    } catch (SQLException e) {
+      getLog().warn("Closing of ledger connection failed: " + e.getMessage());
+    }
+    config.ledger = null;
+  }
+
+  /** @return the current files of the directory */
+  private List<File> files(File directory) {
+    List<File> files = new ArrayList<>();
+    File[] children = directory.listFiles();
+    if (children == null) { return files; }
+    for (File child : children) {
+      files.add(child.getAbsoluteFile());
+    }
+    return files;
+  }
+
+  /** @return the scripts of the directory, without the dependency manifest and the hidden
+   *   swap files of the editors */
+  private List<File> scripts(File directory) {
+    List<File> scripts = new ArrayList<>();
+    for (File file : scriptFiles(directory)) {
+      if (!isDependencyManifest(file) && !file.getName().startsWith(".")) { scripts.add(file); }
+    }
+    return scripts;
+  }
+
+  /** The watched directories, applied scripts, the connection and the ledger of a config. */
+  private static class Watched {
+    private DbContext ctx;
+    private final List<File> directories = new ArrayList<>();
+    private final List<File> updates = new ArrayList<>();
+    private final Map<File, String> checksums = new HashMap<>();
+    private Connection con;
+    private ScriptLedger ledger;
+
+    Watched(DbContext ctx) {
+      this.ctx = ctx;
+    }
+  }
+}
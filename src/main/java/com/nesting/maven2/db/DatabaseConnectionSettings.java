@@ -7,4 +7,22 @@ public class DatabaseConnectionSettings {
   private String serverId; public String getServerId() { return serverId; } public void setServerId(String serverId) { this.serverId = serverId; }
   private String userName; public String getUserName() { return userName; } public void setUserName(String userName) { this.userName = userName; }
   private String password; public String getPassword() { return password; } public void setPassword(String password) { this.password = password; }
+
+  /** {@inheritDoc} */
+  public boolean equals(Object obj) {
+    if (this == obj) { return true; }
+    if (!(obj instanceof DatabaseConnectionSettings)) { return false; }
+    DatabaseConnectionSettings other = (DatabaseConnectionSettings) obj;
+    return equal(jdbcUrl, other.jdbcUrl) && equal(jdbcDriver, other.jdbcDriver) && equal(serverId, other.serverId)
+      && equal(userName, other.userName) && equal(password, other.password);
+  }
+
+  /** {@inheritDoc} */
+  public int hashCode() {
+    int hash = jdbcUrl == null ? 0 : jdbcUrl.hashCode();
+    hash = 31 * hash + (serverId == null ? 0 : serverId.hashCode());
+    return 31 * hash + (userName == null ? 0 : userName.hashCode());
+  }
+
+  private static boolean equal(Object a, Object b) { return a == null ? b == null : a.equals(b); }
 }
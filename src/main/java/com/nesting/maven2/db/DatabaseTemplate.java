@@ -0,0 +1,394 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Strategy which saves the application database of a config as a template and creates the
+ * database again from the template, much faster than executing its scripts. The strategy is
+ * chosen by the dialect of the config: PostgreSQL copies the database on the server by
+ * CREATE DATABASE ... TEMPLATE, the embedded H2, Derby and HSQLDB databases are backed up
+ * online into the snapshot directory and their files are restored from there. Other
+ * databases can plug in their own subclass by its class name.
+ * <p>The target database of a restore must not be in use, the idle pooled connections of
+ * the application are closed before.</p> */
+public abstract class DatabaseTemplate {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  /** Returns the strategy of the config.
+   * @param config the config
+   * @param className the class name of a custom strategy, may be null
+   * @return the strategy or null when the database of the config isn't supported
+   * @throws MojoFailureException when the custom strategy can't be created */
+  public static DatabaseTemplate forConfig(DbConfig config, String className) throws MojoFailureException {
+    if (className != null && className.trim().length() > 0) {
+      try {
+        return (DatabaseTemplate) Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        throw new MojoFailureException("Can't create snapshotStrategy " + className + ": " + e);
+      }
+    }
+    String url = config.getAppDbConnectionSettings().getJdbcUrl();
+    DatabaseTemplate template;
+    switch (SqlDialect.forConfig(config)) {
+      case POSTGRESQL:
+        template = new Postgresql();
+        break;
+      case H2:
+        template = new H2();
+        break;
+      case DERBY:
+        template = new Derby();
+        break;
+      case HSQLDB:
+        template = new Hsqldb();
+        break;
+      default:
+        return null;
+    }
+    return template.supports(url) ? template : null;
+  }
+
+  /** @param jdbcUrl the url of the application database
+   * @return whether the database can be saved and restored */
+  public abstract boolean supports(String jdbcUrl);
+
+  /** Saves the application database as the template.
+   * @param mojo the executed mojo, it opens the connections
+   * @param ctx the context of the config
+   * @param name the name of the template
+   * @param directory the snapshot directory for the file based templates
+   * @throws SQLException on error
+   * @throws IOException on error
+   * @throws MojoFailureException on error */
+  public abstract void save(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+    throws SQLException, IOException, MojoFailureException;
+
+  /** Creates the application database from the template.
+   * @param mojo the executed mojo, it opens the connections
+   * @param ctx the context of the config
+   * @param name the name of the template
+   * @param directory the snapshot directory for the file based templates
+   * @throws SQLException on error
+   * @throws IOException on error
+   * @throws MojoFailureException on error */
+  public abstract void restore(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+    throws SQLException, IOException, MojoFailureException;
+
+  /** Deletes the template.
+   * @param mojo the executed mojo, it opens the connections
+   * @param ctx the context of the config
+   * @param name the name of the template
+   * @param directory the snapshot directory for the file based templates
+   * @throws SQLException on error
+   * @throws IOException on error
+   * @throws MojoFailureException on error */
+  public abstract void delete(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+    throws SQLException, IOException, MojoFailureException;
+
+  /** Executes the statement on the connection which is closed afterwards, the connection is
+   * in auto commit mode since CREATE DATABASE can't be executed in a transaction. */
+  static void execute(AbstractDBMojo mojo, DbContext ctx, Connection con, String sql) throws SQLException {
+    ctx.getLog().debug("    " + sql);
+    try {
+      Statement st = con.createStatement();
+      try {
+        st.execute(sql);
+      } finally {
+        st.close();
+      }
+    } finally {
+      mojo.closeConnection(con);
+    }
+  }
+
+  /** @return the path of the embedded database in the url without the prefix, the
+   *   subprotocols and the parameters after the first separator */
+  static String path(String jdbcUrl, String prefix, String separator, String... subprotocols) {
+    String path = jdbcUrl.substring(prefix.length());
+    for (String subprotocol : subprotocols) {
+      if (path.startsWith(subprotocol)) { path = path.substring(subprotocol.length()); }
+    }
+    int end = path.indexOf(separator);
+    if (end >= 0) { path = path.substring(0, end); }
+    if (path.startsWith("~")) { path = System.getProperty("user.home") + path.substring(1); }
+    return path;
+  }
+
+  static void deleteTree(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) { deleteTree(child); }
+    }
+    if (file.exists() && !file.delete()) { throw new IOException("Can't delete " + file); }
+  }
+
+  static void copy(InputStream in, File target) throws IOException {
+    OutputStream out = new FileOutputStream(target);
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n;
+      while ((n = in.read(buffer)) > 0) { out.write(buffer, 0, n); }
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Replaces the files of the database by the saved ones, whose names start with the same
+   * name as the database. */
+  static void replaceFiles(File database, File[] saved, String savedName) throws IOException {
+    File directory = database.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) { throw new IOException("Can't create directory " + directory); }
+    File[] old = directory.listFiles();
+    if (old != null) {
+      for (File file : old) {
+        if (file.getName().startsWith(database.getName() + ".")) { deleteTree(file); }
+      }
+    }
+    for (File file : saved) {
+      File target = new File(directory, database.getName() + file.getName().substring(savedName.length()));
+      if (file.isDirectory()) {
+        throw new IOException("Unexpected directory " + file + " in the template");
+      }
+      InputStream in = new FileInputStream(file);
+      try {
+        copy(in, target);
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  /** PostgreSQL: the template is a database on the same server. */
+  public static class Postgresql extends DatabaseTemplate {
+
+    /** {@inheritDoc} */
+    public boolean supports(String jdbcUrl) {
+      return database(jdbcUrl) != null;
+    }
+
+    private static String database(String jdbcUrl) {
+      String path = jdbcUrl.replaceFirst("^jdbc:postgresql:(//[^/]*/)?", "");
+      int end = path.indexOf('?');
+      if (end >= 0) { path = path.substring(0, end); }
+      return path.isEmpty() || path.contains("/") ? null : path;
+    }
+
+    private static String quote(String name) {
+      return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /** {@inheritDoc} */
+    public void save(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, MojoFailureException {
+      // the source of a template copy must not have other sessions
+      ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      execute(mojo, ctx, mojo.openAdminDbConnection(ctx), "CREATE DATABASE " + quote(name) + " TEMPLATE "
+              + quote(database(ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl())));
+    }
+
+    /** {@inheritDoc} */
+    public void restore(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, MojoFailureException {
+      ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      execute(mojo, ctx, mojo.openAdminDbConnection(ctx), "CREATE DATABASE "
+              + quote(database(ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl())) + " TEMPLATE " + quote(name));
+    }
+
+    /** {@inheritDoc} */
+    public void delete(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, MojoFailureException {
+      execute(mojo, ctx, mojo.openAdminDbConnection(ctx), "DROP DATABASE IF EXISTS " + quote(name));
+    }
+  }
+
+  /** Embedded H2: the template is an online backup zip, its files are extracted in place of
+   * the database files. */
+  public static class H2 extends DatabaseTemplate {
+
+    private static final String PREFIX = "jdbc:h2:";
+
+    /** {@inheritDoc} */
+    public boolean supports(String jdbcUrl) {
+      String url = jdbcUrl.toLowerCase();
+      return url.startsWith(PREFIX) && !url.startsWith("jdbc:h2:mem:") && !url.startsWith("jdbc:h2:tcp:")
+        && !url.startsWith("jdbc:h2:ssl:") && !url.startsWith("jdbc:h2:zip:");
+    }
+
+    /** {@inheritDoc} */
+    public void save(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, IOException, MojoFailureException {
+      File zip = new File(directory, name + ".zip");
+      PreparedStatement ps = null;
+      Connection con = mojo.openApplicationDbConnection(ctx);
+      try {
+        ps = con.prepareStatement("BACKUP TO ?");
+        ps.setString(1, zip.getAbsolutePath());
+        ps.execute();
+      } finally {
+        if (ps != null) { ps.close(); }
+        mojo.closeConnection(con);
+      }
+    }
+
+    /** {@inheritDoc} */
+    public void restore(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, IOException, MojoFailureException {
+      ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      File database = new File(path(ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl(), PREFIX, ";", "file:"));
+      if (new File(database.getPath() + ".mv.db").exists() || new File(database.getPath() + ".h2.db").exists()) {
+        // the database may be kept open by DB_CLOSE_DELAY
+        execute(mojo, ctx, mojo.openApplicationDbConnection(ctx), "SHUTDOWN");
+        ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      }
+      File staging = new File(directory, name + ".restore");
+      deleteTree(staging);
+      if (!staging.mkdirs()) { throw new IOException("Can't create directory " + staging); }
+      String savedName = null;
+      ZipInputStream in = new ZipInputStream(new FileInputStream(new File(directory, name + ".zip")));
+      try {
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+          if (entry.isDirectory() || entry.getName().contains("/")) { continue; }
+          int suffix = entry.getName().indexOf(".mv.db");
+          if (suffix < 0) { suffix = entry.getName().indexOf(".h2.db"); }
+          if (suffix > 0) { savedName = entry.getName().substring(0, suffix); }
+          copy(in, new File(staging, entry.getName()));
+        }
+      } finally {
+        in.close();
+      }
+      if (savedName == null) { throw new IOException("No database in template " + name); }
+      try {
+        replaceFiles(database, staging.listFiles(), savedName);
+      } finally {
+        deleteTree(staging);
+      }
+    }
+
+    /** {@inheritDoc} */
+    public void delete(AbstractDBMojo mojo, DbContext ctx, String name, File directory) throws IOException {
+      deleteTree(new File(directory, name + ".zip"));
+    }
+  }
+
+  /** Embedded Derby: the template is an online backup, the database is restored from it by
+   * the restoreFrom attribute of the connection. */
+  public static class Derby extends DatabaseTemplate {
+
+    private static final String PREFIX = "jdbc:derby:";
+
+    /** {@inheritDoc} */
+    public boolean supports(String jdbcUrl) {
+      return jdbcUrl.startsWith(PREFIX) && !jdbcUrl.startsWith("jdbc:derby://")
+        && !jdbcUrl.startsWith("jdbc:derby:memory:");
+    }
+
+    private static File database(DbContext ctx) {
+      File database = new File(path(ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl(), PREFIX, ";", "directory:"));
+      String home = System.getProperty("derby.system.home");
+      return database.isAbsolute() || home == null ? database : new File(home, database.getPath());
+    }
+
+    /** {@inheritDoc} */
+    public void save(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, IOException, MojoFailureException {
+      File backup = new File(directory, name);
+      deleteTree(backup);
+      PreparedStatement ps = null;
+      Connection con = mojo.openApplicationDbConnection(ctx);
+      try {
+        ps = con.prepareStatement("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+        ps.setString(1, backup.getAbsolutePath());
+        ps.execute();
+      } finally {
+        if (ps != null) { ps.close(); }
+        mojo.closeConnection(con);
+      }
+    }
+
+    /** {@inheritDoc} */
+    public void restore(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, IOException {
+      DatabaseConnectionSettings settings = ctx.getConfig().getAppDbConnectionSettings();
+      ConnectionPool.closeIdle(settings);
+      File database = database(ctx);
+      try {
+        DriverManager.getConnection(PREFIX + database.getPath() + ";shutdown=true").close();
+      } catch (SQLException e) {
+        // Derby reports a successful shutdown by an exception, a database which isn't booted too
+      }
+      File[] saved = new File(directory, name).listFiles();
+      if (saved == null || saved.length != 1) { throw new IOException("No database in template " + name); }
+      String user = settings.getUserName();
+      Connection con = DriverManager.getConnection(PREFIX + database.getPath() + ";restoreFrom=" + saved[0].getAbsolutePath(),
+                                                   user == null ? "" : user, settings.getPassword() == null ? "" : settings.getPassword());
+      con.close();
+    }
+
+    /** {@inheritDoc} */
+    public void delete(AbstractDBMojo mojo, DbContext ctx, String name, File directory) throws IOException {
+      deleteTree(new File(directory, name));
+    }
+  }
+
+  /** Embedded HSQLDB: the template is an online backup as files, they're copied in place of
+   * the database files. */
+  public static class Hsqldb extends DatabaseTemplate {
+
+    private static final String PREFIX = "jdbc:hsqldb:file:";
+
+    /** {@inheritDoc} */
+    public boolean supports(String jdbcUrl) {
+      return jdbcUrl.startsWith(PREFIX);
+    }
+
+    /** {@inheritDoc} */
+    public void save(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, IOException, MojoFailureException {
+      File backup = new File(directory, name);
+      deleteTree(backup);
+      execute(mojo, ctx, mojo.openApplicationDbConnection(ctx), "BACKUP DATABASE TO '"
+              + backup.getAbsolutePath().replace("'", "''") + File.separator + "' BLOCKING AS FILES");
+    }
+
+    /** {@inheritDoc} */
+    public void restore(AbstractDBMojo mojo, DbContext ctx, String name, File directory)
+      throws SQLException, IOException, MojoFailureException {
+      File database = new File(path(ctx.getConfig().getAppDbConnectionSettings().getJdbcUrl(), PREFIX, ";"));
+      File[] saved = new File(directory, name).listFiles();
+      String savedName = null;
+      if (saved != null) {
+        for (File file : saved) {
+          if (file.getName().endsWith(".script")) { savedName = file.getName().substring(0, file.getName().length() - 7); }
+        }
+      }
+      if (savedName == null) { throw new IOException("No database in template " + name); }
+      ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      if (new File(database.getPath() + ".script").exists() || new File(database.getPath() + ".properties").exists()) {
+        // the database stays open in the process until it's shut down
+        execute(mojo, ctx, mojo.openApplicationDbConnection(ctx), "SHUTDOWN");
+        ConnectionPool.closeIdle(ctx.getConfig().getAppDbConnectionSettings());
+      }
+      replaceFiles(database, saved, savedName);
+    }
+
+    /** {@inheritDoc} */
+    public void delete(AbstractDBMojo mojo, DbContext ctx, String name, File directory) throws IOException {
+      deleteTree(new File(directory, name));
+    }
+  }
+}
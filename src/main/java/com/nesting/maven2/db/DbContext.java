@@ -0,0 +1,46 @@
+package com.nesting.maven2.db;
+
+import org.apache.maven.plugin.logging.Log;
+
+/** State of a goal execution for a single {@link DbConfig}. Every config is executed
+ * with its own context, so the configs can be executed concurrently. */
+public class DbContext {
+
+  private final DbConfig config;
+  private final Log log;
+  private final ExecutionMetrics metrics;
+  private volatile ScriptPrefetcher prefetcher;
+  private volatile ScriptRejects rejects;
+
+  /** @param config the executed config
+   * @param log the log of the execution */
+  public DbContext(DbConfig config, Log log) {
+    this(config, log, new ExecutionMetrics(0));
+  }
+
+  /** @param config the executed config
+   * @param log the log of the execution
+   * @param metrics the metrics of the goal execution, shared by all configs */
+  public DbContext(DbConfig config, Log log, ExecutionMetrics metrics) {
+    this.config = config;
+    this.log = log;
+    this.metrics = metrics;
+  }
+
+  /** @return the executed config */
+  public DbConfig getConfig() { return config; }
+  /** @return the log of the execution */
+  public Log getLog() { return log; }
+  /** @return the metrics of the goal execution */
+  public ExecutionMetrics getMetrics() { return metrics; }
+  /** @return the inflation of the scripts of the executed directory, null if they aren't prefetched */
+  public ScriptPrefetcher getPrefetcher() { return prefetcher; }
+  /** @param prefetcher the inflation of the scripts of the executed directory */
+  public void setPrefetcher(ScriptPrefetcher prefetcher) { this.prefetcher = prefetcher; }
+  /** @return the reject file of the failed statements, null unless the execution continues on error */
+  public ScriptRejects getRejects() { return rejects; }
+  /** @param rejects the reject file of the failed statements */
+  public void setRejects(ScriptRejects rejects) { this.rejects = rejects; }
+  /** @return the name of the executed config */
+  public String getName() { return config.getName(); }
+}
@@ -0,0 +1,319 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Loads delimited (CSV/TSV) data file into a table. The rows are inserted by single
+ * {@link PreparedStatement} in JDBC batches and committed every
+ * {@link DelimitedFileSettings#getCommitInterval() commitInterval} rows. When the database
+ * is PostgreSQL and its driver is available the file is streamed by COPY instead.
+ * <p>The table and column names are quoted. The table is taken as written when the database
+ * has it so, otherwise in the case of the unquoted names of the database, and a column name
+ * which differs from a column of the table only by case is taken in the case of the table.</p> */
+public class DelimitedDataLoader {
+
+  private static final String PG_CONNECTION = "org.postgresql.PGConnection";
+
+  private final DbContext ctx;
+  private final DelimitedFileSettings settings;
+  private String identifierQuote = "";
+
+  /** @param ctx the context of the executed config
+   * @param settings the settings of the file */
+  public DelimitedDataLoader(DbContext ctx, DelimitedFileSettings settings) {
+    this.ctx = ctx;
+    this.settings = settings;
+  }
+
+  /** Returns name of the table for the file, the configured one or the file name without
+   * extensions and without the numeric prefix used for ordering (010_users.csv.gz is users).
+   * @param file the data file
+   * @return the table name */
+  public String tableName(File file) {
+    if (!StringUtils.isEmpty(settings.getTable())) { return settings.getTable(); }
+    String name = file.getName();
+    int dot = name.indexOf('.');
+    if (dot > 0) { name = name.substring(0, dot); }
+    return name.replaceFirst("^[0-9]+[_-]", "");
+  }
+
+  /** Returns the field separator of the file, tab for *.tsv files and comma otherwise.
+   * @param file the data file
+   * @return the separator */
+  public char separator(File file) {
+    if (!StringUtils.isEmpty(settings.getSeparator())) {
+      return "\\t".equals(settings.getSeparator()) ? '\t' : settings.getSeparator().charAt(0);
+    }
+    return file.getName().toLowerCase().contains(".tsv") ? '\t' : ',';
+  }
+
+  /** Loads the file into its table.
+   * @param file the data file
+   * @param reader the reader of the data file
+   * @param con the connection
+   * @return the number of loaded rows
+   * @throws SQLException on error
+   * @throws IOException on error
+   * @throws MojoFailureException when the data don't fit the table */
+  public long load(File file, Reader reader, Connection con) throws SQLException, IOException, MojoFailureException {
+    String table = tableName(file);
+    char separator = separator(file);
+    char quote = StringUtils.isEmpty(settings.getQuote()) ? 0 : settings.getQuote().charAt(0);
+    DelimitedReader in = new DelimitedReader(reader, separator, quote, settings.getNullValue());
+    try {
+      String[] columns = settings.getColumns();
+      if (settings.isHeader()) {
+        String[] header = in.readRecord();
+        if (header == null) { return 0; }
+        if (columns == null || columns.length == 0) { columns = header; }
+      }
+      DatabaseMetaData md = con.getMetaData();
+      String q = md.getIdentifierQuoteString();
+      identifierQuote = q == null || q.trim().isEmpty() ? "" : q.trim();
+      String target = qualified(con, md, table);
+      String[] tableColumns = tableColumns(con, target);
+      if (columns == null || columns.length == 0) {
+        columns = tableColumns;
+        if (columns.length == 0) { throw new MojoFailureException("Table " + table + " of " + file.getName() + " has no columns"); }
+      }
+      columns = quoteColumns(file, columns, tableColumns);
+      boolean formats = !StringUtils.isEmpty(settings.getDateFormat()) || !StringUtils.isEmpty(settings.getTimestampFormat());
+      if (settings.isNativeLoad() && SqlDialect.forConfig(ctx.getConfig()) == SqlDialect.POSTGRESQL && formats) {
+        // COPY parses the values by the database, the formats are applied by the INSERTs
+        ctx.getLog().info(" " + file.getName() + " is loaded by INSERT statements, COPY doesn't apply dateFormat and timestampFormat");
+      } else if (settings.isNativeLoad() && SqlDialect.forConfig(ctx.getConfig()) == SqlDialect.POSTGRESQL) {
+        Object copyApi = copyApi(con);
+        if (copyApi != null) {
+          // the header is read already, COPY gets its names and the rest of the data
+          return copy(copyApi, file, table, target, columns, separator, quote, in.remaining());
+        }
+      }
+      return insert(in, file, table, target, columns, con);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Reads the whole file without loading it, the records have to have the same number
+   * of fields as the configured columns, the header or the first record.
+   * @param file the data file
+   * @param reader the reader of the data file, it's closed
+   * @return the number of records without the header
+   * @throws IOException on error or when a quoted field isn't closed
+   * @throws MojoFailureException when a record has a different number of fields */
+  public long plan(File file, Reader reader) throws IOException, MojoFailureException {
+    char quote = StringUtils.isEmpty(settings.getQuote()) ? 0 : settings.getQuote().charAt(0);
+    DelimitedReader in = new DelimitedReader(reader, separator(file), quote, settings.getNullValue());
+    try {
+      int fields = settings.getColumns() == null ? 0 : settings.getColumns().length;
+      if (settings.isHeader()) {
+        String[] header = in.readRecord();
+        if (fields == 0 && header != null) { fields = header.length; }
+      }
+      long records = 0;
+      String[] record;
+      while ((record = in.readRecord()) != null) {
+        if (fields == 0) { fields = record.length; }
+        if (record.length != fields) {
+          throw new MojoFailureException(file.getName() + ":" + in.getRecordLine() + " has " + record.length
+                                         + " field(s), expected " + fields);
+        }
+        records++;
+      }
+      return records;
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Inserts the records by prepared statement batches. */
+  private long insert(DelimitedReader in, File file, String table, String target, String[] columns, Connection con)
+    throws SQLException, IOException, MojoFailureException {
+    String columnList = StringUtils.join(columns, ", ");
+    StringBuilder params = new StringBuilder("?");
+    for (int i = 1; i < columns.length; i++) { params.append(", ?"); }
+    String sql = "INSERT INTO " + target + " (" + columnList + ") VALUES (" + params + ")";
+    ctx.getLog().info(" loading " + file.getName() + " into " + table + " by batches of " + settings.getBatchSize());
+    if (ctx.getLog().isDebugEnabled()) { ctx.getLog().debug("    " + sql); }
+
+    int[] types = columnTypes(con, target, columnList, columns.length);
+    SqlValueConverter converter = new SqlValueConverter(settings.getDateFormat(), settings.getTimestampFormat());
+    boolean autoCommit = con.getAutoCommit();
+    con.setAutoCommit(false);
+    PreparedStatement ps = con.prepareStatement(sql);
+    long rows = 0;
+    int inBatch = 0;
+    try {
+      String[] record;
+      while ((record = in.readRecord()) != null) {
+        if (record.length != columns.length) {
+          throw new MojoFailureException(file.getName() + ":" + in.getRecordLine() + " has " + record.length
+                                         + " field(s), expected " + columns.length);
+        }
+        try {
+          for (int i = 0; i < record.length; i++) {
+            converter.bind(ps, i + 1, record[i], types[i]);
+          }
+        } catch (SQLException e) {
+          throw new SQLException(file.getName() + ":" + in.getRecordLine() + " " + e.getMessage(), e.getSQLState(), e);
+        }
+        ps.addBatch();
+        rows++;
+        if (++inBatch >= settings.getBatchSize()) {
+          ps.executeBatch();
+          inBatch = 0;
+        }
+        if (settings.getCommitInterval() > 0 && rows % settings.getCommitInterval() == 0) {
+          if (inBatch > 0) {
+            ps.executeBatch();
+            inBatch = 0;
+          }
+          con.commit();
+        }
+      }
+      if (inBatch > 0) { ps.executeBatch(); }
+      con.commit();
+    } catch (SQLException | IOException | MojoFailureException | RuntimeException e) {
+      con.rollback();
+      throw e;
+    } finally {
+      ps.close();
+      con.setAutoCommit(autoCommit);
+    }
+    return rows;
+  }
+
+  /** Returns names of all columns of the table. */
+  private String[] tableColumns(Connection con, String table) throws SQLException {
+    Statement st = con.createStatement();
+    try {
+      ResultSetMetaData md = st.executeQuery("SELECT * FROM " + table + " WHERE 1=0").getMetaData();
+      String[] columns = new String[md.getColumnCount()];
+      for (int i = 0; i < columns.length; i++) { columns[i] = md.getColumnName(i + 1); }
+      return columns;
+    } finally {
+      st.close();
+    }
+  }
+
+  /** Returns the quoted table name, qualified by the schema when it's given. The schema and
+   * name are taken as written when the database has such a table, otherwise in the case of
+   * the unquoted names of the database. */
+  private String qualified(Connection con, DatabaseMetaData md, String table) throws SQLException {
+    int dot = table.lastIndexOf('.');
+    String schema = dot > 0 ? table.substring(0, dot) : null;
+    String name = table.substring(dot + 1);
+    if (!exists(con, md, schema, name)) {
+      schema = schema == null ? null : AbstractDBMojo.identifier(md, schema);
+      name = AbstractDBMojo.identifier(md, name);
+    }
+    return schema == null ? quote(name) : quote(schema) + "." + quote(name);
+  }
+
+  private boolean exists(Connection con, DatabaseMetaData md, String schema, String name) throws SQLException {
+    ResultSet rs = md.getTables(con.getCatalog(), schema == null ? AbstractDBMojo.currentSchema(con) : schema, name, null);
+    try {
+      while (rs.next()) {
+        // the underscore of the name is a pattern
+        if (name.equals(rs.getString("TABLE_NAME"))) { return true; }
+      }
+      return false;
+    } finally {
+      rs.close();
+    }
+  }
+
+  /** Quotes the columns, the name which matches a column of the table only ignoring the case
+   * is taken in the case of the table. */
+  private String[] quoteColumns(File file, String[] columns, String[] tableColumns) throws MojoFailureException {
+    String[] quoted = new String[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i] == null || columns[i].trim().isEmpty()) {
+        throw new MojoFailureException("Column " + (i + 1) + " of " + file.getName() + " has no name");
+      }
+      String column = columns[i].trim();
+      String match = null;
+      for (String tableColumn : tableColumns) {
+        if (tableColumn.equals(column)) {
+          match = tableColumn;
+          break;
+        }
+        if (match == null && tableColumn.equalsIgnoreCase(column)) { match = tableColumn; }
+      }
+      quoted[i] = quote(match == null ? column : match);
+    }
+    return quoted;
+  }
+
+  private String quote(String identifier) {
+    return identifierQuote + identifier.replace(identifierQuote, identifierQuote + identifierQuote) + identifierQuote;
+  }
+
+  /** Returns JDBC types of the columns. */
+  private int[] columnTypes(Connection con, String table, String columnList, int count) throws SQLException {
+    Statement st = con.createStatement();
+    try {
+      ResultSet rs = st.executeQuery("SELECT " + columnList + " FROM " + table + " WHERE 1=0");
+      ResultSetMetaData md = rs.getMetaData();
+      int[] types = new int[count];
+      for (int i = 0; i < count; i++) { types[i] = md.getColumnType(i + 1); }
+      rs.close();
+      return types;
+    } finally {
+      st.close();
+    }
+  }
+
+  /** Returns the CopyManager of PostgreSQL connection or null if the driver doesn't have it. */
+  private Object copyApi(Connection con) {
+    try {
+      Class<?> pgConnection = Class.forName(PG_CONNECTION, true, con.getClass().getClassLoader());
+      if (!con.isWrapperFor(pgConnection)) { return null; }
+      return pgConnection.getMethod("getCopyAPI").invoke(con.unwrap(pgConnection));
+    } catch (Exception e) {
+      ctx.getLog().debug("    PostgreSQL COPY isn't available: " + e);
+      return null;
+    }
+  }
+
+  /** Streams the data by PostgreSQL COPY FROM STDIN. The header isn't sent, its names are
+   * the column list, COPY would only skip it. */
+  private long copy(Object copyApi, File file, String table, String target, String[] columns, char separator, char quote,
+                    Reader reader) throws SQLException, IOException {
+    StringBuilder sql = new StringBuilder("COPY ").append(target);
+    sql.append(" (").append(StringUtils.join(columns, ", ")).append(")");
+    sql.append(" FROM STDIN WITH (FORMAT csv, DELIMITER ").append(literal(String.valueOf(separator)));
+    if (quote != 0) { sql.append(", QUOTE ").append(literal(String.valueOf(quote))); }
+    if (settings.getNullValue() != null) { sql.append(", NULL ").append(literal(settings.getNullValue())); }
+    sql.append(", HEADER false)");
+    ctx.getLog().info(" loading " + file.getName() + " into " + table + " by COPY");
+    if (ctx.getLog().isDebugEnabled()) { ctx.getLog().debug("    " + sql); }
+    try {
+      Method copyIn = copyApi.getClass().getMethod("copyIn", String.class, Reader.class);
+      return ((Number) copyIn.invoke(copyApi, sql.toString(), reader)).longValue();
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof SQLException) { throw (SQLException) e.getCause(); }
+      if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+      throw new SQLException("COPY failed: " + e.getCause(), e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new SQLException("COPY isn't supported by the driver", e);
+    }
+  }
+
+  private static String literal(String value) {
+    return "'" + value.replace("'", "''") + "'";
+  }
+}
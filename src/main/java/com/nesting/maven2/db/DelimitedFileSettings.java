@@ -0,0 +1,17 @@
+package com.nesting.maven2.db;
+
+/** Settings of delimited (CSV/TSV) data files which are loaded into a table. */
+public class DelimitedFileSettings {
+  private String pattern; public String getPattern() { return pattern; } public void setPattern(String pattern) { this.pattern = pattern; }
+  private String table; public String getTable() { return table; } public void setTable(String table) { this.table = table; }
+  private String[] columns; public String[] getColumns() { return columns; } public void setColumns(String[] columns) { this.columns = columns; }
+  private boolean header = true; public boolean isHeader() { return header; } public void setHeader(boolean header) { this.header = header; }
+  private String separator; public String getSeparator() { return separator; } public void setSeparator(String separator) { this.separator = separator; }
+  private String quote = "\""; public String getQuote() { return quote; } public void setQuote(String quote) { this.quote = quote; }
+  private String nullValue = ""; public String getNullValue() { return nullValue; } public void setNullValue(String nullValue) { this.nullValue = nullValue; }
+  private String dateFormat; public String getDateFormat() { return dateFormat; } public void setDateFormat(String dateFormat) { this.dateFormat = dateFormat; }
+  private String timestampFormat; public String getTimestampFormat() { return timestampFormat; } public void setTimestampFormat(String timestampFormat) { this.timestampFormat = timestampFormat; }
+  private int batchSize = 1000; public int getBatchSize() { return batchSize; } public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+  private int commitInterval = 10000; public int getCommitInterval() { return commitInterval; } public void setCommitInterval(int commitInterval) { this.commitInterval = commitInterval; }
+  private boolean nativeLoad = true; public boolean isNativeLoad() { return nativeLoad; } public void setNativeLoad(boolean nativeLoad) { this.nativeLoad = nativeLoad; }
+}
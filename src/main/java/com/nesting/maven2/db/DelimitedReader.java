@@ -0,0 +1,148 @@
+package com.nesting.maven2.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Streaming reader of delimited (CSV/TSV) records. Quoted fields can contain separators,
+ * line breaks and doubled quotes. Empty lines are skipped. */
+public class DelimitedReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Reader reader;
+  private final char separator;
+  private final char quote;
+  private final String nullValue;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private final StringBuilder field = new StringBuilder();
+  private final List<String> record = new ArrayList<>();
+  private long line = 1;
+  private long recordLine;
+
+  /** @param reader the data
+   * @param separator the field separator
+   * @param quote the quote char, 0 when fields are never quoted
+   * @param nullValue unquoted field with this value is read as null, may be null */
+  public DelimitedReader(Reader reader, char separator, char quote, String nullValue) {
+    this.reader = reader;
+    this.separator = separator;
+    this.quote = quote;
+    this.nullValue = nullValue;
+  }
+
+  /** Reads the next record.
+   * @return the fields of the record or null at the end of data
+   * @throws IOException on error or when quoted field isn't closed */
+  public String[] readRecord() throws IOException {
+    record.clear();
+    field.setLength(0);
+    boolean quoted = false;
+    boolean inQuotes = false;
+    boolean empty = true;
+    recordLine = line;
+    int c;
+    while ((c = read()) >= 0) {
+      if (inQuotes) {
+        if (c == quote) {
+          int next = peek();
+          if (next == quote) {
+            read();
+            field.append(quote);
+          } else {
+            inQuotes = false;
+          }
+        } else {
+          if (c == '\n') { line++; }
+          field.append((char) c);
+        }
+      } else if (c == separator) {
+        addField(quoted);
+        quoted = false;
+        empty = false;
+      } else if (c == '\r' || c == '\n') {
+        if (c == '\r' && peek() == '\n') { read(); }
+        line++;
+        if (empty && field.length() == 0 && !quoted) {
+          // skip empty line
+          recordLine = line;
+          continue;
+        }
+        addField(quoted);
+        return record.toArray(new String[record.size()]);
+      } else if (c == quote && quote != 0 && field.length() == 0 && !quoted) {
+        inQuotes = true;
+        quoted = true;
+        empty = false;
+      } else {
+        field.append((char) c);
+        empty = false;
+      }
+    }
+    if (inQuotes) {
+      throw new IOException("Quoted field started on line " + recordLine + " isn't closed");
+    }
+    if (empty && field.length() == 0 && !quoted) { return null; }
+    addField(quoted);
+    return record.toArray(new String[record.size()]);
+  }
+
+  /** @return the line where the last read record starts */
+  public long getRecordLine() { return recordLine; }
+
+  private void addField(boolean quoted) {
+    String value = field.toString();
+    record.add(!quoted && nullValue != null && nullValue.equals(value) ? null : value);
+    field.setLength(0);
+  }
+
+  private int read() throws IOException {
+    if (pos >= limit && !fill()) { return -1; }
+    return buffer[pos++];
+  }
+
+  private int peek() throws IOException {
+    if (pos >= limit && !fill()) { return -1; }
+    return buffer[pos];
+  }
+
+  private boolean fill() throws IOException {
+    limit = reader.read(buffer, 0, buffer.length);
+    pos = 0;
+    if (limit < 0) {
+      limit = 0;
+      return false;
+    }
+    return true;
+  }
+
+  /** Returns the data after the read records, the buffered chars followed by the rest of
+   * the reader, so it can be passed on after the header.
+   * @return the reader of the unread data */
+  public Reader remaining() {
+    return new Reader() {
+      @Override
+      public int read(char[] cbuf, int off, int len) throws IOException {
+        if (pos >= limit) { return reader.read(cbuf, off, len); }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, cbuf, off, n);
+        pos += n;
+        return n;
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  /** {@inheritDoc} */
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,187 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Metrics of one goal execution, collected from all configs and files. The files are added
+ * when they are finished, possibly by concurrent workers. The report is written as JSON with
+ * all the metrics and as CSV files of the files and of the slowest statements.
+ * <p>The time of a file is split into the time spent in the driver, the time spent waiting for
+ * the statements (readParse) and the rest. The I/O time (reading and inflating the bytes) is
+ * a part of readParse, the parse time is readParse without the I/O time. In the pipelined
+ * mode the I/O is done by the reader thread, so readParse is only the time the execution
+ * waited for it.</p> */
+public class ExecutionMetrics {
+
+  private final int topSize;
+  private final long startTime = System.currentTimeMillis();
+  private final List<FileMetrics> files = new ArrayList<>();
+  private final PriorityQueue<StatementTiming> slowest = new PriorityQueue<>();
+
+  /** @param topSize the number of the slowest statements in the report */
+  public ExecutionMetrics(int topSize) {
+    this.topSize = topSize;
+  }
+
+  /** Starts the metrics of a file.
+   * @param config the name of the config
+   * @param file the file
+   * @param mode how the file is executed (batch, statement or load)
+   * @return the metrics of the file */
+  public FileMetrics startFile(String config, File file, String mode) {
+    return new FileMetrics(config, file, mode, topSize);
+  }
+
+  /** Finishes the metrics of the file and adds them to the execution.
+   * @param metrics the metrics of the file
+   * @param failed whether the execution of the file failed */
+  public void finish(FileMetrics metrics, boolean failed) {
+    metrics.finish(failed);
+    synchronized (this) {
+      files.add(metrics);
+      for (StatementTiming timing : metrics.getSlowest()) {
+        slowest.add(timing);
+        if (slowest.size() > topSize) { slowest.poll(); }
+      }
+    }
+  }
+
+  /** @return the metrics of the finished files */
+  public synchronized List<FileMetrics> getFiles() { return new ArrayList<>(files); }
+
+  /** @return the slowest statements, the slowest first */
+  public synchronized List<StatementTiming> getSlowest() {
+    List<StatementTiming> result = new ArrayList<>(slowest);
+    Collections.sort(result, Collections.reverseOrder());
+    return result;
+  }
+
+  /** Writes the report files goal.json, goal-files.csv and goal-statements.csv.
+   * @param directory the directory of the report
+   * @param goal the name of the goal
+   * @return the JSON report
+   * @throws IOException on error */
+  public File write(File directory, String goal) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create directory " + directory);
+    }
+    List<FileMetrics> fileList = getFiles();
+    List<StatementTiming> statements = getSlowest();
+    File json = new File(directory, goal + ".json");
+    PrintWriter out = open(json);
+    try {
+      writeJson(out, goal, fileList, statements);
+    } finally {
+      out.close();
+    }
+    out = open(new File(directory, goal + "-files.csv"));
+    try {
+      out.println("config,file,mode,failed,bytesRead,statements,batches,rows,totalMs,driverMs,readParseMs,ioMs,parseMs,otherMs");
+      for (FileMetrics f : fileList) {
+        out.println(csv(f.getConfig()) + "," + csv(f.getFile().getPath()) + "," + f.getMode() + "," + f.isFailed() + ","
+                    + f.getBytesRead() + "," + f.getStatements() + "," + f.getBatches() + "," + f.getRows() + ","
+                    + ms(f.getTotalNanos()) + "," + ms(f.getDriverNanos()) + "," + ms(f.getSourceNanos()) + ","
+                    + ms(f.getIoNanos()) + "," + ms(parseNanos(f)) + "," + ms(otherNanos(f)));
+      }
+    } finally {
+      out.close();
+    }
+    out = open(new File(directory, goal + "-statements.csv"));
+    try {
+      out.println("config,file,line,statements,ms,rows,sql");
+      for (StatementTiming t : statements) {
+        out.println(csv(t.getConfig()) + "," + csv(t.getFile()) + "," + t.getLine() + "," + t.getStatements() + ","
+                    + ms(t.getNanos()) + "," + t.getRows() + "," + csv(t.getSql()));
+      }
+    } finally {
+      out.close();
+    }
+    return json;
+  }
+
+  private void writeJson(PrintWriter out, String goal, List<FileMetrics> fileList, List<StatementTiming> statements) {
+    long statementCount = 0;
+    long rows = 0;
+    long driverNanos = 0;
+    for (FileMetrics f : fileList) {
+      statementCount += f.getStatements();
+      rows += f.getRows();
+      driverNanos += f.getDriverNanos();
+    }
+    out.println("{");
+    out.println("  \"goal\": " + json(goal) + ",");
+    out.println("  \"started\": " + json(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startTime))) + ",");
+    out.println("  \"durationMs\": " + (System.currentTimeMillis() - startTime) + ",");
+    out.println("  \"statements\": " + statementCount + ",");
+    out.println("  \"rows\": " + rows + ",");
+    out.println("  \"driverMs\": " + ms(driverNanos) + ",");
+    out.println("  \"files\": [");
+    for (int i = 0; i < fileList.size(); i++) {
+      FileMetrics f = fileList.get(i);
+      out.println("    {\"config\": " + json(f.getConfig()) + ", \"file\": " + json(f.getFile().getPath())
+                  + ", \"mode\": " + json(f.getMode()) + ", \"failed\": " + f.isFailed()
+                  + ", \"bytesRead\": " + f.getBytesRead() + ", \"statements\": " + f.getStatements()
+                  + ", \"batches\": " + f.getBatches() + ", \"rows\": " + f.getRows()
+                  + ", \"totalMs\": " + ms(f.getTotalNanos()) + ", \"driverMs\": " + ms(f.getDriverNanos())
+                  + ", \"readParseMs\": " + ms(f.getSourceNanos()) + ", \"ioMs\": " + ms(f.getIoNanos())
+                  + ", \"parseMs\": " + ms(parseNanos(f)) + ", \"otherMs\": " + ms(otherNanos(f)) + "}"
+                  + (i < fileList.size() - 1 ? "," : ""));
+    }
+    out.println("  ],");
+    out.println("  \"slowestStatements\": [");
+    for (int i = 0; i < statements.size(); i++) {
+      StatementTiming t = statements.get(i);
+      out.println("    {\"config\": " + json(t.getConfig()) + ", \"file\": " + json(t.getFile())
+                  + ", \"line\": " + t.getLine() + ", \"statements\": " + t.getStatements()
+                  + ", \"ms\": " + ms(t.getNanos()) + ", \"rows\": " + t.getRows() + ", \"sql\": " + json(t.getSql()) + "}"
+                  + (i < statements.size() - 1 ? "," : ""));
+    }
+    out.println("  ]");
+    out.println("}");
+  }
+
+  private static long parseNanos(FileMetrics f) {
+    return Math.max(f.getSourceNanos() - f.getIoNanos(), 0);
+  }
+
+  private static long otherNanos(FileMetrics f) {
+    return Math.max(f.getTotalNanos() - f.getDriverNanos() - f.getSourceNanos(), 0);
+  }
+
+  static PrintWriter open(File file) throws IOException {
+    return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  static String ms(long nanos) {
+    return String.valueOf(nanos / 1000 / 1000.0);
+  }
+
+  static String csv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) { return value; }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  static String json(String value) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,135 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Metrics of the execution of one script or data file. It's filled by the executing
+ * thread only and handed over to the {@link ExecutionMetrics} when the file is finished. */
+public class FileMetrics {
+
+  private final String config;
+  private final File file;
+  private final String mode;
+  private final int topSize;
+  private final PriorityQueue<StatementTiming> slowest = new PriorityQueue<>();
+  private final long startTime = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private ScriptReader reader;
+
+  private long totalNanos;
+  private long bytesRead;
+  private long ioNanos;
+  private long sourceNanos;
+  private long driverNanos;
+  private long statements;
+  private long batches;
+  private long rows;
+  private boolean failed;
+
+  /** @param config the name of the config
+   * @param file the file
+   * @param mode how the file is executed (batch, statement or load)
+   * @param topSize the number of the slowest statements which are kept */
+  public FileMetrics(String config, File file, String mode, int topSize) {
+    this.config = config;
+    this.file = file;
+    this.mode = mode;
+    this.topSize = topSize;
+  }
+
+  /** Sets the reader of the file, the bytes and the I/O time are taken from it.
+   * @param reader the reader */
+  public void setReader(Reader reader) {
+    if (reader instanceof ScriptReader) { this.reader = (ScriptReader) reader; }
+  }
+
+  /** Adds time spent waiting for the next statement (reading and splitting).
+   * @param nanos the time in nanoseconds */
+  public void source(long nanos) { sourceNanos += nanos; }
+
+  /** Records the executed statement.
+   * @param line the line of the statement
+   * @param sql the statement
+   * @param nanos the time spent in the driver
+   * @param affected the number of affected rows */
+  public void statement(int line, String sql, long nanos, long affected) {
+    statements++;
+    driverNanos += nanos;
+    rows += affected;
+    offer(line, 1, sql, nanos, affected);
+  }
+
+  /** Records the executed batch.
+   * @param line the line of the first statement
+   * @param count the number of statements
+   * @param sql the first statement
+   * @param nanos the time spent in the driver
+   * @param affected the number of affected rows */
+  public void batch(int line, int count, String sql, long nanos, long affected) {
+    if (count == 0) { return; }
+    statements += count;
+    batches++;
+    driverNanos += nanos;
+    rows += affected;
+    offer(line, count, sql, nanos, affected);
+  }
+
+  /** Records the rows loaded from a data file.
+   * @param loaded the number of rows */
+  public void loaded(long loaded) {
+    rows += loaded;
+  }
+
+  private void offer(int line, int count, String sql, long nanos, long affected) {
+    if (topSize <= 0) { return; }
+    if (slowest.size() < topSize) {
+      slowest.add(new StatementTiming(config, file.getName(), line, count, sql, nanos, affected));
+    } else if (slowest.peek().getNanos() < nanos) {
+      slowest.poll();
+      slowest.add(new StatementTiming(config, file.getName(), line, count, sql, nanos, affected));
+    }
+  }
+
+  /** Finishes the measurement.
+   * @param failure whether the execution failed */
+  public void finish(boolean failure) {
+    totalNanos = System.nanoTime() - startNanos;
+    failed = failure;
+    if (reader != null) {
+      bytesRead = reader.getBytesRead();
+      ioNanos = reader.getIoNanos();
+    }
+  }
+
+  /** @return the name of the config */
+  public String getConfig() { return config; }
+  /** @return the file */
+  public File getFile() { return file; }
+  /** @return how the file was executed (batch, statement or load) */
+  public String getMode() { return mode; }
+  /** @return the time when the execution started */
+  public long getStartTime() { return startTime; }
+  /** @return the duration of the whole execution in nanoseconds */
+  public long getTotalNanos() { return totalNanos; }
+  /** @return the bytes read from the file, uncompressed for gzipped file */
+  public long getBytesRead() { return bytesRead; }
+  /** @return the time spent in reading and decompressing the file */
+  public long getIoNanos() { return ioNanos; }
+  /** @return the time spent waiting for the statements, the reading included */
+  public long getSourceNanos() { return sourceNanos; }
+  /** @return the time spent in the driver */
+  public long getDriverNanos() { return driverNanos; }
+  /** @return the number of executed statements */
+  public long getStatements() { return statements; }
+  /** @return the number of executed batches */
+  public long getBatches() { return batches; }
+  /** @return the number of affected rows */
+  public long getRows() { return rows; }
+  /** @return true if the execution failed */
+  public boolean isFailed() { return failed; }
+  /** @return the slowest statements of the file */
+  public List<StatementTiming> getSlowest() { return new ArrayList<>(slowest); }
+}
@@ -0,0 +1,369 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Drops the secondary indexes and foreign keys of tables before a data load and creates
+ * them again afterwards, so the loaded rows don't maintain the indexes and check the keys
+ * one by one. The definitions are read from the {@link DatabaseMetaData} of the tables,
+ * PostgreSQL indexes from pg_indexes, so their method and options are kept.
+ * <p>Only the non-unique indexes on plain columns are deferred, the primary keys, unique
+ * indexes and the indexes with a filter condition or expression are left in place. The
+ * foreign keys are dropped first, the indexes which the database created for them are
+ * dropped with them and come back with the keys.</p>
+ * <p>The statements which restore the dropped definitions are kept in the restore file, so
+ * they can be executed by hand when the build is killed meanwhile. The file is deleted when
+ * all definitions are restored and keeps the failed statements otherwise.</p> */
+public class IndexDeferral {
+
+  private final DbContext ctx;
+  private final SqlDialect dialect;
+  private final File restoreFile;
+  private final String delimiter;
+  private final Map<String, List<Definition>> indexes = new LinkedHashMap<>();
+  private final Map<String, List<Definition>> foreignKeys = new LinkedHashMap<>();
+  private final Set<Definition> pending = new LinkedHashSet<>();
+  private String quote = "";
+
+  /** @param ctx the context of the executed config
+   * @param restoreFile the file of the statements which restore the deferred definitions
+   * @throws IOException when a restore file of an interrupted load exists */
+  public IndexDeferral(DbContext ctx, File restoreFile) throws IOException {
+    this.ctx = ctx;
+    this.dialect = SqlDialect.forConfig(ctx.getConfig());
+    this.restoreFile = restoreFile;
+    String d = ctx.getConfig().getSqlDelimiter();
+    this.delimiter = d == null || d.length() == 0 ? ";" : d;
+    if (restoreFile.exists()) {
+      throw new IOException("Indexes and foreign keys deferred by an interrupted load weren't restored, "
+                            + "execute " + restoreFile + " or delete it");
+    }
+  }
+
+  /** Drops the foreign keys and secondary indexes of the tables. When a drop fails, the
+   * dropped definitions are restored and the error is thrown.
+   * @param con the connection
+   * @param tables the tables, qualified by the schema or in the current schema
+   * @throws SQLException on error
+   * @throws IOException when the restore file can't be written */
+  public void defer(Connection con, List<String> tables) throws SQLException, IOException {
+    DatabaseMetaData md = con.getMetaData();
+    String q = md.getIdentifierQuoteString();
+    quote = q == null || q.trim().isEmpty() ? "" : q.trim();
+    String catalog = con.getCatalog();
+    String currentSchema = AbstractDBMojo.currentSchema(con);
+    for (String table : tables) {
+      int dot = table.lastIndexOf('.');
+      readForeignKeys(md, catalog, dot > 0 ? table.substring(0, dot) : currentSchema, table.substring(dot + 1));
+    }
+    try {
+      for (List<Definition> keys : foreignKeys.values()) {
+        for (Definition key : keys) { drop(con, key); }
+      }
+      // the indexes created for the keys are gone now
+      for (String table : tables) {
+        int dot = table.lastIndexOf('.');
+        readIndexes(con, md, catalog, dot > 0 ? table.substring(0, dot) : currentSchema, table.substring(dot + 1));
+      }
+      for (List<Definition> list : indexes.values()) {
+        for (Definition index : list) { drop(con, index); }
+      }
+    } catch (SQLException e) {
+      ctx.getLog().error("Deferring of indexes failed, restoring " + pending.size() + " dropped definition(s): " + e.getMessage());
+      List<Definition> dropped = new ArrayList<>(pending);
+      for (int i = dropped.size() - 1; i >= 0; i--) {
+        try {
+          execute(con, dropped.get(i).create);
+          pending.remove(dropped.get(i));
+        } catch (SQLException re) {
+          e.addSuppressed(re);
+        }
+      }
+      finish();
+      throw e;
+    }
+    ctx.getLog().info(" deferred " + count(indexes) + " index(es) and " + count(foreignKeys)
+                      + " foreign key(s) of " + tables.size() + " table(s), restore script " + restoreFile);
+  }
+
+  /** @return the statements which create the deferred indexes by the tables, the tables can
+   *   be restored concurrently */
+  public List<List<Definition>> getIndexes() { return new ArrayList<>(indexes.values()); }
+
+  /** @return the statements which add the deferred foreign keys by the tables */
+  public List<List<Definition>> getForeignKeys() { return new ArrayList<>(foreignKeys.values()); }
+
+  /** @return whether dropped definitions are still to be restored */
+  public synchronized boolean hasPending() {
+    return !pending.isEmpty();
+  }
+
+  /** Creates the deferred definitions of one table which are still dropped, the ones which
+   * weren't dropped or were restored already are skipped.
+   * @param con the connection
+   * @param definitions the definitions of the table
+   * @return the number of definitions which failed, they're logged and kept in the restore file */
+  public int restore(Connection con, List<Definition> definitions) {
+    int errors = 0;
+    for (Definition definition : definitions) {
+      synchronized (this) {
+        if (!pending.contains(definition)) { continue; }
+      }
+      long start = System.currentTimeMillis();
+      try {
+        execute(con, definition.create);
+        synchronized (this) { pending.remove(definition); }
+        ctx.getLog().info(" restored " + definition.name + " of " + definition.table + " in "
+                          + ((System.currentTimeMillis() - start) / 1000.0) + " second(s)");
+      } catch (SQLException e) {
+        ctx.getLog().error("Restoring of " + definition.name + " of " + definition.table + " failed: " + e.getMessage());
+        errors++;
+      }
+    }
+    return errors;
+  }
+
+  /** Finishes the restore: deletes the restore file when all definitions are restored or
+   * keeps the failed ones in it.
+   * @return the restore file with the failed definitions, null when all were restored
+   * @throws IOException when the restore file can't be written */
+  public synchronized File finish() throws IOException {
+    if (pending.isEmpty()) {
+      restoreFile.delete();
+      return null;
+    }
+    writeRestoreFile();
+    return restoreFile;
+  }
+
+  private void readForeignKeys(DatabaseMetaData md, String catalog, String schema, String table) throws SQLException {
+    Map<String, StringBuilder[]> keys = new LinkedHashMap<>();
+    Map<String, String> targets = new LinkedHashMap<>();
+    Map<String, String> rules = new LinkedHashMap<>();
+    ResultSet rs = md.getImportedKeys(catalog, schema, table);
+    try {
+      // the columns of a key are ordered by KEY_SEQ
+      Map<String, TreeMap<Integer, String[]>> columns = new LinkedHashMap<>();
+      while (rs.next()) {
+        String name = rs.getString("FK_NAME");
+        if (name == null) { continue; }
+        if (!targets.containsKey(name)) {
+          targets.put(name, qualified(rs.getString("PKTABLE_SCHEM"), rs.getString("PKTABLE_NAME")));
+          rules.put(name, rules(rs.getShort("UPDATE_RULE"), rs.getShort("DELETE_RULE"), rs.getShort("DEFERRABILITY")));
+          columns.put(name, new TreeMap<Integer, String[]>());
+        }
+        columns.get(name).put((int) rs.getShort("KEY_SEQ"),
+                              new String[] {rs.getString("FKCOLUMN_NAME"), rs.getString("PKCOLUMN_NAME")});
+      }
+      for (Map.Entry<String, TreeMap<Integer, String[]>> entry : columns.entrySet()) {
+        StringBuilder from = new StringBuilder();
+        StringBuilder to = new StringBuilder();
+        for (String[] pair : entry.getValue().values()) {
+          if (from.length() > 0) { from.append(", "); to.append(", "); }
+          from.append(quote(pair[0]));
+          to.append(quote(pair[1]));
+        }
+        keys.put(entry.getKey(), new StringBuilder[] {from, to});
+      }
+    } finally {
+      rs.close();
+    }
+    String qualifiedTable = qualified(schema, table);
+    List<Definition> list = new ArrayList<>();
+    for (Map.Entry<String, StringBuilder[]> entry : keys.entrySet()) {
+      String name = entry.getKey();
+      String create = "ALTER TABLE " + qualifiedTable + " ADD CONSTRAINT " + quote(name) + " FOREIGN KEY ("
+        + entry.getValue()[0] + ") REFERENCES " + targets.get(name) + " (" + entry.getValue()[1] + ")" + rules.get(name);
+      String drop = "ALTER TABLE " + qualifiedTable + (dialect == SqlDialect.MYSQL ? " DROP FOREIGN KEY " : " DROP CONSTRAINT ")
+        + quote(name);
+      list.add(new Definition(qualifiedTable, name, create, drop));
+    }
+    if (!list.isEmpty()) { foreignKeys.put(qualifiedTable, list); }
+  }
+
+  private String rules(short update, short delete, short deferrability) {
+    StringBuilder sb = new StringBuilder();
+    // RESTRICT and NO ACTION are the defaults which not every database can spell
+    if (dialect != SqlDialect.ORACLE) { sb.append(rule(" ON UPDATE ", update)); }
+    sb.append(rule(" ON DELETE ", delete));
+    if (dialect == SqlDialect.POSTGRESQL || dialect == SqlDialect.ORACLE) {
+      if (deferrability == DatabaseMetaData.importedKeyInitiallyDeferred) {
+        sb.append(" DEFERRABLE INITIALLY DEFERRED");
+      } else if (deferrability == DatabaseMetaData.importedKeyInitiallyImmediate) {
+        sb.append(" DEFERRABLE");
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String rule(String clause, short rule) {
+    switch (rule) {
+      case DatabaseMetaData.importedKeyCascade:
+        return clause + "CASCADE";
+      case DatabaseMetaData.importedKeySetNull:
+        return clause + "SET NULL";
+      case DatabaseMetaData.importedKeySetDefault:
+        return clause + "SET DEFAULT";
+      default:
+        return "";
+    }
+  }
+
+  private void readIndexes(Connection con, DatabaseMetaData md, String catalog, String schema, String table)
+    throws SQLException {
+    Set<String> tableColumns = new HashSet<>();
+    ResultSet rs = md.getColumns(catalog, schema, table, "%");
+    try {
+      while (rs.next()) { tableColumns.add(rs.getString("COLUMN_NAME")); }
+    } finally {
+      rs.close();
+    }
+    Map<String, TreeMap<Integer, String>> columns = new LinkedHashMap<>();
+    Set<String> skipped = new HashSet<>();
+    rs = md.getIndexInfo(catalog, schema, table, false, false);
+    try {
+      while (rs.next()) {
+        String name = rs.getString("INDEX_NAME");
+        if (name == null || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) { continue; }
+        String column = rs.getString("COLUMN_NAME");
+        String filter = rs.getString("FILTER_CONDITION");
+        if (!rs.getBoolean("NON_UNIQUE") || (filter != null && !filter.trim().isEmpty())
+            || rs.getShort("TYPE") == DatabaseMetaData.tableIndexHashed || !tableColumns.contains(column)) {
+          skipped.add(name);
+          continue;
+        }
+        if (!columns.containsKey(name)) { columns.put(name, new TreeMap<Integer, String>()); }
+        columns.get(name).put((int) rs.getShort("ORDINAL_POSITION"),
+                              quote(column) + ("D".equals(rs.getString("ASC_OR_DESC")) ? " DESC" : ""));
+      }
+    } finally {
+      rs.close();
+    }
+    String qualifiedTable = qualified(schema, table);
+    List<Definition> list = new ArrayList<>();
+    for (Map.Entry<String, TreeMap<Integer, String>> entry : columns.entrySet()) {
+      String name = entry.getKey();
+      if (skipped.contains(name)) { continue; }
+      StringBuilder sb = new StringBuilder();
+      for (String column : entry.getValue().values()) {
+        if (sb.length() > 0) { sb.append(", "); }
+        sb.append(column);
+      }
+      String create = dialect == SqlDialect.POSTGRESQL ? postgresqlIndex(con, schema, name) : null;
+      if (create == null) { create = "CREATE INDEX " + quote(name) + " ON " + qualifiedTable + " (" + sb + ")"; }
+      String drop = dialect == SqlDialect.MYSQL || dialect == SqlDialect.MSSQL
+        ? "DROP INDEX " + quote(name) + " ON " + qualifiedTable : "DROP INDEX " + qualified(schema, name);
+      list.add(new Definition(qualifiedTable, name, create, drop));
+    }
+    if (!list.isEmpty()) { indexes.put(qualifiedTable, list); }
+  }
+
+  /** @return the exact definition of the PostgreSQL index, null if it isn't found */
+  private static String postgresqlIndex(Connection con, String schema, String name) throws SQLException {
+    PreparedStatement ps = con.prepareStatement("SELECT indexdef FROM pg_indexes WHERE indexname = ?"
+                                                + (schema == null ? "" : " AND schemaname = ?"));
+    try {
+      ps.setString(1, name);
+      if (schema != null) { ps.setString(2, schema); }
+      ResultSet rs = ps.executeQuery();
+      return rs.next() ? rs.getString(1) : null;
+    } finally {
+      ps.close();
+    }
+  }
+
+  private void drop(Connection con, Definition definition) throws SQLException, IOException {
+    execute(con, definition.drop);
+    pending.add(definition);
+    writeRestoreFile();
+  }
+
+  private void execute(Connection con, String sql) throws SQLException {
+    if (ctx.getLog().isDebugEnabled()) { ctx.getLog().debug("    " + sql); }
+    Statement st = con.createStatement();
+    try {
+      st.execute(sql);
+      if (!con.getAutoCommit()) { con.commit(); }
+    } finally {
+      st.close();
+    }
+  }
+
+  private String quote(String identifier) {
+    return quote + identifier + quote;
+  }
+
+  private String qualified(String schema, String name) {
+    return schema == null ? quote(name) : quote(schema) + "." + quote(name);
+  }
+
+  private static int count(Map<String, List<Definition>> definitions) {
+    int count = 0;
+    for (List<Definition> list : definitions.values()) { count += list.size(); }
+    return count;
+  }
+
+  /** Writes the statements which restore the dropped definitions, the indexes before the
+   * foreign keys. */
+  private synchronized void writeRestoreFile() throws IOException {
+    File directory = restoreFile.getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create directory " + directory);
+    }
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(restoreFile), "UTF-8"));
+    try {
+      out.println("-- indexes and foreign keys deferred by the data goal of " + ctx.getName());
+      List<Definition> all = new ArrayList<>();
+      for (List<Definition> list : indexes.values()) { all.addAll(list); }
+      for (List<Definition> list : foreignKeys.values()) { all.addAll(list); }
+      for (Definition definition : all) {
+        if (pending.contains(definition)) {
+          out.println(definition.create);
+          out.println(delimiter);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (out.checkError()) { throw new IOException("Can't write " + restoreFile); }
+  }
+
+  /** Deferred index or foreign key with the statements which drop and create it. */
+  public static class Definition {
+    private final String table;
+    private final String name;
+    private final String create;
+    private final String drop;
+
+    Definition(String table, String name, String create, String drop) {
+      this.table = table;
+      this.name = name;
+      this.create = create;
+      this.drop = drop;
+    }
+
+    /** @return the table of the definition */
+    public String getTable() { return table; }
+    /** @return the name of the index or foreign key */
+    public String getName() { return name; }
+    /** @return the statement which creates it */
+    public String getCreate() { return create; }
+  }
+}
@@ -0,0 +1,210 @@
+package com.nesting.maven2.db;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/** Source which combines the runs of single row INSERT statements into one with a
+ * multi-row VALUES list, so the database parses and executes one statement for many rows.
+ * A run holds the consecutive statements with the same text up to VALUES, so the same
+ * table and column list, and ends at the row or size limit, at the transaction delimiter and
+ * at any other statement.
+ * <p>Only the statements which are provably the same row by row are combined: a single
+ * VALUES tuple of literals (strings, numbers, NULL, TRUE, FALSE, DEFAULT, hex and typed
+ * literals like DATE '...') and nothing after it. Expressions, subqueries, comments and
+ * clauses like ON CONFLICT could see or change the other rows of the statement, such a
+ * statement is passed on unchanged.</p>
+ * <p>The combined statement ends where its last statement ends, so a checkpoint after it
+ * resumes behind the whole run.</p> */
+public class InsertCoalescer implements StatementSource {
+
+  private static final Pattern NUMBER = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][+-]?\\d+)?");
+  private static final Pattern HEX = Pattern.compile("0[xX][0-9A-Fa-f]*");
+  private static final Pattern KEYWORD = Pattern.compile("(?i)NULL|TRUE|FALSE|DEFAULT");
+  /** SQL Server takes at most 1000 rows in a VALUES list. */
+  private static final int MSSQL_MAX_ROWS = 1000;
+
+  private final StatementSource source;
+  private final SqlDialect dialect;
+  private final int maxRows;
+  private final int maxBytes;
+  private SqlStatement pending;
+  private long combined;
+  private long statements;
+
+  /** @param source the source of the statements
+   * @param dialect the dialect of the statements, it must take multi-row VALUES
+   * @param maxRows the maximal number of rows of a combined statement
+   * @param maxBytes the maximal length of a combined statement */
+  public InsertCoalescer(StatementSource source, SqlDialect dialect, int maxRows, int maxBytes) {
+    this.source = source;
+    this.dialect = dialect;
+    this.maxRows = dialect == SqlDialect.MSSQL ? Math.min(maxRows, MSSQL_MAX_ROWS) : maxRows;
+    this.maxBytes = maxBytes;
+  }
+
+  /** {@inheritDoc} */
+  public SqlStatement nextStatement() throws IOException {
+    SqlStatement first = pending != null ? pending : source.nextStatement();
+    pending = null;
+    if (first == null || first.isEmpty() || first.isTransactionEnd() || maxRows < 2) { return first; }
+    int values = valuesEnd(first.getSql());
+    if (values < 0) { return first; }
+    String prefix = first.getSql().substring(0, values);
+    StringBuilder sql = null;
+    SqlStatement last = first;
+    int rows = 1;
+    while (rows < maxRows && !last.isTransactionEnd()) {
+      SqlStatement next = source.nextStatement();
+      if (next == null) { break; }
+      String tuple = next.isEmpty() ? null : tuple(next.getSql(), prefix);
+      int length = sql == null ? first.getSql().length() : sql.length();
+      if (tuple == null || length + 2 + tuple.length() > maxBytes) {
+        pending = next;
+        break;
+      }
+      if (sql == null) { sql = new StringBuilder(first.getSql()); }
+      sql.append(", ").append(tuple);
+      last = next;
+      rows++;
+    }
+    if (sql == null) { return first; }
+    combined += rows;
+    statements++;
+    SqlStatement statement = new SqlStatement(sql.toString(), first.getLine(), last.isTransactionEnd());
+    statement.setEnd(last.getIndex(), last.getEndOffset(), last.getNextLine(), last.isEndAfterCR());
+    statement.setSource(first.getSourceStart(), last.getSourceEnd());
+    return statement;
+  }
+
+  /** @return the number of INSERT statements which were combined */
+  public long getCombined() { return combined; }
+
+  /** @return the number of combined statements they were combined into */
+  public long getStatements() { return statements; }
+
+  /** {@inheritDoc} */
+  public void close() throws IOException {
+    source.close();
+  }
+
+  /** @return the tuple of the statement when it has the prefix and can be combined, null otherwise */
+  private String tuple(String sql, String prefix) {
+    if (!sql.startsWith(prefix) || valuesEnd(sql) != prefix.length()) { return null; }
+    return sql.substring(prefix.length()).trim();
+  }
+
+  /** @return the index after the VALUES keyword of a single row INSERT of literals, -1 when
+   *   the statement can't be combined */
+  private int valuesEnd(String sql) {
+    if (!sql.regionMatches(true, 0, "INSERT", 0, 6) || !boundary(sql, 6)) { return -1; }
+    int pos = 6;
+    int values = -1;
+    while (pos < sql.length()) {
+      char c = sql.charAt(pos);
+      if (!plain(sql, pos)) { return -1; }
+      if (isQuote(c)) {
+        pos = skipQuoted(sql, pos, false);
+        if (pos < 0) { return -1; }
+      } else if ((c == 'V' || c == 'v') && boundary(sql, pos - 1) && sql.regionMatches(true, pos, "VALUES", 0, 6)
+                 && boundary(sql, pos + 6)) {
+        values = pos + 6;
+        break;
+      } else {
+        pos++;
+      }
+    }
+    if (values < 0) { return -1; }
+    pos = skipWhitespace(sql, values);
+    if (pos >= sql.length() || sql.charAt(pos) != '(') { return -1; }
+    pos++;
+    while (true) {
+      int start = skipWhitespace(sql, pos);
+      pos = start;
+      while (pos < sql.length() && sql.charAt(pos) != ',' && sql.charAt(pos) != ')') {
+        char c = sql.charAt(pos);
+        if (!plain(sql, pos) || c == '(') { return -1; }
+        if (c == '\'') {
+          pos = skipQuoted(sql, pos, dialect.isEscapeStrings() && pos > start
+                           && Character.toUpperCase(sql.charAt(pos - 1)) == 'E');
+          if (pos < 0) { return -1; }
+        } else if (isQuote(c)) {
+          return -1;
+        } else {
+          pos++;
+        }
+      }
+      if (pos >= sql.length() || !isLiteral(sql.substring(start, pos).trim())) { return -1; }
+      if (sql.charAt(pos++) == ')') { break; }
+    }
+    return skipWhitespace(sql, pos) == sql.length() ? values : -1;
+  }
+
+  /** @return true if the element is a literal which doesn't depend on other rows */
+  private boolean isLiteral(String element) {
+    if (KEYWORD.matcher(element).matches() || NUMBER.matcher(element).matches() || HEX.matcher(element).matches()) {
+      return true;
+    }
+    int quote = element.indexOf('\'');
+    if (quote < 0 || element.charAt(element.length() - 1) != '\'') { return false; }
+    // an optional type or prefix like DATE, TIMESTAMP, X, N or E before the string
+    for (int i = 0; i < quote; i++) {
+      char c = element.charAt(i);
+      if (!Character.isLetter(c) && !(Character.isWhitespace(c) && i > 0)) { return false; }
+    }
+    boolean escapes = quote > 0 && dialect.isEscapeStrings()
+      && Character.toUpperCase(element.charAt(quote - 1)) == 'E';
+    return skipQuoted(element, quote, escapes) == element.length();
+  }
+
+  /** @return false at the chars which make the statement unsafe outside literals */
+  private boolean plain(String sql, int pos) {
+    char c = sql.charAt(pos);
+    if (c == ';') { return false; }
+    if (c == '$' && dialect.isDollarQuotes()) { return false; }
+    if (c == '#' && dialect.isHashComments()) { return false; }
+    if ((c == '-' || c == '/') && pos + 1 < sql.length()) {
+      char next = sql.charAt(pos + 1);
+      if ((c == '-' && next == '-') || (c == '/' && next == '*')) { return false; }
+    }
+    return true;
+  }
+
+  private boolean isQuote(char c) {
+    return c == '\'' || c == '"' || (c == '`' && dialect.isBacktickIdentifiers())
+      || (c == '[' && dialect.isBracketIdentifiers());
+  }
+
+  /** @return the index after the quoted string or identifier at the position, -1 if it
+   *   isn't closed */
+  private int skipQuoted(String sql, int pos, boolean escapeString) {
+    char open = sql.charAt(pos);
+    char close = open == '[' ? ']' : open;
+    boolean escapes = escapeString || (open == '\'' || open == '"') && dialect.isBackslashEscapes();
+    pos++;
+    while (pos < sql.length()) {
+      char c = sql.charAt(pos++);
+      if (escapes && c == '\\') {
+        pos++;
+      } else if (c == close) {
+        if (pos < sql.length() && sql.charAt(pos) == close && close != ']') {
+          pos++;
+        } else {
+          return pos;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(String sql, int pos) {
+    while (pos < sql.length() && Character.isWhitespace(sql.charAt(pos))) { pos++; }
+    return pos;
+  }
+
+  /** @return true if there is no identifier char at the index */
+  private static boolean boundary(String sql, int index) {
+    if (index < 0 || index >= sql.length()) { return true; }
+    char c = sql.charAt(index);
+    return !(Character.isLetterOrDigit(c) || c == '_' || c == '$');
+  }
+}
@@ -0,0 +1,112 @@
+package com.nesting.maven2.db;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Statement source which reads and splits the script on its own thread, so the reading,
+ * decompression and splitting overlap with the database round trips of the consumer.
+ * <p>The statements are handed over by a bounded queue in the order of the script. When the
+ * queue is full the reader thread waits, so at most {@code queueSize} statements wait in the
+ * queue. An error of the reader is queued after the statements read before it and thrown by
+ * {@link #nextStatement()} when the consumer reaches it, so the consumer sees the same
+ * sequence of statements and errors as from the source itself.</p> */
+public class PipelinedStatementSource implements StatementSource {
+
+  /** Marks the end of the script in the queue. */
+  private static final Object END = new Object();
+  /** Maximal number of statements taken from the queue at once. */
+  private static final int DRAIN_SIZE = 256;
+
+  private final StatementSource source;
+  private final BlockingQueue<Object> queue;
+  private final Deque<Object> taken = new ArrayDeque<>();
+  private final Thread reader;
+  private volatile boolean closed;
+  private boolean finished;
+
+  /** Starts the reader thread.
+   * @param source the source of the statements, it's read and closed by the reader thread
+   * @param queueSize the maximal number of statements read ahead
+   * @param name the name of the script used to name the thread */
+  public PipelinedStatementSource(StatementSource source, int queueSize, String name) {
+    this.source = source;
+    this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+    this.reader = new Thread(new Runnable() {
+        public void run() {
+          read();
+        } }, "db-maven-plugin-reader-" + name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /** Reads the statements into the queue until the end, an error or close. */
+  private void read() {
+    try {
+      SqlStatement statement;
+      while ((statement = source.nextStatement()) != null) {
+        if (!offer(statement)) { return; }
+      }
+      offer(END);
+    } catch (IOException | RuntimeException | Error e) {
+      offer(e);
+    } finally {
+      try {
+        source.close();
+      } catch (IOException e) {
+        // the statements are read already, nothing to report
+      }
+    }
+  }
+
+  /** Puts the item into the queue, waits while it's full.
+   * @return false if the source was closed meanwhile */
+  private boolean offer(Object item) {
+    try {
+      while (!closed) {
+        if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) { return true; }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  public SqlStatement nextStatement() throws IOException {
+    if (finished) { return null; }
+    if (taken.isEmpty()) {
+      try {
+        taken.add(queue.take());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading the script", e);
+      }
+      queue.drainTo(taken, DRAIN_SIZE);
+    }
+    Object item = taken.poll();
+    if (item instanceof SqlStatement) { return (SqlStatement) item; }
+    finished = true;
+    if (item instanceof IOException) { throw (IOException) item; }
+    if (item instanceof RuntimeException) { throw (RuntimeException) item; }
+    if (item instanceof Error) { throw (Error) item; }
+    return null;
+  }
+
+  /** Stops the reader thread and waits until it closes the source.
+   * @throws IOException on error */
+  public void close() throws IOException {
+    closed = true;
+    queue.clear();
+    taken.clear();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing the script", e);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.nesting.maven2.db;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/** Zip archive of scripts which are executed in the order of their entries. The archive is
+ * read as a stream, so the scripts aren't extracted and the archive is read only once.
+ * Every script is represented by an {@link Entry}, a file which can't be opened by itself
+ * but is read from the archive by {@link Entry#open()} while it's the current entry. */
+public class ScriptArchive implements Closeable {
+
+  private final File archive;
+  private final ZipInputStream in;
+  private Entry current;
+
+  /** Opens the archive.
+   * @param archive the zip file
+   * @param bufferSize the size of the input buffer
+   * @throws IOException on error */
+  public ScriptArchive(File archive, int bufferSize) throws IOException {
+    this.archive = archive;
+    this.in = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive), Math.max(bufferSize, 512)));
+  }
+
+  /** Moves to the next script, the directories are skipped.
+   * @return the script or null at the end of the archive
+   * @throws IOException on error */
+  public Entry next() throws IOException {
+    ZipEntry entry;
+    do {
+      entry = in.getNextEntry();
+    } while (entry != null && entry.isDirectory());
+    current = entry == null ? null : new Entry(this, entry.getName());
+    return current;
+  }
+
+  private InputStream open(Entry entry) throws IOException {
+    if (entry != current) { throw new IOException(entry + " isn't the current entry of " + archive); }
+    return new FilterInputStream(in) {
+      public void close() {
+        // the next entry is read from the same stream
+      } };
+  }
+
+  /** {@inheritDoc} */
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /** Script in the archive. Its path is the path of the archive followed by ! and the name of
+   * the entry, it exists while the archive exists and its size and modification time are
+   * the ones of the archive, so a checkpoint of the script is invalidated by a changed archive. */
+  public static class Entry extends File {
+
+    private static final long serialVersionUID = 1L;
+    private final transient ScriptArchive owner;
+    private final File archive;
+
+    Entry(ScriptArchive owner, String name) {
+      super(owner.archive.getPath() + "!" + File.separator + name);
+      this.owner = owner;
+      this.archive = owner.archive;
+    }
+
+    /** @return the archive of the script */
+    public File getArchive() { return archive; }
+
+    /** Opens the stream of the script, closing of the stream doesn't close the archive.
+     * @return the stream
+     * @throws IOException when the script isn't the current entry of the archive */
+    public InputStream open() throws IOException { return owner.open(this); }
+
+    /** {@inheritDoc} */
+    public boolean exists() { return archive.exists(); }
+    /** {@inheritDoc} */
+    public boolean isFile() { return archive.isFile(); }
+    /** {@inheritDoc} */
+    public boolean isDirectory() { return false; }
+    /** {@inheritDoc} */
+    public boolean canRead() { return archive.canRead(); }
+    /** {@inheritDoc} */
+    public long length() { return archive.length(); }
+    /** {@inheritDoc} */
+    public long lastModified() { return archive.lastModified(); }
+  }
+}
@@ -0,0 +1,146 @@
+package com.nesting.maven2.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Checkpoint of a script execution, the position after the last committed statement.
+ * <p>The checkpoint is a single fixed length record in the checkpoint directory of the
+ * config, which is overwritten in place after every commit, so saving it costs one small
+ * write. It has the index of the statement, the byte offset and the line after it and
+ * the size and modification time of the script, the resumed script must not be changed.
+ * When the script is completed the checkpoint is marked so, and the resumed execution
+ * skips the script.</p> */
+public class ScriptCheckpoint implements Closeable {
+
+  private static final String SUFFIX = ".checkpoint";
+  private static final int RECORD_SIZE = 128;
+
+  private final File file;
+  private final File script;
+  private final long size;
+  private final long lastModified;
+  private long index;
+  private long offset = -1;
+  private int line = 1;
+  private boolean afterCR;
+  private boolean complete;
+  private RandomAccessFile out;
+
+  private ScriptCheckpoint(File file, File script) {
+    this.file = file;
+    this.script = script;
+    this.size = script.length();
+    this.lastModified = script.lastModified();
+  }
+
+  /** Opens the checkpoint of the script.
+   * @param directory the checkpoint directory of the config
+   * @param script the script
+   * @param resume whether the saved checkpoint is used, otherwise the script starts from its beginning
+   * @return the checkpoint
+   * @throws IOException on error
+   * @throws MojoFailureException when the script was changed since the checkpoint was saved */
+  public static ScriptCheckpoint open(File directory, File script, boolean resume)
+    throws IOException, MojoFailureException {
+    File file = new File(directory, script.getName() + "-"
+                         + Integer.toHexString(script.getAbsolutePath().hashCode()) + SUFFIX);
+    ScriptCheckpoint checkpoint = new ScriptCheckpoint(file, script);
+    if (resume && file.isFile()) { checkpoint.load(); }
+    return checkpoint;
+  }
+
+  /** Deletes the checkpoints in the directory and the directory.
+   * @param directory the checkpoint directory of the config
+   * @throws IOException on error */
+  public static void clear(File directory) throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) { return; }
+    for (File f : files) {
+      if (f.getName().endsWith(SUFFIX) && !f.delete()) {
+        throw new IOException("Can't delete checkpoint " + f);
+      }
+    }
+    directory.delete();
+  }
+
+  private void load() throws IOException, MojoFailureException {
+    String[] fields;
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      String record = in.readLine();
+      fields = record == null ? new String[0] : record.trim().split(" ");
+    }
+    if (fields.length != 7) { throw new IOException("Invalid checkpoint " + file); }
+    if (Long.parseLong(fields[5]) != size || Long.parseLong(fields[6]) != lastModified) {
+      throw new MojoFailureException("Script " + script.getName() + " was changed since its checkpoint " + file
+                                     + " was saved, execute it without resume");
+    }
+    index = Long.parseLong(fields[0]);
+    offset = Long.parseLong(fields[1]);
+    line = Integer.parseInt(fields[2]);
+    afterCR = Boolean.parseBoolean(fields[3]);
+    complete = Boolean.parseBoolean(fields[4]);
+  }
+
+  /** @return the index of the last committed statement, 0 at the start of the script */
+  public long getIndex() { return index; }
+  /** @return the byte offset after the last committed statement, -1 if it isn't known */
+  public long getOffset() { return offset; }
+  /** @return the line after the last committed statement */
+  public int getLine() { return line; }
+  /** @return whether the last committed statement ended by CR */
+  public boolean isEndAfterCR() { return afterCR; }
+  /** @return whether the whole script is committed */
+  public boolean isComplete() { return complete; }
+  /** @return the checkpoint file */
+  public File getFile() { return file; }
+
+  /** Saves the position after the statement, all statements up to it have to be committed.
+   * @param statement the last committed statement
+   * @throws IOException on error */
+  public void save(SqlStatement statement) throws IOException {
+    index = statement.getIndex();
+    offset = statement.getEndOffset();
+    line = statement.getNextLine();
+    afterCR = statement.isEndAfterCR();
+    write();
+  }
+
+  /** Marks the script as completed.
+   * @throws IOException on error */
+  public void complete() throws IOException {
+    complete = true;
+    write();
+  }
+
+  private void write() throws IOException {
+    if (out == null) {
+      File directory = file.getParentFile();
+      if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+        throw new IOException("Can't create directory " + directory);
+      }
+      out = new RandomAccessFile(file, "rw");
+    }
+    byte[] record = new byte[RECORD_SIZE];
+    Arrays.fill(record, (byte) ' ');
+    byte[] fields = (index + " " + offset + " " + line + " " + afterCR + " " + complete + " " + size + " " + lastModified)
+      .getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(fields, 0, record, 0, fields.length);
+    record[RECORD_SIZE - 1] = '\n';
+    out.seek(0);
+    out.write(record);
+  }
+
+  /** {@inheritDoc} */
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Fingerprint of everything which decides the content of the database built from a config:
+ * the create script, all files of the schema, data and update directories (their
+ * subdirectories too) and the settings of the config which change how the files are
+ * executed. Two builds with the same fingerprint produce the same database, so the result of
+ * one can stand for the other. The fingerprint is a SHA-256 hex string of the paths relative
+ * to the configured directories and the {@link ScriptLedger#checksum checksums} of the files.
+ * The files are hashed concurrently by the given number of threads. */
+public class ScriptFingerprint {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final MessageDigest digest;
+  /** The names and the files, or the values of the settings, in the order of the digest. */
+  private final List<Object[]> entries = new ArrayList<>();
+
+  private ScriptFingerprint() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Computes the fingerprint of all inputs of the config.
+   * @param config the config
+   * @return the hex fingerprint
+   * @throws IOException when a file can't be read */
+  public static String of(DbConfig config) throws IOException {
+    return of(config, true, 1);
+  }
+
+  /** Computes the fingerprint of the inputs of the config.
+   * @param config the config
+   * @param updates whether the update directories are covered
+   * @param parallelism the number of threads which hash the files
+   * @return the hex fingerprint
+   * @throws IOException when a file can't be read */
+  public static String of(DbConfig config, boolean updates, int parallelism) throws IOException {
+    ScriptFingerprint fingerprint = new ScriptFingerprint();
+    fingerprint.add("dialect", SqlDialect.forConfig(config).name());
+    fingerprint.add("sqlDelimiter", config.getSqlDelimiter());
+    fingerprint.add("transactionDelimiter", config.getTransactionDelimiter());
+    fingerprint.add("scriptEncoding", config.getScriptEncoding());
+    if (config.getDelimitedFile() != null) {
+      for (DelimitedFileSettings s : config.getDelimitedFile()) {
+        fingerprint.add("delimitedFile", s.getPattern() + "|" + s.getTable() + "|"
+                        + (s.getColumns() == null ? null : Arrays.asList(s.getColumns())) + "|" + s.isHeader() + "|"
+                        + s.getSeparator() + "|" + s.getQuote() + "|" + s.getNullValue() + "|" + s.getDateFormat() + "|"
+                        + s.getTimestampFormat());
+      }
+    }
+    fingerprint.addFile("create", config.getDbCreateFile());
+    fingerprint.addDirectories("schema", config.getSchemaDirectory());
+    fingerprint.addDirectories("data", config.getDataDirectory());
+    if (updates) { fingerprint.addDirectories("update", config.getUpdateDirectory()); }
+    return fingerprint.compute(parallelism);
+  }
+
+  private void add(String name, String value) {
+    entries.add(new Object[] { name, value });
+  }
+
+  private void addFile(String name, File file) {
+    if (file == null) { return; }
+    if (file.isFile()) {
+      entries.add(new Object[] { name, file });
+    } else {
+      add(name, "missing");
+    }
+  }
+
+  private void addDirectories(String role, File[] directories) {
+    if (directories == null) { return; }
+    for (int i = 0; i < directories.length; i++) {
+      if (directories[i] != null) { addDirectory(role + "[" + i + "]", directories[i]); }
+    }
+  }
+
+  private void addDirectory(String path, File directory) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      add(path, "missing");
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      if (child.getName().endsWith("~")) { continue; }
+      if (child.isDirectory()) {
+        addDirectory(path + "/" + child.getName(), child);
+      } else {
+        addFile(path + "/" + child.getName(), child);
+      }
+    }
+  }
+
+  /** Hashes the files, concurrently when there are several threads, and digests the entries
+   * in their order. */
+  private String compute(int parallelism) throws IOException {
+    List<Future<String>> checksums = new ArrayList<>();
+    ExecutorService executor = null;
+    try {
+      for (Object[] entry : entries) {
+        if (!(entry[1] instanceof File)) { continue; }
+        final File file = (File) entry[1];
+        if (parallelism <= 1) {
+          entry[1] = ScriptLedger.checksum(file);
+          continue;
+        }
+        if (executor == null) { executor = Executors.newFixedThreadPool(parallelism); }
+        checksums.add(executor.submit(new Callable<String>() {
+            public String call() throws IOException {
+              return ScriptLedger.checksum(file);
+            } }));
+      }
+      int next = 0;
+      for (Object[] entry : entries) {
+        if (entry[1] instanceof File) { entry[1] = checksums.get(next++).get(); }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while hashing files", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+      throw new IOException("Hashing of file failed", e.getCause());
+    } finally {
+      if (executor != null) { executor.shutdownNow(); }
+    }
+    for (Object[] entry : entries) {
+      digest.update((entry[0] + "=" + entry[1] + "\n").getBytes(UTF8));
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
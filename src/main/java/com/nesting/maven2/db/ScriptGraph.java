@@ -0,0 +1,211 @@
+package com.nesting.maven2.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Dependency graph of the scripts of a directory.
+ * <p>A script declares the scripts it depends on by header comments before its first
+ * statement, for example {@code -- depends: 010_users.sql, 020_roles.sql}, or by its entry
+ * in the manifest of the directory, a properties file which maps the script name to the
+ * names of its dependencies. A script with a declaration (even an empty one) depends only
+ * on the declared scripts, a script without declaration depends on the script before it in
+ * name order, so the directory without any declaration keeps its name order. The already
+ * applied scripts count as executed.</p>
+ * <p>The graph is checked for unknown scripts and cycles by {@link #resolve()}, then
+ * {@link #start()} and {@link #completed(File)} return the scripts which became ready,
+ * in name order.</p> */
+public class ScriptGraph {
+
+  private static final Pattern DEPENDS = Pattern.compile("--\\s*depends\\s*:(.*)", Pattern.CASE_INSENSITIVE);
+
+  /** The pending scripts in name order. */
+  private final List<File> scripts;
+  /** Names of all scripts of the directory, the applied ones too. */
+  private final Set<String> names;
+  /** Declared dependencies by script names. */
+  private final Map<String, Set<String>> declared = new HashMap<>();
+  /** Dependencies of the pending scripts. */
+  private final Map<File, List<File>> dependencies = new LinkedHashMap<>();
+  /** Scripts which depend on the script. */
+  private final Map<File, List<File>> dependents = new HashMap<>();
+  /** Number of not executed dependencies of the script. */
+  private final Map<File, Integer> waiting = new HashMap<>();
+
+  /** @param scripts the pending scripts in name order
+   * @param names the names of all scripts of the directory including the applied ones */
+  public ScriptGraph(List<File> scripts, Set<String> names) {
+    this.scripts = new ArrayList<>(scripts);
+    this.names = names;
+  }
+
+  /** Reads the dependencies from the manifest.
+   * @param manifest the manifest file
+   * @throws IOException on error */
+  public void readManifest(File manifest) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(manifest);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    for (String name : properties.stringPropertyNames()) {
+      declare(name, properties.getProperty(name));
+    }
+  }
+
+  /** Reads the dependencies from the header comments of the script, the header ends with
+   * the first line which isn't blank or a line comment.
+   * @param file the script
+   * @param reader the reader of the script, it's closed
+   * @throws IOException on error */
+  public void readHeader(File file, Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader, 4096);
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0) { continue; }
+        if (!line.startsWith("--")) { break; }
+        Matcher m = DEPENDS.matcher(line);
+        if (m.matches()) { declare(file.getName(), m.group(1)); }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private void declare(String name, String list) {
+    Set<String> set = declared.get(name);
+    if (set == null) {
+      set = new LinkedHashSet<>();
+      declared.put(name, set);
+    }
+    for (String dependency : list.split("[,\\s]+")) {
+      if (dependency.length() > 0) { set.add(dependency); }
+    }
+  }
+
+  /** @return true if any script declares its dependencies */
+  public boolean isDeclared() { return !declared.isEmpty(); }
+
+  /** @return the number of pending scripts */
+  public int size() { return scripts.size(); }
+
+  /** Builds the graph of the pending scripts and checks it.
+   * @throws MojoFailureException when a script or a dependency is unknown or the dependencies form a cycle */
+  public void resolve() throws MojoFailureException {
+    Map<String, File> byName = new HashMap<>();
+    for (File script : scripts) { byName.put(script.getName(), script); }
+    for (Map.Entry<String, Set<String>> entry : declared.entrySet()) {
+      if (!names.contains(entry.getKey())) {
+        throw new MojoFailureException("Dependencies are declared for unknown script " + entry.getKey());
+      }
+      for (String dependency : entry.getValue()) {
+        if (!names.contains(dependency)) {
+          throw new MojoFailureException("Script " + entry.getKey() + " depends on unknown script " + dependency);
+        }
+      }
+    }
+    File previous = null;
+    for (File script : scripts) {
+      List<File> list = new ArrayList<>();
+      Set<String> set = declared.get(script.getName());
+      if (set == null) {
+        if (previous != null) { list.add(previous); }
+      } else {
+        for (String dependency : set) {
+          // the applied scripts are satisfied already
+          if (byName.containsKey(dependency)) { list.add(byName.get(dependency)); }
+        }
+      }
+      dependencies.put(script, list);
+      waiting.put(script, list.size());
+      for (File dependency : list) {
+        List<File> users = dependents.get(dependency);
+        if (users == null) {
+          users = new ArrayList<>();
+          dependents.put(dependency, users);
+        }
+        users.add(script);
+      }
+      previous = script;
+    }
+    checkCycles();
+  }
+
+  /** Finds a cycle by depth first search. */
+  private void checkCycles() throws MojoFailureException {
+    Map<File, Integer> state = new HashMap<>();
+    for (File script : scripts) {
+      List<File> path = new ArrayList<>();
+      if (findCycle(script, state, path)) {
+        StringBuilder sb = new StringBuilder("Scripts depend on each other in a cycle: ");
+        for (File f : path) { sb.append(f.getName()).append(" -> "); }
+        throw new MojoFailureException(sb.append(path.get(0).getName()).toString());
+      }
+    }
+  }
+
+  /** @return true if a cycle is found, the path is the cycle then */
+  private boolean findCycle(File script, Map<File, Integer> state, List<File> path) {
+    Integer s = state.get(script);
+    if (s != null && s == 2) { return false; }
+    if (s != null && s == 1) {
+      path.subList(0, path.indexOf(script)).clear();
+      return true;
+    }
+    state.put(script, 1);
+    path.add(script);
+    for (File dependency : dependencies.get(script)) {
+      if (findCycle(dependency, state, path)) { return true; }
+    }
+    path.remove(path.size() - 1);
+    state.put(script, 2);
+    return false;
+  }
+
+  /** @param script the script
+   * @return the pending scripts which the script depends on */
+  public List<File> getDependencies(File script) { return dependencies.get(script); }
+
+  /** @return the scripts without dependencies, they can be executed first */
+  public List<File> start() {
+    List<File> ready = new ArrayList<>();
+    for (File script : scripts) {
+      if (waiting.get(script) == 0) { ready.add(script); }
+    }
+    return ready;
+  }
+
+  /** Marks the script as executed.
+   * @param script the executed script
+   * @return the scripts which became ready */
+  public List<File> completed(File script) {
+    List<File> ready = new ArrayList<>();
+    List<File> users = dependents.get(script);
+    if (users == null) { return ready; }
+    for (File user : users) {
+      int count = waiting.get(user) - 1;
+      waiting.put(user, count);
+      if (count == 0) { ready.add(user); }
+    }
+    return ready;
+  }
+}
@@ -0,0 +1,191 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Ledger of the scripts executed on the target database. Every executed script is recorded
+ * with its name, SHA-256 checksum, execution time and duration in the ledger table, so it
+ * isn't executed again. The scripts of the first update directory are recorded by their
+ * file names, the ones of the other directories by the index of the directory and the file
+ * name, like 1/001_fix.sql, so same-named scripts of different directories are told apart.
+ * The whole ledger is read by one query when it's opened. The ledger uses its own
+ * connection and can be used by concurrent workers. */
+public class ScriptLedger {
+
+  private final DbContext ctx;
+  private final Connection con;
+  private final String table;
+  private final boolean failOnChecksumDrift;
+  private final File[] directories;
+  /** Checksums of the applied scripts by their names. */
+  private final Map<String, String> applied = new HashMap<>();
+  /** Checksums of the scripts computed by {@link #isPending(File)}. */
+  private final Map<File, String> checksums = new ConcurrentHashMap<>();
+
+  /** @param ctx the context of the executed config
+   * @param con the connection used only by the ledger
+   * @param table the name of the ledger table
+   * @param failOnChecksumDrift whether the changed applied scripts fail the build or only warn
+   * @param directories the update directories of the config */
+  public ScriptLedger(DbContext ctx, Connection con, String table, boolean failOnChecksumDrift, File[] directories) {
+    this.ctx = ctx;
+    this.con = con;
+    this.table = table;
+    this.failOnChecksumDrift = failOnChecksumDrift;
+    this.directories = directories;
+  }
+
+  /** Reads the applied scripts, the ledger table is created when it doesn't exist.
+   * @throws SQLException on error */
+  public void open() throws SQLException {
+    Statement st = con.createStatement();
+    try {
+      ResultSet rs;
+      try {
+        rs = st.executeQuery("SELECT SCRIPT_NAME, CHECKSUM FROM " + table);
+      } catch (SQLException e) {
+        if (!con.getAutoCommit()) { con.rollback(); }
+        ctx.getLog().info("Creating script ledger table " + table);
+        st.execute("CREATE TABLE " + table + " (SCRIPT_NAME VARCHAR(255) NOT NULL PRIMARY KEY, "
+                   + "CHECKSUM VARCHAR(64) NOT NULL, EXECUTED_AT " + timestampType(ctx.getConfig()) + " NOT NULL, "
+                   + "DURATION_MS NUMERIC(19) NOT NULL)");
+        if (!con.getAutoCommit()) { con.commit(); }
+        return;
+      }
+      while (rs.next()) {
+        applied.put(rs.getString(1), rs.getString(2));
+      }
+      rs.close();
+      ctx.getLog().info(applied.size() + " applied script(s) found in ledger " + table);
+    } finally {
+      st.close();
+    }
+  }
+
+  /** Checks whether the script wasn't applied yet.
+   * @param file the script
+   * @return true if the script should be executed
+   * @throws IOException on error
+   * @throws MojoFailureException when the applied script was changed and drift isn't tolerated */
+  public boolean isPending(File file) throws IOException, MojoFailureException {
+    String checksum = checksum(file);
+    checksums.put(file, checksum);
+    String name = name(file);
+    String appliedChecksum;
+    synchronized (this) {
+      appliedChecksum = applied.get(name);
+    }
+    if (appliedChecksum == null) { return true; }
+    if (!appliedChecksum.equals(checksum)) {
+      String message = "Script " + name + " was changed after it was applied (checksum "
+        + appliedChecksum + " in ledger, " + checksum + " now)";
+      if (failOnChecksumDrift) { throw new MojoFailureException(message); }
+      ctx.getLog().warn(message);
+    }
+    return false;
+  }
+
+  /** Records the executed script.
+   * @param file the script
+   * @param startTime the time when the execution started
+   * @param duration the duration of the execution in milliseconds
+   * @throws SQLException on error
+   * @throws IOException on error */
+  public synchronized void record(File file, long startTime, long duration) throws SQLException, IOException {
+    String checksum = checksums.remove(file);
+    if (checksum == null) { checksum = checksum(file); }
+    String name = name(file);
+    PreparedStatement ps = con.prepareStatement("INSERT INTO " + table
+                                                + " (SCRIPT_NAME, CHECKSUM, EXECUTED_AT, DURATION_MS) VALUES (?, ?, ?, ?)");
+    try {
+      ps.setString(1, name);
+      ps.setString(2, checksum);
+      ps.setTimestamp(3, new Timestamp(startTime));
+      ps.setLong(4, duration);
+      ps.executeUpdate();
+      if (!con.getAutoCommit()) { con.commit(); }
+    } finally {
+      ps.close();
+    }
+    applied.put(name, checksum);
+  }
+
+  /** @return the name the script is recorded by, the file name for the first directory */
+  private String name(File file) {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (directories != null) {
+      for (int i = 0; i < directories.length; i++) {
+        if (directories[i] != null && directories[i].getAbsoluteFile().equals(parent)) {
+          return i == 0 ? file.getName() : i + "/" + file.getName();
+        }
+      }
+    }
+    return file.getName();
+  }
+
+  /** Closes the connection of the ledger.
+   * @throws SQLException on error */
+  public void close() throws SQLException {
+    con.close();
+  }
+
+  /** @param config the config
+   * @return the type of the timestamp columns in the database of the config */
+  static String timestampType(DbConfig config) {
+    // TIMESTAMP of SQL Server is a row version
+    return SqlDialect.forConfig(config) == SqlDialect.MSSQL ? "DATETIME" : "TIMESTAMP";
+  }
+
+  /** Computes SHA-256 checksum of the file content.
+   * @param file the file
+   * @return the hex checksum
+   * @throws IOException on error */
+  public static String checksum(File file) throws IOException {
+    MessageDigest digest = sha256();
+    byte[] buffer = new byte[64 * 1024];
+    InputStream in = new FileInputStream(file);
+    try {
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return hex(digest);
+  }
+
+  /** @return new SHA-256 digest */
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** @param digest the digest of the whole content
+   * @return the hex checksum */
+  static String hex(MessageDigest digest) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,191 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/** Plan of one goal execution: the scripts and data files of all configs read and split
+ * without a database. The report tells for every file how many statements it executes,
+ * how many bytes of SQL it sends and the error found in it, and is written as JSON and CSV
+ * next to the {@link ExecutionMetrics metrics} reports. */
+public class ScriptPlan {
+
+  private final long startTime = System.currentTimeMillis();
+  private final List<FilePlan> files = new ArrayList<>();
+
+  /** Adds the planned file.
+   * @param file the plan of the file */
+  public synchronized void add(FilePlan file) {
+    files.add(file);
+  }
+
+  /** @return the plans of the files in the order they were added */
+  public synchronized List<FilePlan> getFiles() { return new ArrayList<>(files); }
+
+  /** @return the number of files with an error */
+  public synchronized int getErrors() {
+    int errors = 0;
+    for (FilePlan f : files) {
+      if (f.getError() != null) { errors++; }
+    }
+    return errors;
+  }
+
+  /** Writes the report files goal-plan.json and goal-plan.csv.
+   * @param directory the directory of the report
+   * @param goal the name of the goal
+   * @return the JSON report
+   * @throws IOException on error */
+  public File write(File directory, String goal) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create directory " + directory);
+    }
+    List<FilePlan> fileList = getFiles();
+    File json = new File(directory, goal + "-plan.json");
+    PrintWriter out = ExecutionMetrics.open(json);
+    try {
+      writeJson(out, goal, fileList);
+    } finally {
+      out.close();
+    }
+    out = ExecutionMetrics.open(new File(directory, goal + "-plan.csv"));
+    try {
+      out.println("config,file,mode,bytesRead,statements,transactions,sqlBytes,largestStatementBytes,largestStatementLine,ms,error");
+      for (FilePlan f : fileList) {
+        out.println(ExecutionMetrics.csv(f.getConfig()) + "," + ExecutionMetrics.csv(f.getFile().getPath()) + ","
+                    + f.getMode() + "," + f.getBytesRead() + "," + f.getStatements() + "," + f.getTransactions() + ","
+                    + f.getSqlBytes() + "," + f.getLargestStatement() + "," + f.getLargestStatementLine() + ","
+                    + ExecutionMetrics.ms(f.getNanos()) + "," + (f.getError() == null ? "" : ExecutionMetrics.csv(f.getError())));
+      }
+    } finally {
+      out.close();
+    }
+    return json;
+  }
+
+  private void writeJson(PrintWriter out, String goal, List<FilePlan> fileList) {
+    long statements = 0;
+    long sqlBytes = 0;
+    long bytesRead = 0;
+    int errors = 0;
+    for (FilePlan f : fileList) {
+      statements += f.getStatements();
+      sqlBytes += f.getSqlBytes();
+      bytesRead += f.getBytesRead();
+      if (f.getError() != null) { errors++; }
+    }
+    out.println("{");
+    out.println("  \"goal\": " + ExecutionMetrics.json(goal) + ",");
+    out.println("  \"started\": " + ExecutionMetrics.json(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startTime))) + ",");
+    out.println("  \"durationMs\": " + (System.currentTimeMillis() - startTime) + ",");
+    out.println("  \"files\": " + fileList.size() + ",");
+    out.println("  \"errors\": " + errors + ",");
+    out.println("  \"bytesRead\": " + bytesRead + ",");
+    out.println("  \"statements\": " + statements + ",");
+    out.println("  \"sqlBytes\": " + sqlBytes + ",");
+    out.println("  \"plan\": [");
+    for (int i = 0; i < fileList.size(); i++) {
+      FilePlan f = fileList.get(i);
+      out.println("    {\"config\": " + ExecutionMetrics.json(f.getConfig()) + ", \"file\": " + ExecutionMetrics.json(f.getFile().getPath())
+                  + ", \"mode\": " + ExecutionMetrics.json(f.getMode()) + ", \"bytesRead\": " + f.getBytesRead()
+                  + ", \"statements\": " + f.getStatements() + ", \"transactions\": " + f.getTransactions()
+                  + ", \"sqlBytes\": " + f.getSqlBytes() + ", \"largestStatementBytes\": " + f.getLargestStatement()
+                  + ", \"largestStatementLine\": " + f.getLargestStatementLine() + ", \"ms\": " + ExecutionMetrics.ms(f.getNanos())
+                  + ", \"error\": " + (f.getError() == null ? "null" : ExecutionMetrics.json(f.getError())) + "}"
+                  + (i < fileList.size() - 1 ? "," : ""));
+    }
+    out.println("  ]");
+    out.println("}");
+  }
+
+  /** Plan of one script or data file, filled by the thread which reads it. */
+  public static class FilePlan {
+
+    private final String config;
+    private final File file;
+    private final String mode;
+    private long bytesRead;
+    private long statements;
+    private long transactions;
+    private long sqlBytes;
+    private long largestStatement;
+    private int largestStatementLine;
+    private long nanos;
+    private String error;
+
+    /** @param config the name of the config
+     * @param file the file
+     * @param mode how the file would be executed (script or load) */
+    public FilePlan(String config, File file, String mode) {
+      this.config = config;
+      this.file = file;
+      this.mode = mode;
+    }
+
+    /** Records the statement read from the script.
+     * @param statement the statement */
+    public void statement(SqlStatement statement) {
+      if (statement.isTransactionEnd()) { transactions++; }
+      if (statement.isEmpty()) { return; }
+      statements++;
+      long length = utf8Length(statement.getSql());
+      sqlBytes += length;
+      if (length > largestStatement) {
+        largestStatement = length;
+        largestStatementLine = statement.getLine();
+      }
+    }
+
+    /** Records the records read from the data file.
+     * @param records the number of records */
+    public void records(long records) {
+      statements += records;
+    }
+
+    /** Finishes the plan of the file.
+     * @param reader the reader of the file, may be null if it wasn't opened
+     * @param time the time spent in nanoseconds
+     * @param failure the error found in the file, null if there is none */
+    public void finish(ScriptReader reader, long time, String failure) {
+      if (reader != null) { bytesRead = reader.getBytesRead(); }
+      nanos = time;
+      error = failure;
+    }
+
+    private static long utf8Length(String sql) {
+      long length = sql.length();
+      for (int i = 0; i < sql.length(); i++) {
+        char c = sql.charAt(i);
+        if (c >= 0x80) { length += c < 0x800 || Character.isSurrogate(c) ? 1 : 2; }
+      }
+      return length;
+    }
+
+    /** @return the name of the config */
+    public String getConfig() { return config; }
+    /** @return the file */
+    public File getFile() { return file; }
+    /** @return how the file would be executed (script or load) */
+    public String getMode() { return mode; }
+    /** @return the bytes read from the file, uncompressed for gzipped file */
+    public long getBytesRead() { return bytesRead; }
+    /** @return the number of statements of the script or records of the data file */
+    public long getStatements() { return statements; }
+    /** @return the number of transaction delimiters of the script */
+    public long getTransactions() { return transactions; }
+    /** @return the UTF-8 bytes of the statements, which are sent to the database */
+    public long getSqlBytes() { return sqlBytes; }
+    /** @return the UTF-8 bytes of the largest statement */
+    public long getLargestStatement() { return largestStatement; }
+    /** @return the line of the largest statement */
+    public int getLargestStatementLine() { return largestStatementLine; }
+    /** @return the time of the reading and splitting in nanoseconds */
+    public long getNanos() { return nanos; }
+    /** @return the error found in the file, null if there is none */
+    public String getError() { return error; }
+  }
+}
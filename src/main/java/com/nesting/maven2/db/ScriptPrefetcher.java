@@ -0,0 +1,185 @@
+package com.nesting.maven2.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/** Inflates the gzipped scripts ahead of their execution on background threads.
+ * <p>The scripts are inflated in the order of their execution by a pool of threads, so
+ * the next scripts are inflated while the current one is executed. The inflated bytes of a
+ * script wait in a bounded queue of chunks, so at most {@code aheadSize} bytes of every
+ * script are held in memory; the thread continues when the script is read. A script which
+ * isn't taken by its execution is discarded, and when the execution reaches a script whose
+ * inflation hasn't started yet, the script is read directly.</p> */
+public class ScriptPrefetcher implements Closeable {
+
+  /** Marks the end of the script in the queue. */
+  private static final byte[] END = new byte[0];
+
+  private final int chunkSize;
+  private final int inflateBufferSize;
+  private final int chunks;
+  private final ExecutorService executor;
+  private final Map<File, Prefetch> prefetches = new ConcurrentHashMap<>();
+
+  /** Starts the inflation of the scripts.
+   * @param files the gzipped scripts in the order of execution
+   * @param threads the number of scripts inflated at once
+   * @param aheadSize the maximal number of inflated bytes of one script held in memory
+   * @param chunkSize the size of the chunks of the inflated bytes
+   * @param inflateBufferSize the size of the input buffer of the inflater */
+  public ScriptPrefetcher(List<File> files, int threads, long aheadSize, int chunkSize, int inflateBufferSize) {
+    this.chunkSize = Math.max(chunkSize, 4096);
+    this.inflateBufferSize = Math.max(inflateBufferSize, 512);
+    this.chunks = (int) Math.max(aheadSize / this.chunkSize, 1);
+    this.executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "db-maven-plugin-prefetch");
+          thread.setDaemon(true);
+          return thread;
+        } });
+    for (File file : files) {
+      final Prefetch prefetch = new Prefetch(file);
+      prefetch.future = executor.submit(new Runnable() {
+          public void run() {
+            prefetch.inflate();
+          } });
+      prefetches.put(file, prefetch);
+    }
+  }
+
+  /** Takes the inflated stream of the script.
+   * @param file the script
+   * @return the stream or null if the script isn't prefetched or its inflation didn't start yet */
+  public InputStream take(File file) {
+    Prefetch prefetch = prefetches.remove(file);
+    if (prefetch == null) { return null; }
+    if (prefetch.future.cancel(false)) { return null; }
+    return prefetch;
+  }
+
+  /** Discards the inflated bytes of the script if it wasn't read.
+   * @param file the script */
+  public void discard(File file) {
+    Prefetch prefetch = prefetches.remove(file);
+    if (prefetch != null) {
+      prefetch.future.cancel(false);
+      prefetch.close();
+    }
+  }
+
+  /** Stops the inflation of all scripts. */
+  public void close() {
+    for (Prefetch prefetch : prefetches.values()) { prefetch.close(); }
+    prefetches.clear();
+    executor.shutdownNow();
+  }
+
+  /** Inflated stream of one script, filled by the background thread. */
+  private class Prefetch extends InputStream {
+
+    private final File file;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(chunks);
+    private Future<?> future;
+    private volatile boolean closed;
+    private volatile IOException error;
+    private byte[] chunk;
+    private int pos;
+
+    Prefetch(File file) {
+      this.file = file;
+    }
+
+    /** Inflates the script into the queue until its end, an error or close. */
+    void inflate() {
+      try (InputStream in = new GZIPInputStream(new FileInputStream(file), inflateBufferSize)) {
+        byte[] buffer = new byte[chunkSize];
+        int length = 0;
+        int n;
+        while ((n = in.read(buffer, length, buffer.length - length)) >= 0) {
+          length += n;
+          if (length == buffer.length) {
+            if (!offer(buffer)) { return; }
+            buffer = new byte[chunkSize];
+            length = 0;
+          }
+        }
+        if (length > 0 && !offer(Arrays.copyOf(buffer, length))) { return; }
+      } catch (IOException e) {
+        error = e;
+      }
+      offer(END);
+    }
+
+    /** Puts the chunk into the queue, waits while it's full.
+     * @return false if the stream was closed meanwhile */
+    private boolean offer(byte[] bytes) {
+      try {
+        while (!closed) {
+          if (queue.offer(bytes, 100, TimeUnit.MILLISECONDS)) { return true; }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }
+
+    /** Takes the next chunk.
+     * @return false at the end of the script */
+    private boolean next() throws IOException {
+      if (chunk == END) { return false; }
+      try {
+        chunk = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while inflating " + file.getName(), e);
+      }
+      pos = 0;
+      if (chunk == END) {
+        if (error != null) { throw error; }
+        return false;
+      }
+      return true;
+    }
+
+    /** {@inheritDoc} */
+    public int read() throws IOException {
+      while (chunk == null || pos == chunk.length) {
+        if (!next()) { return -1; }
+      }
+      return chunk[pos++] & 0xff;
+    }
+
+    /** {@inheritDoc} */
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) { return 0; }
+      while (chunk == null || pos == chunk.length) {
+        if (!next()) { return -1; }
+      }
+      int n = Math.min(len, chunk.length - pos);
+      System.arraycopy(chunk, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    /** {@inheritDoc} */
+    public void close() {
+      closed = true;
+      queue.clear();
+    }
+  }
+}
@@ -0,0 +1,381 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+
+/** Reader of script files which decodes the bytes straight into the buffer of the caller.
+ * <p>Plain file is read through its {@link FileChannel}, the big one is memory mapped in
+ * windows of {@link #WINDOW_SIZE} bytes and copied from the page cache by bulk copies.
+ * Gzipped file is inflated by large buffers. All bytes go through one reused heap buffer,
+ * which is what the JDK decoders process fastest (decoding of the mapped buffer directly
+ * is several times slower). The byte order mark is detected on the first bytes of the
+ * buffer and selects the charset, otherwise the given encoding is used. One
+ * {@link CharsetDecoder} decodes the whole file, malformed input is replaced the same way
+ * as by {@link java.io.InputStreamReader}. The reader tells whether it replaced any input,
+ * the chars don't match the bytes of the file then, so the byte offsets counted from the
+ * chars are wrong.</p>
+ * <p>The reader of a file can compute the SHA-256 checksum of the file from the bytes it
+ * reads, of the compressed bytes of gzipped file, so the file isn't read once more for it.</p>
+ * <p>Plain file can be opened at a byte offset to resume it after a statement. The offset
+ * has to follow a line break, which is checked, so a wrong offset can't start decoding in
+ * the middle of a char.</p>
+ * <p>The reader of a stream, an already inflated or archived script, decodes it the same
+ * way, it only can't be opened at an offset.</p> */
+public class ScriptReader extends Reader {
+
+  /** Size of the mapped window of a plain file. */
+  public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+  /** Plain files smaller than this are read by the channel instead of mapped. */
+  public static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+  /** Size of the byte buffer which is decoded. */
+  public static final int BUFFER_SIZE = 256 * 1024;
+
+  private FileChannel channel;
+  private InputStream in;
+  private long size;
+  private MappedByteBuffer window;
+  /** File offset of the end of {@link #window}. */
+  private long windowEnd;
+  private ByteBuffer bytes;
+  private CharsetDecoder decoder;
+  private boolean endOfInput;
+  private boolean flushed;
+  private long bytesRead;
+  /** File offset after the last byte read into {@link #bytes}. */
+  private long readOffset;
+  private boolean strict;
+  private boolean replaced;
+  private MessageDigest digest;
+  /** The compressed bytes of gzipped file whose checksum is computed. */
+  private InputStream raw;
+  private String checksum;
+  private long ioNanos;
+  private long startOffset;
+
+  /** Opens the file, gzipped file when its name ends with GZ.
+   * @param file the script file
+   * @param encoding the encoding used when the file has no byte order mark
+   * @throws IOException on error */
+  public ScriptReader(File file, String encoding) throws IOException {
+    this(file, encoding, isGzip(file));
+  }
+
+  /** Opens the file.
+   * @param file the script file
+   * @param encoding the encoding used when the file has no byte order mark
+   * @param gzip whether the file is gzipped
+   * @throws IOException on error */
+  public ScriptReader(File file, String encoding, boolean gzip) throws IOException {
+    this(file, encoding, gzip, 0);
+  }
+
+  /** Opens the file at the byte offset. The byte order mark is detected at the start of the
+   * file in any case.
+   * @param file the script file
+   * @param encoding the encoding used when the file has no byte order mark
+   * @param gzip whether the file is gzipped, then the offset has to be 0
+   * @param offset the offset of the first read byte, it has to follow a line break
+   * @throws IOException on error or when the offset doesn't follow a line break */
+  public ScriptReader(File file, String encoding, boolean gzip, long offset) throws IOException {
+    this(file, encoding, gzip, offset, BUFFER_SIZE, BUFFER_SIZE);
+  }
+
+  /** Opens the file at the byte offset with the given buffer sizes.
+   * @param file the script file
+   * @param encoding the encoding used when the file has no byte order mark
+   * @param gzip whether the file is gzipped, then the offset has to be 0
+   * @param offset the offset of the first read byte, it has to follow a line break
+   * @param bufferSize the size of the byte buffer which is decoded
+   * @param inflateBufferSize the size of the input buffer of the gzip inflater
+   * @throws IOException on error or when the offset doesn't follow a line break */
+  public ScriptReader(File file, String encoding, boolean gzip, long offset, int bufferSize, int inflateBufferSize)
+    throws IOException {
+    this(file, encoding, gzip, offset, bufferSize, inflateBufferSize, false);
+  }
+
+  /** Opens the file at the byte offset with the given buffer sizes.
+   * @param file the script file
+   * @param encoding the encoding used when the file has no byte order mark
+   * @param gzip whether the file is gzipped, then the offset has to be 0
+   * @param offset the offset of the first read byte, it has to follow a line break
+   * @param bufferSize the size of the byte buffer which is decoded
+   * @param inflateBufferSize the size of the input buffer of the gzip inflater
+   * @param checksum whether the checksum of the file is computed, the offset has to be 0 then
+   * @throws IOException on error or when the offset doesn't follow a line break */
+  public ScriptReader(File file, String encoding, boolean gzip, long offset, int bufferSize, int inflateBufferSize,
+                      boolean checksum) throws IOException {
+    if (checksum && offset > 0) { throw new IllegalArgumentException("Checksum of the file needs offset 0"); }
+    FileInputStream fin = new FileInputStream(file);
+    try {
+      if (checksum) { digest = ScriptLedger.sha256(); }
+      if (gzip) {
+        raw = digest != null ? new DigestInputStream(fin, digest) : fin;
+        in = new GZIPInputStream(raw, Math.max(inflateBufferSize, 512));
+        bytes = ByteBuffer.allocate(Math.max(bufferSize, 16));
+      } else {
+        channel = fin.getChannel();
+        size = channel.size();
+        if (size >= MAP_THRESHOLD) {
+          window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE));
+          windowEnd = window.limit();
+        }
+        bytes = ByteBuffer.allocate((int) Math.max(Math.min(size, bufferSize), 16));
+      }
+      start(encoding);
+      if (offset > startOffset) { seek(offset); }
+    } catch (IOException | RuntimeException e) {
+      fin.close();
+      throw e;
+    }
+  }
+
+  /** Reads the stream of the script, for example the inflated one or an entry of an archive.
+   * @param in the bytes of the script
+   * @param encoding the encoding used when the script has no byte order mark
+   * @param bufferSize the size of the byte buffer which is decoded
+   * @throws IOException on error */
+  public ScriptReader(InputStream in, String encoding, int bufferSize) throws IOException {
+    this.in = in;
+    this.bytes = ByteBuffer.allocate(Math.max(bufferSize, 16));
+    try {
+      start(encoding);
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /** Reads the first bytes and creates the decoder of the charset. */
+  private void start(String encoding) throws IOException {
+    bytes.flip();
+    fill();
+    // the errors are replaced by read(), so the replacement is known
+    decoder = Charset.forName(detectCharset(encoding)).newDecoder()
+      .onMalformedInput(CodingErrorAction.REPORT)
+      .onUnmappableCharacter(CodingErrorAction.REPORT);
+    startOffset = bytes.position();
+  }
+
+  /** @param file the file
+   * @return true if the file is gzipped by its name */
+  public static boolean isGzip(File file) {
+    return file.getName().toUpperCase().endsWith("GZ");
+  }
+
+  /** @param file the file
+   * @return true if the file is a zip archive of scripts by its name */
+  public static boolean isZip(File file) {
+    return file.getName().toUpperCase().endsWith(".ZIP");
+  }
+
+  /** Selects the charset by the byte order mark and skips the mark. */
+  private String detectCharset(String encoding) throws IOException {
+    int p = bytes.position();
+    int n = bytes.remaining();
+    int b0 = n > 0 ? bytes.get(p) & 0xff : -1;
+    int b1 = n > 1 ? bytes.get(p + 1) & 0xff : -1;
+    int b2 = n > 2 ? bytes.get(p + 2) & 0xff : -1;
+    int b3 = n > 3 ? bytes.get(p + 3) & 0xff : -1;
+    if (b0 == 0xff && b1 == 0xfe && b2 == 0 && b3 == 0) {
+      bytes.position(p + 4);
+      return "UTF-32LE";
+    }
+    if (b0 == 0 && b1 == 0 && b2 == 0xfe && b3 == 0xff) {
+      bytes.position(p + 4);
+      return "UTF-32BE";
+    }
+    if (b0 == 0xff && b1 == 0xfe) {
+      bytes.position(p + 2);
+      return "UTF-16LE";
+    }
+    if (b0 == 0xfe && b1 == 0xff) {
+      bytes.position(p + 2);
+      return "UTF-16BE";
+    }
+    if (b0 == 0xef && b1 == 0xbb && b2 == 0xbf) {
+      bytes.position(p + 3);
+      return "UTF-8";
+    }
+    return encoding;
+  }
+
+  /** Moves the reading to the offset after a line break. */
+  private void seek(long offset) throws IOException {
+    if (channel == null) { throw new IOException("Compressed script can't be read from offset " + offset); }
+    if (offset > size) { throw new IOException("Offset " + offset + " is beyond the end of the script"); }
+    if (!followsLineBreak(offset)) { throw new IOException("Offset " + offset + " doesn't follow a line break"); }
+    bytes.clear();
+    bytes.flip();
+    if (window != null) {
+      window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, WINDOW_SIZE));
+      windowEnd = offset + window.limit();
+    } else {
+      channel.position(offset);
+    }
+    startOffset = offset;
+    readOffset = offset;
+    endOfInput = false;
+    fill();
+  }
+
+  /** Checks whether the bytes before the offset encode CR or LF. */
+  private boolean followsLineBreak(long offset) throws IOException {
+    String name = decoder.charset().name();
+    Charset charset = name.equals("UTF-16") ? Charset.forName("UTF-16BE")
+      : name.equals("UTF-32") ? Charset.forName("UTF-32BE") : decoder.charset();
+    for (String lineBreak : new String[] {"\n", "\r"}) {
+      byte[] expected = lineBreak.getBytes(charset);
+      if (offset < expected.length) { continue; }
+      ByteBuffer actual = ByteBuffer.allocate(expected.length);
+      while (actual.hasRemaining()) {
+        if (channel.read(actual, offset - expected.length + actual.position()) < 0) { return false; }
+      }
+      actual.flip();
+      if (ByteBuffer.wrap(expected).equals(actual)) { return true; }
+    }
+    return false;
+  }
+
+  /** Reads more bytes, the unread ones are kept at the start of the buffer. */
+  private void fill() throws IOException {
+    if (endOfInput) { return; }
+    long start = System.nanoTime();
+    bytes.compact();
+    try {
+      // at least four bytes for the byte order mark or a char split by the end of the buffer
+      while (bytes.position() < 4 && bytes.hasRemaining()) {
+        if (readBytes() < 0) {
+          endOfInput = true;
+          break;
+        }
+      }
+    } finally {
+      bytes.flip();
+      ioNanos += System.nanoTime() - start;
+    }
+  }
+
+  /** Reads bytes from the source into {@link #bytes}.
+   * @return the number of read bytes or -1 at the end of the file */
+  private int readBytes() throws IOException {
+    if (in != null) {
+      int n = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+      if (n > 0) {
+        bytes.position(bytes.position() + n);
+        bytesRead += n;
+        readOffset += n;
+      }
+      return n;
+    }
+    if (window == null) {
+      int n = channel.read(bytes);
+      if (n > 0) {
+        if (digest != null) { digest.update(bytes.array(), bytes.arrayOffset() + bytes.position() - n, n); }
+        bytesRead += n;
+        readOffset += n;
+      }
+      return n;
+    }
+    if (!window.hasRemaining()) {
+      if (windowEnd >= size) { return -1; }
+      window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, Math.min(size - windowEnd, WINDOW_SIZE));
+      windowEnd += window.limit();
+    }
+    int n = Math.min(window.remaining(), bytes.remaining());
+    window.get(bytes.array(), bytes.arrayOffset() + bytes.position(), n);
+    if (digest != null) { digest.update(bytes.array(), bytes.arrayOffset() + bytes.position(), n); }
+    bytes.position(bytes.position() + n);
+    bytesRead += n;
+    readOffset += n;
+    return n;
+  }
+
+  /** {@inheritDoc} */
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) { return 0; }
+    if (decoder == null) { throw new IOException("Reader is closed"); }
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    while (out.position() == off) {
+      if (flushed) { return -1; }
+      CoderResult result = decoder.decode(bytes, out, endOfInput);
+      if (result.isUnderflow()) {
+        if (endOfInput) {
+          decoder.flush(out);
+          flushed = true;
+        } else {
+          fill();
+        }
+      } else if (result.isError()) {
+        if (strict) {
+          throw new IOException((result.isMalformed() ? "Malformed " : "Unmappable ") + decoder.charset().name()
+                                + " input at byte " + (readOffset - bytes.remaining()));
+        }
+        if (!out.hasRemaining()) { break; }
+        bytes.position(bytes.position() + result.length());
+        out.put(decoder.replacement());
+        replaced = true;
+      }
+    }
+    return out.position() - off;
+  }
+
+  /** Fails the reading on malformed or unmappable input instead of replacing it by the
+   * replacement char, the error tells the byte offset of the input. It has to be called
+   * before the first read. */
+  public void reportMalformedInput() {
+    strict = true;
+  }
+
+  /** @return true if malformed or unmappable input was replaced by the replacement char */
+  public boolean isReplaced() { return replaced; }
+
+  /** @return the hex SHA-256 checksum of the file when the reader was opened to compute it
+   *   and it reached the end of the file, null otherwise
+   * @throws IOException on error */
+  public String getChecksum() throws IOException {
+    if (digest == null || !endOfInput) { return null; }
+    if (checksum == null) {
+      if (raw != null) {
+        // the bytes after the gzip stream are part of the file too
+        byte[] rest = new byte[4096];
+        while (raw.read(rest) >= 0) {
+          // digested
+        }
+      }
+      checksum = ScriptLedger.hex(digest);
+    }
+    return checksum;
+  }
+
+  /** @return the number of bytes read from the file, uncompressed bytes of gzipped file */
+  public long getBytesRead() { return bytesRead; }
+  /** @return the time in nanoseconds spent in reading (and inflating) the bytes */
+  public long getIoNanos() { return ioNanos; }
+  /** @return the charset of the file */
+  public Charset getCharset() { return decoder.charset(); }
+  /** @return the offset of the first decoded byte, after the byte order mark or the resume offset */
+  public long getStartOffset() { return startOffset; }
+
+  /** {@inheritDoc} */
+  public void close() throws IOException {
+    decoder = null;
+    bytes = null;
+    window = null;
+    if (in != null) { in.close(); }
+    if (channel != null) { channel.close(); }
+  }
+}
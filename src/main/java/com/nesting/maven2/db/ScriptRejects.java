@@ -0,0 +1,100 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Reject file of the statements which failed while the execution continued on error. Every
+ * statement is written with a comment of its file, line and error, followed by the delimiter
+ * on its own line, so the fixed reject file can be executed as a script. The file is created
+ * with the first rejected statement. When more statements than the error budget fail, the
+ * execution fails. The statements of concurrent scripts of a config are written to the same
+ * file. */
+public class ScriptRejects {
+
+  /** Longer error messages are cut in the comments. */
+  private static final int MAX_MESSAGE = 1000;
+
+  private final File file;
+  private final String delimiter;
+  private final int budget;
+  private PrintWriter out;
+  private int count;
+  /** The number of rejected statements by script, the scripts of an archive by the archive. */
+  private final Map<File, Integer> counts = new HashMap<>();
+
+  /** @param file the reject file, an old one is deleted
+   * @param delimiter the sql delimiter of the config, semicolon when null
+   * @param budget the number of statements which may fail, negative for no limit */
+  public ScriptRejects(File file, String delimiter, int budget) {
+    this.file = file;
+    this.delimiter = delimiter == null || delimiter.length() == 0 ? ";" : delimiter;
+    this.budget = budget;
+    file.delete();
+  }
+
+  /** Writes the failed statement to the reject file.
+   * @param script the script of the statement
+   * @param line the line of the statement
+   * @param sql the statement
+   * @param error the error of the statement
+   * @throws SQLException when the error budget is exceeded, or the error when the reject file can't be written */
+  public synchronized void reject(File script, int line, String sql, SQLException error) throws SQLException {
+    count++;
+    File key = script instanceof ScriptArchive.Entry ? ((ScriptArchive.Entry) script).getArchive() : script;
+    Integer previous = counts.get(key);
+    counts.put(key, previous == null ? 1 : previous + 1);
+    try {
+      if (out == null) {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+          throw new IOException("Can't create directory " + directory);
+        }
+        out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      }
+      out.println("-- " + script.getPath() + ":" + line + ": " + message(error));
+      out.println(sql);
+      out.println(delimiter);
+      out.flush();
+    } catch (IOException e) {
+      error.addSuppressed(e);
+      throw error;
+    }
+    if (budget >= 0 && count > budget) {
+      SQLException exceeded = new SQLException("Error budget of " + budget + " failed statement(s) exceeded at "
+                                               + script.getName() + ":" + line + ", see " + file);
+      exceeded.setNextException(error);
+      throw exceeded;
+    }
+  }
+
+  private static String message(SQLException error) {
+    String message = String.valueOf(error.getMessage()).replaceAll("\\s+", " ").trim();
+    if (message.length() > MAX_MESSAGE) { message = message.substring(0, MAX_MESSAGE) + "..."; }
+    return error.getSQLState() == null ? message : message + " (SQLState " + error.getSQLState() + ")";
+  }
+
+  /** @return the number of rejected statements */
+  public synchronized int getCount() { return count; }
+  /** @param script the script or the archive of scripts
+   * @return the number of rejected statements of the script */
+  public synchronized int getCount(File script) {
+    Integer scriptCount = counts.get(script);
+    return scriptCount == null ? 0 : scriptCount;
+  }
+  /** @return the reject file */
+  public File getFile() { return file; }
+
+  /** Closes the reject file. */
+  public synchronized void close() {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+}
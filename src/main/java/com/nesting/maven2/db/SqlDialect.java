@@ -0,0 +1,101 @@
+package com.nesting.maven2.db;
+
+import org.apache.commons.lang.StringUtils;
+
+/** Lexical rules of the SQL dialects understood by the {@link SqlStatementSplitter}.
+ * The dialect decides which quoting and comment constructs can hide a delimiter. */
+public enum SqlDialect {
+
+  /** Plain SQL: quoted strings and identifiers, line and block comments. */
+  GENERIC(false, false, false, false, false, false, false, false),
+  /** PostgreSQL: dollar quoted bodies, E'' escape strings and nested block comments. */
+  POSTGRESQL(true, true, true, false, false, false, false, true),
+  /** MySQL and MariaDB: backslash escapes, back tick identifiers and # comments. */
+  MYSQL(false, false, false, true, true, true, false, true),
+  /** Microsoft SQL Server: [bracketed] identifiers. */
+  MSSQL(false, false, false, false, false, false, true, true),
+  /** Oracle. */
+  ORACLE(false, false, false, false, false, false, false, false),
+  /** H2: dollar quoted bodies. */
+  H2(true, false, false, false, false, false, false, true),
+  /** HSQLDB. */
+  HSQLDB(false, false, false, false, false, false, false, true),
+  /** Apache Derby. */
+  DERBY(false, false, false, false, false, false, false, true);
+
+  private final boolean dollarQuotes;
+  private final boolean escapeStrings;
+  private final boolean nestedComments;
+  private final boolean backslashEscapes;
+  private final boolean backtickIdentifiers;
+  private final boolean hashComments;
+  private final boolean bracketIdentifiers;
+  private final boolean multiRowValues;
+
+  SqlDialect(boolean dollarQuotes, boolean escapeStrings, boolean nestedComments, boolean backslashEscapes,
+             boolean backtickIdentifiers, boolean hashComments, boolean bracketIdentifiers, boolean multiRowValues) {
+    this.dollarQuotes = dollarQuotes;
+    this.escapeStrings = escapeStrings;
+    this.nestedComments = nestedComments;
+    this.backslashEscapes = backslashEscapes;
+    this.backtickIdentifiers = backtickIdentifiers;
+    this.hashComments = hashComments;
+    this.bracketIdentifiers = bracketIdentifiers;
+    this.multiRowValues = multiRowValues;
+  }
+
+  /** @return true if $tag$ ... $tag$ quoting is recognized */
+  public boolean isDollarQuotes() { return dollarQuotes; }
+  /** @return true if E'...' strings use backslash escapes */
+  public boolean isEscapeStrings() { return escapeStrings; }
+  /** @return true if block comments nest */
+  public boolean isNestedComments() { return nestedComments; }
+  /** @return true if backslash escapes the next character in every string */
+  public boolean isBackslashEscapes() { return backslashEscapes; }
+  /** @return true if `...` quotes an identifier */
+  public boolean isBacktickIdentifiers() { return backtickIdentifiers; }
+  /** @return true if # starts a line comment */
+  public boolean isHashComments() { return hashComments; }
+  /** @return true if [...] quotes an identifier */
+  public boolean isBracketIdentifiers() { return bracketIdentifiers; }
+  /** @return true if INSERT ... VALUES takes several rows */
+  public boolean isMultiRowValues() { return multiRowValues; }
+
+  /** Finds dialect by its name, some common aliases are accepted too.
+   * @param name the name of the dialect
+   * @return the dialect
+   * @throws IllegalArgumentException if the name is unknown */
+  public static SqlDialect forName(String name) {
+    String n = name.trim().toUpperCase();
+    if ("POSTGRES".equals(n) || "PGSQL".equals(n)) { return POSTGRESQL; }
+    if ("MARIADB".equals(n)) { return MYSQL; }
+    if ("SQLSERVER".equals(n)) { return MSSQL; }
+    return valueOf(n);
+  }
+
+  /** Guess dialect from the jdbc url.
+   * @param jdbcUrl the jdbc url
+   * @return the dialect, {@link #GENERIC} when the url isn't recognized */
+  public static SqlDialect forJdbcUrl(String jdbcUrl) {
+    if (jdbcUrl == null) { return GENERIC; }
+    String url = jdbcUrl.toLowerCase();
+    if (url.startsWith("jdbc:postgresql:")) { return POSTGRESQL; }
+    if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) { return MYSQL; }
+    if (url.startsWith("jdbc:sqlserver:") || url.startsWith("jdbc:jtds:sqlserver:")) { return MSSQL; }
+    if (url.startsWith("jdbc:oracle:")) { return ORACLE; }
+    if (url.startsWith("jdbc:h2:")) { return H2; }
+    if (url.startsWith("jdbc:hsqldb:")) { return HSQLDB; }
+    if (url.startsWith("jdbc:derby:")) { return DERBY; }
+    return GENERIC;
+  }
+
+  /** Returns dialect of the config. The explicitly configured dialect wins, otherwise
+   * it is guessed from the jdbc url of the application connection.
+   * @param config the db config
+   * @return the dialect */
+  public static SqlDialect forConfig(DbConfig config) {
+    if (!StringUtils.isEmpty(config.getSqlDialect())) { return forName(config.getSqlDialect()); }
+    DatabaseConnectionSettings settings = config.getAppDbConnectionSettings();
+    return forJdbcUrl(settings == null ? null : settings.getJdbcUrl());
+  }
+}
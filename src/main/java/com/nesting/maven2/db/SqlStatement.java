@@ -0,0 +1,72 @@
+package com.nesting.maven2.db;
+
+/** Single statement read from a script by the {@link SqlStatementSplitter}. */
+public class SqlStatement {
+
+  private final String sql;
+  private final int line;
+  private final boolean transactionEnd;
+  private long index;
+  private long endOffset = -1;
+  private int nextLine;
+  private boolean endAfterCR;
+  private long sourceStart = -1;
+  private long sourceEnd = -1;
+
+  /** @param sql the statement text without delimiter, empty for a bare transaction delimiter
+   * @param line the line in the script where the statement starts
+   * @param transactionEnd true if the statement is followed by the transaction delimiter */
+  public SqlStatement(String sql, int line, boolean transactionEnd) {
+    this.sql = sql;
+    this.line = line;
+    this.transactionEnd = transactionEnd;
+  }
+
+  /** @return the statement text */
+  public String getSql() { return sql; }
+  /** @return the line in the script where the statement starts */
+  public int getLine() { return line; }
+  /** @return true if the transaction delimiter follows the statement */
+  public boolean isTransactionEnd() { return transactionEnd; }
+  /** @return true if there is nothing to execute, only the transaction delimiter */
+  public boolean isEmpty() { return sql.length() == 0; }
+  /** @return the number of the statement in the script, the first one is 1 */
+  public long getIndex() { return index; }
+  /** @return the byte offset in the file right after the statement, -1 if it isn't known */
+  public long getEndOffset() { return endOffset; }
+  /** @return the line which follows the statement */
+  public int getNextLine() { return nextLine; }
+  /** @return true if the statement ended by CR, so the LF which may follow belongs to it */
+  public boolean isEndAfterCR() { return endAfterCR; }
+
+  /** @return the byte offset in the file where the text of the statement starts, leading
+   * whitespace included, -1 if it isn't known */
+  public long getSourceStart() { return sourceStart; }
+  /** @return the byte offset in the file where the text of the statement ends, trailing
+   * whitespace included, -1 if it isn't known */
+  public long getSourceEnd() { return sourceEnd; }
+
+  /** Sets the bytes of the file from which the statement was read. The text of the statement
+   * is the decoded bytes with line breaks replaced by LF and whitespace trimmed.
+   * @param start the offset of the first byte
+   * @param end the offset after the last byte */
+  void setSource(long start, long end) {
+    this.sourceStart = start;
+    this.sourceEnd = end;
+  }
+
+  /** Sets the position where the script continues after the statement.
+   * @param statementIndex the number of the statement in the script
+   * @param offset the byte offset after the statement or -1
+   * @param line the line which follows the statement
+   * @param afterCR whether the statement ended by CR */
+  void setEnd(long statementIndex, long offset, int line, boolean afterCR) {
+    this.index = statementIndex;
+    this.endOffset = offset;
+    this.nextLine = line;
+    this.endAfterCR = afterCR;
+  }
+
+  /** {@inheritDoc} */
+  public String toString() { return sql; }
+}
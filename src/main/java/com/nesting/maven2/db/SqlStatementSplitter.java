@@ -0,0 +1,472 @@
+package com.nesting.maven2.db;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/** Single pass tokenizer which splits a script into statements.
+ * <p>The script is read in chunks into a char buffer and every character is looked at
+ * only once, so the time is linear to the size of the script and the memory is bounded by
+ * the size of the longest statement. Delimiters inside string literals, quoted identifiers,
+ * comments and dollar quoted bodies are ignored, the recognized constructs depend on the
+ * {@link SqlDialect}.</p>
+ * <p>The sql delimiter ends a statement when only whitespace or comments follow it on the
+ * same line. A line which contains only the transaction delimiter ends the statement too and
+ * marks it as {@link SqlStatement#isTransactionEnd() transaction end}.</p>
+ * <p>Every statement knows where the script continues after it: its index, the line and,
+ * when {@link #countBytes(Charset, long) byte counting} is on, the byte offset in the file.
+ * A statement always ends with a line, so the splitter can be {@link #resume resumed} there
+ * on a reader which starts at that offset. With byte counting the statement knows also the
+ * bytes of the file it was read from, see {@link SqlStatement#getSourceStart()}.</p> */
+public class SqlStatementSplitter implements StatementSource {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  /** Statement buffer bigger than this is released after the statement is emitted. */
+  private static final int RETAINED_CAPACITY = 1024 * 1024;
+
+  private static final int NORMAL = 0;
+  private static final int LINE_COMMENT = 1;
+  private static final int BLOCK_COMMENT = 2;
+  private static final int SINGLE_QUOTE = 3;
+  private static final int DOUBLE_QUOTE = 4;
+  private static final int BACKTICK = 5;
+  private static final int BRACKET = 6;
+  private static final int DOLLAR_TAG = 7;
+  private static final int DOLLAR_QUOTE = 8;
+
+  private static final int NO_COUNT = 0;
+  private static final int SINGLE_BYTE = 1;
+  private static final int UTF_8 = 2;
+  private static final int UTF_16 = 3;
+  private static final int UTF_32 = 4;
+
+  private final Reader reader;
+  private final SqlDialect dialect;
+  private final char[] delimiter;
+  private final String transactionDelimiter;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private boolean eof;
+  private boolean afterCR;
+
+  private StringBuilder sql = new StringBuilder();
+  private SqlStatement ready;
+  private int state = NORMAL;
+  private char prev;
+  /** Last char was '-' or '/' which may start a comment. */
+  private boolean tentative;
+  private boolean escape;
+  private boolean stringEscapes;
+  private int commentDepth;
+  private int tagStart;
+  private String dollarTag;
+  /** Line where the current literal, quoted identifier or comment started. */
+  private int stateLine;
+  /** Index in {@link #sql} right after a delimiter which ends the statement if the line ends. */
+  private int pendingEnd = -1;
+  private boolean hasContent;
+  private int statementLine;
+  private int line = 1;
+  private int lineStart;
+  private boolean contentAtLineStart;
+  private long index;
+  private int byteCounting = NO_COUNT;
+  private long bytes;
+  private int delimiterBytes;
+  /** Byte offset of the start of {@link #sql}. */
+  private long sqlStartBytes;
+  /** Byte offset after the delimiter at {@link #pendingEnd}. */
+  private long pendingEndBytes;
+  /** Byte offset of {@link #lineStart}. */
+  private long lineStartBytes;
+
+  /** @param reader the script
+   * @param dialect the dialect of the script
+   * @param sqlDelimiter the delimiter of statements, semicolon when null
+   * @param transactionDelimiter the transaction delimiter, may be null */
+  public SqlStatementSplitter(Reader reader, SqlDialect dialect, String sqlDelimiter, String transactionDelimiter) {
+    this.reader = reader;
+    this.dialect = dialect;
+    this.delimiter = (sqlDelimiter == null || sqlDelimiter.length() == 0 ? ";" : sqlDelimiter).toCharArray();
+    this.transactionDelimiter = transactionDelimiter == null || transactionDelimiter.trim().length() == 0
+      ? null : transactionDelimiter.trim();
+  }
+
+  /** {@inheritDoc} */
+  public SqlStatement nextStatement() throws IOException {
+    while (ready == null) {
+      if (pos < limit) {
+        accept(buffer[pos++]);
+      } else if (eof) {
+        return null;
+      } else {
+        limit = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (byteCounting != NO_COUNT && reader instanceof ScriptReader && ((ScriptReader) reader).isReplaced()) {
+          // the replaced input has other bytes than its chars, the offsets from here would be wrong
+          byteCounting = NO_COUNT;
+        }
+        if (limit < 0) {
+          limit = 0;
+          eof = true;
+          endOfInput();
+        }
+      }
+    }
+    SqlStatement result = ready;
+    ready = null;
+    return result;
+  }
+
+  /** @return the number of the line which is read */
+  public int getLineNumber() { return line; }
+
+  /** Describes the literal, quoted identifier or comment which isn't closed at the end of
+   * the script. Its delimiters are ignored, so usually the rest of the script was read as
+   * one statement.
+   * @return the description or null if the end of the script wasn't reached or nothing is open */
+  public String getUnterminated() {
+    if (!eof) { return null; }
+    String what;
+    switch (state) {
+      case BLOCK_COMMENT:
+        what = "Block comment";
+        break;
+      case SINGLE_QUOTE:
+        what = "String literal";
+        break;
+      case DOUBLE_QUOTE:
+      case BACKTICK:
+      case BRACKET:
+        what = "Quoted identifier";
+        break;
+      case DOLLAR_QUOTE:
+        what = "Dollar quoted string " + dollarTag;
+        break;
+      default:
+        return null;
+    }
+    return what + " starting at line " + stateLine + " isn't closed at the end of the script";
+  }
+
+  /** Switches on counting of the bytes of the statements, so they know their end offset.
+   * It's supported for single byte charsets, UTF-8, UTF-16 and UTF-32. The counting stops
+   * when a {@link ScriptReader} replaces malformed input, the later statements have no
+   * offsets then.
+   * @param charset the charset of the script
+   * @param offset the byte offset of the first char in the file
+   * @return false if the bytes of the charset can't be counted */
+  public boolean countBytes(Charset charset, long offset) {
+    byteCounting = byteCounting(charset);
+    bytes = offset;
+    sqlStartBytes = offset;
+    lineStartBytes = offset;
+    delimiterBytes = 0;
+    for (char c : delimiter) { delimiterBytes += width(c); }
+    return byteCounting != NO_COUNT;
+  }
+
+  /** Continues the numbering of the statements and lines from the position after a statement,
+   * the reader has to start right after it.
+   * @param statementIndex the index of the statement which precedes the reader
+   * @param nextLine the line which follows the statement
+   * @param endAfterCR whether the statement ended by CR */
+  public void resume(long statementIndex, int nextLine, boolean endAfterCR) {
+    this.index = statementIndex;
+    this.line = nextLine;
+    this.afterCR = endAfterCR;
+  }
+
+  /** Returns the way the bytes of the charset are counted. */
+  private static int byteCounting(Charset charset) {
+    String name = charset.name().toUpperCase();
+    if (name.equals("UTF-8")) { return UTF_8; }
+    if (name.startsWith("UTF-16")) { return UTF_16; }
+    if (name.startsWith("UTF-32")) { return UTF_32; }
+    try {
+      return charset.newEncoder().maxBytesPerChar() == 1.0f ? SINGLE_BYTE : NO_COUNT;
+    } catch (UnsupportedOperationException e) {
+      return NO_COUNT;
+    }
+  }
+
+  /** Returns the number of bytes of the char in the counted charset. */
+  private int width(char c) {
+    switch (byteCounting) {
+      case SINGLE_BYTE:
+        return 1;
+      case UTF_8:
+        // each half of surrogate pair counts two of the four bytes
+        return c < 0x80 ? 1 : (c < 0x800 || Character.isSurrogate(c) ? 2 : 3);
+      case UTF_16:
+        return 2;
+      case UTF_32:
+        return Character.isLowSurrogate(c) ? 0 : 4;
+      default:
+        return 0;
+    }
+  }
+
+  /** Sets the position after the ready statement. */
+  private void position() {
+    if (ready != null && ready.getIndex() == 0) {
+      ready.setEnd(++index, byteCounting == NO_COUNT ? -1 : bytes, line, afterCR);
+    }
+  }
+
+  /** {@inheritDoc} */
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private void accept(char c) {
+    if (byteCounting != NO_COUNT) { bytes += width(c); }
+    if (c == '\r') {
+      endOfLine();
+      afterCR = true;
+      position();
+    } else if (c == '\n') {
+      if (!afterCR) { endOfLine(); }
+      afterCR = false;
+      position();
+    } else {
+      afterCR = false;
+      sql.append(c);
+      scan(c);
+    }
+  }
+
+  private void scan(char c) {
+    switch (state) {
+      case NORMAL:
+        scanNormal(c);
+        break;
+      case LINE_COMMENT:
+        break;
+      case BLOCK_COMMENT:
+        if (c == '/' && prev == '*') {
+          prev = 0;
+          if (--commentDepth == 0) { state = NORMAL; }
+        } else if (c == '*' && prev == '/' && dialect.isNestedComments()) {
+          prev = 0;
+          commentDepth++;
+        } else {
+          prev = c;
+        }
+        break;
+      case SINGLE_QUOTE:
+        scanQuoted(c, '\'');
+        break;
+      case DOUBLE_QUOTE:
+        scanQuoted(c, '"');
+        break;
+      case BACKTICK:
+        if (c == '`') { leave(); }
+        break;
+      case BRACKET:
+        if (c == ']') { leave(); }
+        break;
+      case DOLLAR_TAG:
+        if (c == '$') {
+          dollarTag = sql.substring(tagStart);
+          state = DOLLAR_QUOTE;
+        } else if (!(Character.isLetter(c) || c == '_' || (Character.isDigit(c) && sql.length() - tagStart > 2))) {
+          // it wasn't a dollar quote ($1 parameter or so), read the char again as normal one
+          leave();
+          scanNormal(c);
+        }
+        break;
+      case DOLLAR_QUOTE:
+        if (c == '$' && endsWith(dollarTag) && sql.length() - dollarTag.length() >= tagStart + dollarTag.length()) {
+          leave();
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown state " + state);
+    }
+  }
+
+  private void scanNormal(char c) {
+    if (c == '-' && prev == '-' && tentative) {
+      tentative = false;
+      enter(LINE_COMMENT);
+      return;
+    }
+    if (c == '*' && prev == '/' && tentative) {
+      // the slash was the delimiter which is now start of a comment
+      if (pendingEnd == sql.length() - 1) { pendingEnd = -1; }
+      tentative = false;
+      commentDepth = 1;
+      enter(BLOCK_COMMENT);
+      return;
+    }
+    if (tentative) {
+      tentative = false;
+      // whitespace after a slash delimiter doesn't make it a content
+      if (pendingEnd != sql.length() - 1 || !Character.isWhitespace(c)) { markContent(); }
+    }
+    if (endsWith(delimiter)) {
+      pendingEnd = sql.length();
+      pendingEndBytes = bytes;
+      prev = c;
+      tentative = c == '/';
+      return;
+    }
+    prev = c;
+    if (c == '-' || c == '/') {
+      tentative = true;
+      return;
+    }
+    if (Character.isWhitespace(c)) { return; }
+    if (c == '#' && dialect.isHashComments()) {
+      enter(LINE_COMMENT);
+      return;
+    }
+    markContent();
+    if (c == '\'') {
+      stringEscapes = dialect.isBackslashEscapes() || (dialect.isEscapeStrings() && isEscapeStringPrefix());
+      enter(SINGLE_QUOTE);
+    } else if (c == '"') {
+      stringEscapes = dialect.isBackslashEscapes();
+      enter(DOUBLE_QUOTE);
+    } else if (c == '`' && dialect.isBacktickIdentifiers()) {
+      enter(BACKTICK);
+    } else if (c == '[' && dialect.isBracketIdentifiers()) {
+      enter(BRACKET);
+    } else if (c == '$' && dialect.isDollarQuotes() && !isIdentifierChar(sql.length() - 2)) {
+      tagStart = sql.length() - 1;
+      enter(DOLLAR_TAG);
+    }
+  }
+
+  private void scanQuoted(char c, char quote) {
+    if (escape) {
+      escape = false;
+    } else if (c == '\\' && stringEscapes) {
+      escape = true;
+    } else if (c == quote) {
+      // doubled quote just opens the literal again with the next char
+      leave();
+    }
+  }
+
+  private void enter(int newState) {
+    state = newState;
+    stateLine = line;
+    prev = 0;
+    escape = false;
+  }
+
+  private void leave() {
+    state = NORMAL;
+    prev = 0;
+  }
+
+  private void markContent() {
+    hasContent = true;
+    pendingEnd = -1;
+    if (statementLine == 0) { statementLine = line; }
+  }
+
+  private boolean isEscapeStringPrefix() {
+    int i = sql.length() - 2;
+    return i >= 0 && (sql.charAt(i) == 'E' || sql.charAt(i) == 'e') && !isIdentifierChar(i - 1);
+  }
+
+  private boolean isIdentifierChar(int index) {
+    if (index < 0) { return false; }
+    char c = sql.charAt(index);
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  private boolean endsWith(char[] chars) {
+    int offset = sql.length() - chars.length;
+    if (offset < 0) { return false; }
+    for (int i = 0; i < chars.length; i++) {
+      if (sql.charAt(offset + i) != chars[i]) { return false; }
+    }
+    return true;
+  }
+
+  private boolean endsWith(String str) {
+    int offset = sql.length() - str.length();
+    if (offset < 0) { return false; }
+    for (int i = 0; i < str.length(); i++) {
+      if (sql.charAt(offset + i) != str.charAt(i)) { return false; }
+    }
+    return true;
+  }
+
+  /** Checks whether the current line holds only the transaction delimiter. */
+  private boolean isTransactionDelimiterLine() {
+    if (transactionDelimiter == null) { return false; }
+    int start = lineStart;
+    int end = sql.length();
+    while (start < end && Character.isWhitespace(sql.charAt(start))) { start++; }
+    while (end > start && Character.isWhitespace(sql.charAt(end - 1))) { end--; }
+    if (end - start != transactionDelimiter.length()) { return false; }
+    for (int i = 0; i < transactionDelimiter.length(); i++) {
+      if (Character.toUpperCase(sql.charAt(start + i)) != Character.toUpperCase(transactionDelimiter.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void endOfLine() {
+    if (state == LINE_COMMENT || state == DOLLAR_TAG) {
+      leave();
+    }
+    if (tentative) {
+      tentative = false;
+      if (pendingEnd != sql.length()) { markContent(); }
+    }
+    boolean emptyLine = false;
+    if (state == NORMAL && isTransactionDelimiterLine()) {
+      emit(lineStart, contentAtLineStart, true, lineStartBytes);
+      sql.setLength(0);
+      sqlStartBytes = bytes;
+      emptyLine = true;
+    } else if (state == NORMAL && pendingEnd >= 0) {
+      emit(pendingEnd - delimiter.length, true, false, pendingEndBytes - delimiterBytes);
+      sql.delete(0, pendingEnd);
+      sqlStartBytes = pendingEndBytes;
+      pendingEnd = -1;
+    }
+    if (sql.capacity() > RETAINED_CAPACITY && sql.length() < RETAINED_CAPACITY) {
+      sql = new StringBuilder(sql);
+    }
+    if (!emptyLine) { sql.append('\n'); }
+    prev = 0;
+    line++;
+    lineStart = sql.length();
+    lineStartBytes = bytes;
+    contentAtLineStart = hasContent;
+  }
+
+  private void endOfInput() {
+    endOfLine();
+    if (ready == null) {
+      emit(sql.length(), hasContent, false, bytes);
+    }
+    position();
+    sql = new StringBuilder();
+  }
+
+  /** Emits the statement which ends at the given index in {@link #sql} and at the given
+   * byte offset in the file. */
+  private void emit(int end, boolean content, boolean transactionEnd, long endBytes) {
+    if (content) {
+      int start = 0;
+      while (start < end && Character.isWhitespace(sql.charAt(start))) { start++; }
+      while (end > start && Character.isWhitespace(sql.charAt(end - 1))) { end--; }
+      ready = new SqlStatement(sql.substring(start, end), statementLine, transactionEnd);
+      if (byteCounting != NO_COUNT) { ready.setSource(sqlStartBytes, endBytes); }
+    } else if (transactionEnd) {
+      ready = new SqlStatement("", line, true);
+    }
+    hasContent = false;
+    statementLine = 0;
+  }
+}
@@ -0,0 +1,113 @@
+package com.nesting.maven2.db;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/** Converts textual values to the JDBC type of the target column and binds them
+ * to a {@link PreparedStatement}. Instances aren't thread safe. */
+public class SqlValueConverter {
+
+  private final SimpleDateFormat dateFormat;
+  private final SimpleDateFormat timestampFormat;
+
+  /** Converter of values in JDBC escape format (yyyy-mm-dd, yyyy-mm-dd hh:mm:ss.fffffffff). */
+  public SqlValueConverter() {
+    this(null, null);
+  }
+
+  /** @param dateFormat the {@link SimpleDateFormat} pattern of dates, null for yyyy-mm-dd
+   * @param timestampFormat the pattern of timestamps, null for yyyy-mm-dd hh:mm:ss.fffffffff */
+  public SqlValueConverter(String dateFormat, String timestampFormat) {
+    this.dateFormat = dateFormat == null ? null : new SimpleDateFormat(dateFormat);
+    this.timestampFormat = timestampFormat == null ? null : new SimpleDateFormat(timestampFormat);
+  }
+
+  /** Binds the value as parameter of the statement.
+   * @param ps the statement
+   * @param index the index of the parameter
+   * @param value the textual value, null for SQL NULL
+   * @param sqlType the {@link Types type} of the parameter
+   * @throws SQLException on error or when the value can't be converted */
+  public void bind(PreparedStatement ps, int index, String value, int sqlType) throws SQLException {
+    if (value == null) {
+      ps.setNull(index, sqlType);
+      return;
+    }
+    try {
+      switch (sqlType) {
+        case Types.BIT:
+        case Types.BOOLEAN:
+          ps.setBoolean(index, parseBoolean(value));
+          break;
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+          ps.setInt(index, Integer.parseInt(value.trim()));
+          break;
+        case Types.BIGINT:
+          ps.setLong(index, Long.parseLong(value.trim()));
+          break;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+          ps.setDouble(index, Double.parseDouble(value.trim()));
+          break;
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+          ps.setBigDecimal(index, new BigDecimal(value.trim()));
+          break;
+        case Types.DATE:
+          ps.setDate(index, dateFormat == null ? Date.valueOf(value.trim())
+                     : new Date(dateFormat.parse(value.trim()).getTime()));
+          break;
+        case Types.TIME:
+          ps.setTime(index, Time.valueOf(value.trim()));
+          break;
+        case Types.TIMESTAMP:
+          ps.setTimestamp(index, timestampFormat == null ? Timestamp.valueOf(value.trim())
+                          : new Timestamp(timestampFormat.parse(value.trim()).getTime()));
+          break;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+          ps.setBytes(index, parseHex(value.trim()));
+          break;
+        default:
+          ps.setString(index, value);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new SQLException("Can't convert '" + value + "' of parameter " + index + ": " + e.getMessage(), "22018", e);
+    } catch (ParseException e) {
+      throw new SQLException("Can't convert '" + value + "' of parameter " + index + ": " + e.getMessage(), "22007", e);
+    }
+  }
+
+  private static boolean parseBoolean(String value) {
+    String v = value.trim().toLowerCase();
+    if ("1".equals(v) || "true".equals(v) || "t".equals(v) || "y".equals(v) || "yes".equals(v)) { return true; }
+    if ("0".equals(v) || "false".equals(v) || "f".equals(v) || "n".equals(v) || "no".equals(v)) { return false; }
+    throw new IllegalArgumentException("not a boolean");
+  }
+
+  /** Parses hex string, optionally prefixed by \x or 0x. */
+  private static byte[] parseHex(String value) {
+    int start = value.startsWith("\\x") || value.startsWith("0x") ? 2 : 0;
+    if ((value.length() - start) % 2 != 0) { throw new IllegalArgumentException("odd length of hex value"); }
+    byte[] result = new byte[(value.length() - start) / 2];
+    for (int i = 0; i < result.length; i++) {
+      int hi = Character.digit(value.charAt(start + 2 * i), 16);
+      int lo = Character.digit(value.charAt(start + 2 * i + 1), 16);
+      if (hi < 0 || lo < 0) { throw new IllegalArgumentException("not a hex value"); }
+      result[i] = (byte) ((hi << 4) + lo);
+    }
+    return result;
+  }
+}
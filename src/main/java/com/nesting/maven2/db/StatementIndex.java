@@ -0,0 +1,316 @@
+package com.nesting.maven2.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/** Cache of the split statements of the scripts, so the unchanged scripts aren't tokenized
+ * again by the next builds.
+ * <p>The index of a script holds the byte ranges of its statements in the file (uncompressed
+ * bytes of gzipped file), their lines, transaction ends and checkpoint positions, and the
+ * charset of the file. The cached script is executed by reading only the bytes of its
+ * statements and decoding them, the comments between the statements are skipped and the
+ * splitter isn't used at all.</p>
+ * <p>The index is valid for the script of the same path and size when its modification
+ * time is the same or, after a fresh checkout, when its SHA-256 checksum is the same. The
+ * settings which influence the splitting (delimiters, dialect, encoding) are part of the
+ * index file name and are checked too, so the change of the settings invalidates it.
+ * The index is written to a temporary file while the script is split and renamed when the
+ * end of the script is reached. The checksum is taken from the reader which split the
+ * script, it is written to the header at the end. The script whose reader replaced malformed
+ * input isn't indexed, its byte ranges are unknown.</p> */
+public class StatementIndex {
+
+  private static final int MAGIC = 0x44425349;
+  private static final int VERSION = 1;
+  /** Offset of the modification time in the index file. */
+  private static final int LAST_MODIFIED_OFFSET = 8;
+  /** Offset of the checksum in the index file, after the modification time and the size. */
+  private static final int CHECKSUM_OFFSET = 24;
+  /** Length of the hex SHA-256 checksum. */
+  private static final int CHECKSUM_LENGTH = 64;
+  private static final int TRANSACTION_END = 1;
+  private static final int EMPTY = 2;
+  private static final int END_AFTER_CR = 4;
+
+  private final File directory;
+  private final String settings;
+  private final int bufferSize;
+
+  /** @param directory the directory of the index files
+   * @param settings the settings which influence the splitting
+   * @param bufferSize the size of the buffer of the read script */
+  public StatementIndex(File directory, String settings, int bufferSize) {
+    this.directory = directory;
+    this.settings = settings;
+    this.bufferSize = bufferSize;
+  }
+
+  /** @param script the script
+   * @return the index file of the script */
+  public File indexFile(File script) {
+    return new File(directory, script.getName() + "-" + Integer.toHexString(script.getAbsolutePath().hashCode())
+                    + "-" + Integer.toHexString(settings.hashCode()) + ".idx");
+  }
+
+  /** Opens the statements of the script from its index.
+   * @param script the script
+   * @param gzip whether the script is gzipped
+   * @param skip the number of statements which are skipped
+   * @return the source of the statements or null if the script has no valid index
+   * @throws IOException on error */
+  public StatementSource open(File script, boolean gzip, long skip) throws IOException {
+    File file = indexFile(script);
+    if (!file.isFile()) { return null; }
+    DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+    try {
+      if (index.readInt() != MAGIC || index.readInt() != VERSION) { return close(index); }
+      long lastModified = index.readLong();
+      long size = index.readLong();
+      String checksum = index.readUTF();
+      if (!index.readUTF().equals(settings) || !index.readUTF().equals(script.getAbsolutePath())
+          || size != script.length() || index.readBoolean() != gzip) {
+        return close(index);
+      }
+      Charset charset = Charset.forName(index.readUTF());
+      if (lastModified != script.lastModified()) {
+        if (!checksum.equals(ScriptLedger.checksum(script))) { return close(index); }
+        touch(file, script.lastModified());
+      }
+      CachedSource source = new CachedSource(index, script, gzip, charset);
+      source.skip(skip);
+      return source;
+    } catch (IOException | RuntimeException e) {
+      index.close();
+      throw e;
+    }
+  }
+
+  private static StatementSource close(DataInputStream index) throws IOException {
+    index.close();
+    return null;
+  }
+
+  private static void touch(File file, long lastModified) throws IOException {
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      out.seek(LAST_MODIFIED_OFFSET);
+      out.writeLong(lastModified);
+    }
+  }
+
+  /** Wraps the source of the statements of the script, so the statements are written to the
+   * index when the source reaches the end of the script.
+   * @param script the script
+   * @param gzip whether the script is gzipped
+   * @param reader the reader of the whole script, it may compute the checksum of the script
+   * @param source the splitter of the reader which counts the bytes
+   * @return the source which records the statements
+   * @throws IOException on error */
+  public StatementSource record(File script, boolean gzip, ScriptReader reader, StatementSource source)
+    throws IOException {
+    return new Recorder(script, gzip, reader, source);
+  }
+
+  /** Source which writes the statements of another source to the index. */
+  private class Recorder implements StatementSource {
+
+    private final File script;
+    private final ScriptReader reader;
+    private final StatementSource source;
+    private final File temp;
+    private final long lastModified;
+    private final long size;
+    private DataOutputStream out;
+
+    Recorder(File script, boolean gzip, ScriptReader reader, StatementSource source) throws IOException {
+      this.script = script;
+      this.reader = reader;
+      this.source = source;
+      this.lastModified = script.lastModified();
+      this.size = script.length();
+      if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+        throw new IOException("Can't create directory " + directory);
+      }
+      temp = File.createTempFile(script.getName(), ".tmp", directory);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(lastModified);
+      out.writeLong(size);
+      // the checksum is known at the end of the script
+      out.writeUTF(String.format("%0" + CHECKSUM_LENGTH + "d", 0));
+      out.writeUTF(settings);
+      out.writeUTF(script.getAbsolutePath());
+      out.writeBoolean(gzip);
+      out.writeUTF(reader.getCharset().name());
+    }
+
+    /** {@inheritDoc} */
+    public SqlStatement nextStatement() throws IOException {
+      SqlStatement statement = source.nextStatement();
+      if (out == null) { return statement; }
+      if (statement == null) {
+        if (reader.isReplaced()) {
+          // the byte ranges of the statements after the replaced input are wrong
+          discard();
+          return null;
+        }
+        out.writeLong(-1);
+        out.close();
+        out = null;
+        String checksum = reader.getChecksum();
+        if (checksum == null) { checksum = ScriptLedger.checksum(script); }
+        try (RandomAccessFile header = new RandomAccessFile(temp, "rw")) {
+          header.seek(CHECKSUM_OFFSET);
+          header.writeUTF(checksum);
+        }
+        File file = indexFile(script);
+        if (script.lastModified() != lastModified || script.length() != size
+            || (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))) {
+          temp.delete();
+        }
+      } else if (statement.getSourceStart() < 0 && !statement.isEmpty()) {
+        // the bytes aren't counted, the script can't be indexed
+        discard();
+      } else {
+        // -1 ends the index, the bare transaction delimiter has no bytes
+        out.writeLong(Math.max(statement.getSourceStart(), 0));
+        out.writeLong(Math.max(statement.getSourceEnd(), 0));
+        out.writeInt(statement.getLine());
+        out.writeByte((statement.isTransactionEnd() ? TRANSACTION_END : 0) | (statement.isEmpty() ? EMPTY : 0)
+                      | (statement.isEndAfterCR() ? END_AFTER_CR : 0));
+        out.writeLong(statement.getEndOffset());
+        out.writeInt(statement.getNextLine());
+      }
+      return statement;
+    }
+
+    private void discard() throws IOException {
+      out.close();
+      out = null;
+      temp.delete();
+    }
+
+    /** {@inheritDoc} */
+    public void close() throws IOException {
+      try {
+        if (out != null) { discard(); }
+      } finally {
+        source.close();
+      }
+    }
+  }
+
+  /** Source which reads the statements of the script by the index. The byte ranges follow
+   * each other, so the script is read sequentially into a buffer which holds at least the
+   * current statement. */
+  private class CachedSource implements StatementSource {
+
+    private final DataInputStream index;
+    private final InputStream in;
+    private final Charset charset;
+    private byte[] buffer = new byte[bufferSize];
+    /** Offset of the first byte of the buffer in the file. */
+    private long bufferStart;
+    private int bufferLength;
+    private long statementIndex;
+
+    CachedSource(DataInputStream index, File script, boolean gzip, Charset charset) throws IOException {
+      this.index = index;
+      this.charset = charset;
+      InputStream fin = new FileInputStream(script);
+      this.in = gzip ? new GZIPInputStream(fin, bufferSize) : fin;
+    }
+
+    void skip(long count) throws IOException {
+      for (long i = 0; i < count; i++) {
+        if (index.readLong() < 0) { return; }
+        index.readLong();
+        index.readInt();
+        index.readByte();
+        index.readLong();
+        index.readInt();
+        statementIndex++;
+      }
+    }
+
+    /** {@inheritDoc} */
+    public SqlStatement nextStatement() throws IOException {
+      long start = index.readLong();
+      if (start < 0) { return null; }
+      long end = index.readLong();
+      int line = index.readInt();
+      int flags = index.readByte();
+      SqlStatement statement;
+      if ((flags & EMPTY) != 0) {
+        // a bare sqlDelimiter is empty too, only the transaction delimiter ends a transaction
+        statement = new SqlStatement("", line, (flags & TRANSACTION_END) != 0);
+      } else {
+        statement = new SqlStatement(text(start, end), line, (flags & TRANSACTION_END) != 0);
+        statement.setSource(start, end);
+      }
+      statement.setEnd(++statementIndex, index.readLong(), index.readInt(), (flags & END_AFTER_CR) != 0);
+      return statement;
+    }
+
+    /** Decodes the statement text from the bytes of the file. */
+    private String text(long start, long end) throws IOException {
+      read(start, end);
+      String text = new String(buffer, (int) (start - bufferStart), (int) (end - start), charset);
+      if (text.indexOf('\r') >= 0) { text = text.replace("\r\n", "\n").replace('\r', '\n'); }
+      int s = 0;
+      int e = text.length();
+      while (s < e && Character.isWhitespace(text.charAt(s))) { s++; }
+      while (e > s && Character.isWhitespace(text.charAt(e - 1))) { e--; }
+      return text.substring(s, e);
+    }
+
+    /** Fills the buffer, so it holds the bytes from start to end. */
+    private void read(long start, long end) throws IOException {
+      long bufferEnd = bufferStart + bufferLength;
+      if (end <= bufferEnd) { return; }
+      if (start >= bufferEnd) {
+        long skip = start - bufferEnd;
+        while (skip > 0) {
+          long n = in.skip(skip);
+          if (n <= 0) { throw new EOFException("Script is shorter than its index"); }
+          skip -= n;
+        }
+        bufferLength = 0;
+      } else {
+        bufferLength = (int) (bufferEnd - start);
+        System.arraycopy(buffer, (int) (start - bufferStart), buffer, 0, bufferLength);
+      }
+      bufferStart = start;
+      if (end - start > buffer.length) {
+        byte[] larger = new byte[(int) Math.max(end - start, 2L * buffer.length)];
+        System.arraycopy(buffer, 0, larger, 0, bufferLength);
+        buffer = larger;
+      }
+      while (bufferStart + bufferLength < end) {
+        int n = in.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (n < 0) { throw new EOFException("Script is shorter than its index"); }
+        bufferLength += n;
+      }
+    }
+
+    /** {@inheritDoc} */
+    public void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        index.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.nesting.maven2.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Source of the statements of a script. */
+public interface StatementSource extends Closeable {
+
+  /** Reads the next statement.
+   * @return the statement or null at the end of the script
+   * @throws IOException on error */
+  SqlStatement nextStatement() throws IOException;
+}
@@ -0,0 +1,452 @@
+package com.nesting.maven2.db;
+
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/** Templates of INSERT statements with their literal values replaced by parameters, so the
+ * runs of statements of the same shape are executed by one {@link PreparedStatement}.
+ * <p>Only the values of the VALUES tuples which are a string literal, a number, NULL or a
+ * DATE, TIME or TIMESTAMP literal are replaced, any other expression (function calls, strings
+ * with backslash escapes) stays in the text of the template. A statement with comments, a
+ * question mark or a dollar quote outside the literals isn't parameterized at all.</p>
+ * <p>A template is used only when {@link #MIN_REPEATS} consecutive statements have its
+ * shape, the statements of a shape which doesn't repeat are executed as text, so they don't
+ * end the batch and aren't prepared one by one.</p>
+ * <p>The statements of a template are prepared once and kept in a small cache. The types of
+ * the parameters are taken from the {@link ParameterMetaData}, or from the literals when the
+ * driver doesn't tell them, and the values are bound by the {@link SqlValueConverter}. A
+ * template whose parameters have other than character, numeric, boolean or date/time types,
+ * which can't be prepared or whose value can't be converted is marked unsafe and its
+ * statements are executed as text. The last {@link #MAX_UNSAFE} unsafe templates are
+ * remembered.</p> */
+public class StatementTemplates {
+
+  private static final Pattern NUMBER = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][+-]?\\d+)?");
+  private static final int STRING = 0;
+  private static final int NUMERIC = 1;
+  private static final int NULL = 2;
+  private static final int DATE = 3;
+  private static final int TIME = 4;
+  private static final int TIMESTAMP = 5;
+  private static final Pattern TYPED = Pattern.compile("(?i)(DATE|TIME|TIMESTAMP)\\s*'[^']*'");
+  /** The number of consecutive statements of the same shape after which its template is used. */
+  public static final int MIN_REPEATS = 3;
+  /** The number of unsafe templates which are remembered, an older one is prepared again. */
+  public static final int MAX_UNSAFE = 1000;
+
+  private final Connection con;
+  private final SqlDialect dialect;
+  private final int cacheSize;
+  private final SqlValueConverter converter = new SqlValueConverter();
+  private final Map<String, Boolean> unsafe = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_UNSAFE;
+    }
+  };
+  private final Map<String, Prepared> prepared = new LinkedHashMap<>(16, 0.75f, true);
+  private long parameterized;
+  private int unsafeCount;
+  /** The shape of the last statement and the number of its consecutive statements. */
+  private String shape;
+  private int repeats;
+
+  /** @param con the connection
+   * @param dialect the dialect of the statements
+   * @param cacheSize the number of prepared statements which are kept */
+  public StatementTemplates(Connection con, SqlDialect dialect, int cacheSize) {
+    this.con = con;
+    this.dialect = dialect;
+    this.cacheSize = Math.max(cacheSize, 1);
+  }
+
+  /** Parses the statement into its template. The statements have to be parsed in their order,
+   * the template is returned from the {@link #MIN_REPEATS}th consecutive statement of its shape.
+   * @param sql the statement
+   * @return the template or null if the statement can't be parameterized, its shape doesn't
+   *   repeat yet or its template is unsafe */
+  public Template parse(String sql) {
+    Template template = new Parser(sql).parse();
+    String key = template == null ? null : template.getSql();
+    if (key == null || !key.equals(shape)) {
+      shape = key;
+      repeats = 0;
+    }
+    if (template == null || ++repeats < MIN_REPEATS || unsafe.get(key) != null) { return null; }
+    return template;
+  }
+
+  /** Binds the values of the statement to the prepared statement of its template.
+   * @param template the parsed statement
+   * @return the prepared statement with the values bound, null if the template turned out
+   *   to be unsafe and the statement has to be executed as text
+   * @throws SQLException on error */
+  public PreparedStatement bind(Template template) throws SQLException {
+    String sql = template.getSql();
+    if (unsafe.get(sql) != null) { return null; }
+    Prepared p = prepare(sql, template);
+    if (p == null) { return null; }
+    String[] values = template.values;
+    int[] kinds = template.kinds;
+    try {
+      for (int i = 0; i < values.length; i++) {
+        int type = p.types[i];
+        if (kinds[i] == NUMERIC && !isNumeric(type) && type != Types.BIT && type != Types.BOOLEAN) {
+          // the text of the number would differ from the one converted by the database
+          markUnsafe(sql);
+          return null;
+        }
+        if (kinds[i] >= DATE && type != typedLiteralType(kinds[i])) {
+          // the typed literal is converted to the column by the database
+          markUnsafe(sql);
+          return null;
+        }
+        converter.bind(p.statement, i + 1, values[i], type);
+      }
+    } catch (SQLException e) {
+      markUnsafe(sql);
+      return null;
+    }
+    return p.statement;
+  }
+
+  /** Counts the statements executed with bound parameters.
+   * @param count the number of executed statements */
+  public void executed(int count) { parameterized += count; }
+
+  /** @return the number of statements executed with bound parameters */
+  public long getParameterized() { return parameterized; }
+
+  /** @return the number of templates executed as text */
+  public int getUnsafe() { return unsafeCount; }
+
+  private Prepared prepare(String sql, Template template) throws SQLException {
+    Prepared p = prepared.get(sql);
+    if (p != null) { return p; }
+    PreparedStatement ps;
+    try {
+      ps = con.prepareStatement(sql);
+    } catch (SQLException e) {
+      markUnsafe(sql);
+      return null;
+    }
+    int[] types = new int[template.values.length];
+    try {
+      ParameterMetaData md = ps.getParameterMetaData();
+      if (md.getParameterCount() != types.length) {
+        ps.close();
+        markUnsafe(sql);
+        return null;
+      }
+      for (int i = 0; i < types.length; i++) { types[i] = md.getParameterType(i + 1); }
+    } catch (SQLException | RuntimeException e) {
+      // the driver doesn't describe the parameters, the literals tell the types
+      for (int i = 0; i < types.length; i++) {
+        int kind = template.kinds[i];
+        types[i] = kind == NUMERIC ? Types.NUMERIC : kind >= DATE ? typedLiteralType(kind) : Types.VARCHAR;
+      }
+    }
+    for (int type : types) {
+      if (!isSupported(type)) {
+        ps.close();
+        markUnsafe(sql);
+        return null;
+      }
+    }
+    p = new Prepared(ps, types);
+    prepared.put(sql, p);
+    if (prepared.size() > cacheSize) {
+      Iterator<Prepared> eldest = prepared.values().iterator();
+      PreparedStatement evicted = eldest.next().statement;
+      eldest.remove();
+      evicted.close();
+    }
+    return p;
+  }
+
+  private void markUnsafe(String sql) throws SQLException {
+    if (unsafe.put(sql, Boolean.TRUE) == null) { unsafeCount++; }
+    Prepared p = prepared.remove(sql);
+    if (p != null) { p.statement.close(); }
+  }
+
+  private static int typedLiteralType(int kind) {
+    return kind == DATE ? Types.DATE : kind == TIME ? Types.TIME : Types.TIMESTAMP;
+  }
+
+  private static boolean isNumeric(int type) {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isSupported(int type) {
+    switch (type) {
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+      case Types.CLOB:
+      case Types.NCLOB:
+      case Types.BIT:
+      case Types.BOOLEAN:
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return true;
+      default:
+        return isNumeric(type);
+    }
+  }
+
+  /** Closes the prepared statements.
+   * @throws SQLException on error */
+  public void close() throws SQLException {
+    SQLException error = null;
+    for (Prepared p : prepared.values()) {
+      try {
+        p.statement.close();
+      } catch (SQLException e) {
+        error = e;
+      }
+    }
+    prepared.clear();
+    if (error != null) { throw error; }
+  }
+
+  /** Prepared statement of a template with the types of its parameters. */
+  private static class Prepared {
+    private final PreparedStatement statement;
+    private final int[] types;
+
+    Prepared(PreparedStatement statement, int[] types) {
+      this.statement = statement;
+      this.types = types;
+    }
+  }
+
+  /** Statement split into the text of its template and the values of its parameters. */
+  public static class Template {
+    private final String sql;
+    private final String[] values;
+    private final int[] kinds;
+
+    Template(String sql, String[] values, int[] kinds) {
+      this.sql = sql;
+      this.values = values;
+      this.kinds = kinds;
+    }
+
+    /** @return the text of the template with parameters */
+    public String getSql() { return sql; }
+    /** @return the number of parameters */
+    public int getParameterCount() { return values.length; }
+  }
+
+  /** Parser of one INSERT statement. */
+  private class Parser {
+    private final String sql;
+    private final StringBuilder template = new StringBuilder();
+    private final List<String> values = new ArrayList<>();
+    private final List<Integer> kinds = new ArrayList<>();
+    private int pos;
+
+    Parser(String sql) {
+      this.sql = sql;
+    }
+
+    Template parse() {
+      if (!sql.regionMatches(true, 0, "INSERT", 0, 6) || !boundary(6)) { return null; }
+      int values = -1;
+      while (pos < sql.length()) {
+        char c = sql.charAt(pos);
+        if (!plain(c)) { return null; }
+        if (isQuote(c)) {
+          if (!skipQuoted()) { return null; }
+        } else if ((c == 'V' || c == 'v') && boundary(pos - 1) && sql.regionMatches(true, pos, "VALUES", 0, 6)
+                   && boundary(pos + 6)) {
+          values = pos + 6;
+          break;
+        } else {
+          pos++;
+        }
+      }
+      if (values < 0) { return null; }
+      template.append(sql, 0, values).append(' ');
+      pos = values;
+      boolean first = true;
+      while (true) {
+        skipWhitespace();
+        if (pos >= sql.length() || sql.charAt(pos) != '(') { return null; }
+        if (!first) { template.append(", "); }
+        first = false;
+        if (!tuple()) { return null; }
+        skipWhitespace();
+        if (pos < sql.length() && sql.charAt(pos) == ',') {
+          pos++;
+        } else {
+          break;
+        }
+      }
+      // the rest (ON CONFLICT and so on) stays as it is
+      int rest = pos;
+      while (pos < sql.length()) {
+        char c = sql.charAt(pos);
+        if (!plain(c)) { return null; }
+        if (isQuote(c)) {
+          if (!skipQuoted()) { return null; }
+        } else {
+          pos++;
+        }
+      }
+      if (this.values.isEmpty()) { return null; }
+      if (rest < sql.length()) { template.append(' ').append(sql, rest, sql.length()); }
+      String[] v = this.values.toArray(new String[this.values.size()]);
+      int[] k = new int[kinds.size()];
+      for (int i = 0; i < k.length; i++) { k[i] = kinds.get(i); }
+      return new Template(template.toString(), v, k);
+    }
+
+    /** Reads the tuple at the position, the literal elements become parameters. */
+    private boolean tuple() {
+      pos++;
+      template.append('(');
+      boolean first = true;
+      while (true) {
+        int start = pos;
+        int depth = 0;
+        while (true) {
+          if (pos >= sql.length()) { return false; }
+          char c = sql.charAt(pos);
+          if (!plain(c)) { return false; }
+          if (isQuote(c)) {
+            if (!skipQuoted()) { return false; }
+            continue;
+          }
+          if (depth == 0 && (c == ',' || c == ')')) { break; }
+          if (c == '(') { depth++; }
+          if (c == ')') { depth--; }
+          pos++;
+        }
+        if (!first) { template.append(", "); }
+        first = false;
+        element(sql.substring(start, pos).trim());
+        if (sql.charAt(pos++) == ')') {
+          template.append(')');
+          return true;
+        }
+      }
+    }
+
+    private void element(String element) {
+      if (element.equalsIgnoreCase("NULL")) {
+        parameter(null, NULL);
+      } else if (NUMBER.matcher(element).matches()) {
+        parameter(element, NUMERIC);
+      } else if (isStringLiteral(element)) {
+        parameter(element.substring(1, element.length() - 1).replace("''", "'"), STRING);
+      } else if (TYPED.matcher(element).matches()) {
+        int quote = element.indexOf('\'');
+        String type = element.substring(0, quote).trim().toUpperCase();
+        parameter(element.substring(quote + 1, element.length() - 1),
+                  type.equals("DATE") ? DATE : type.equals("TIME") ? TIME : TIMESTAMP);
+      } else {
+        template.append(element);
+      }
+    }
+
+    private void parameter(String value, int kind) {
+      template.append('?');
+      values.add(value);
+      kinds.add(kind);
+    }
+
+    /** @return true if the element is exactly one string literal without escapes */
+    private boolean isStringLiteral(String element) {
+      if (element.length() < 2 || element.charAt(0) != '\'' || element.charAt(element.length() - 1) != '\'') {
+        return false;
+      }
+      if (dialect.isBackslashEscapes() && element.indexOf('\\') >= 0) { return false; }
+      for (int i = 1; i < element.length() - 1; i++) {
+        if (element.charAt(i) == '\'') {
+          // a doubled quote stays in the literal, a single one would end it
+          if (element.charAt(i + 1) != '\'' || i + 1 == element.length() - 1) { return false; }
+          i++;
+        }
+      }
+      return true;
+    }
+
+    /** @return false for the chars which make the statement unsafe outside literals */
+    private boolean plain(char c) {
+      if (c == '?') { return false; }
+      if (c == '$' && dialect.isDollarQuotes()) { return false; }
+      if (c == '#' && dialect.isHashComments()) { return false; }
+      if ((c == '-' || c == '/') && pos + 1 < sql.length()) {
+        char next = sql.charAt(pos + 1);
+        if ((c == '-' && next == '-') || (c == '/' && next == '*')) { return false; }
+      }
+      return true;
+    }
+
+    private boolean isQuote(char c) {
+      return c == '\'' || c == '"' || (c == '`' && dialect.isBacktickIdentifiers())
+        || (c == '[' && dialect.isBracketIdentifiers());
+    }
+
+    /** Skips the quoted string or identifier at the position.
+     * @return false if it isn't closed */
+    private boolean skipQuoted() {
+      char open = sql.charAt(pos);
+      char close = open == '[' ? ']' : open;
+      boolean escapes = open == '\'' ? dialect.isBackslashEscapes() : open == '"' && dialect.isBackslashEscapes();
+      pos++;
+      while (pos < sql.length()) {
+        char c = sql.charAt(pos++);
+        if (escapes && c == '\\') {
+          pos++;
+        } else if (c == close) {
+          if (pos < sql.length() && sql.charAt(pos) == close && close != ']') {
+            pos++;
+          } else {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private void skipWhitespace() {
+      while (pos < sql.length() && Character.isWhitespace(sql.charAt(pos))) { pos++; }
+    }
+
+    /** @return true if there is no identifier char at the index */
+    private boolean boundary(int index) {
+      if (index < 0 || index >= sql.length()) { return true; }
+      char c = sql.charAt(index);
+      return !(Character.isLetterOrDigit(c) || c == '_' || c == '$');
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.nesting.maven2.db;
+
+/** Duration of a single statement or batch, kept for the slowest statements of the report. */
+public class StatementTiming implements Comparable<StatementTiming> {
+
+  /** Longer SQL text is truncated in the report. */
+  private static final int MAX_SQL_LENGTH = 200;
+
+  private final String config;
+  private final String file;
+  private final int line;
+  private final int statements;
+  private final String sql;
+  private final long nanos;
+  private final long rows;
+
+  /** @param config the name of the config
+   * @param file the name of the script
+   * @param line the line of the (first) statement
+   * @param statements the number of statements, more than one for a batch
+   * @param sql the SQL of the (first) statement
+   * @param nanos the duration in nanoseconds
+   * @param rows the number of affected rows */
+  public StatementTiming(String config, String file, int line, int statements, String sql, long nanos, long rows) {
+    this.config = config;
+    this.file = file;
+    this.line = line;
+    this.statements = statements;
+    String text = sql.replaceAll("\\s+", " ").trim();
+    this.sql = text.length() > MAX_SQL_LENGTH ? text.substring(0, MAX_SQL_LENGTH) + "..." : text;
+    this.nanos = nanos;
+    this.rows = rows;
+  }
+
+  /** @return the name of the config */
+  public String getConfig() { return config; }
+  /** @return the name of the script */
+  public String getFile() { return file; }
+  /** @return the line of the (first) statement */
+  public int getLine() { return line; }
+  /** @return the number of statements, more than one for a batch */
+  public int getStatements() { return statements; }
+  /** @return the SQL of the (first) statement, whitespace collapsed and truncated */
+  public String getSql() { return sql; }
+  /** @return the duration in nanoseconds */
+  public long getNanos() { return nanos; }
+  /** @return the number of affected rows */
+  public long getRows() { return rows; }
+
+  /** {@inheritDoc} */
+  public int compareTo(StatementTiming other) {
+    return nanos < other.nanos ? -1 : (nanos == other.nanos ? 0 : 1);
+  }
+}
@@ -0,0 +1,376 @@
+package com.nesting.maven2.db;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+
+/** Exports one table into files which the data goal executes again: INSERT scripts with the
+ * sql delimiter of the config or delimited (CSV/TSV) files with a header, which the
+ * {@link DelimitedDataLoader} loads with the default settings. The rows are streamed by a
+ * forward only result set with the given fetch size, so the table is never held in memory.
+ * <p>The values are written in the formats the {@link SqlValueConverter} reads: dates and
+ * timestamps in JDBC escape format, binary values in hex. Null is an unquoted empty field in
+ * the delimited files, an empty string is quoted. The output is split into parts when a
+ * file reaches the maximal size, the size of a gzipped part is checked as it's compressed.</p> */
+public class TableExporter {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private static final int STRING = 0;
+  private static final int DECIMAL = 1;
+  private static final int INTEGER = 2;
+  private static final int FLOAT = 3;
+  private static final int BOOLEAN = 4;
+  private static final int DATE = 5;
+  private static final int TIME = 6;
+  private static final int TIMESTAMP = 7;
+  private static final int BINARY = 8;
+
+  private final SqlDialect dialect;
+  private final String format;
+  private final Charset charset;
+  private final String delimiter;
+  private final boolean compress;
+  private final int fetchSize;
+  private final long maxFileSize;
+  private final List<File> files = new ArrayList<>();
+  private final StringBuilder line = new StringBuilder();
+  private CountingOutputStream counter;
+  private Writer out;
+  private long rows;
+
+  /** @param dialect the dialect of the literals in the INSERT scripts
+   * @param format the format of the files: sql, csv or tsv
+   * @param charset the encoding of the files
+   * @param delimiter the sql delimiter of the INSERT scripts, semicolon when null
+   * @param compress whether the files are gzipped
+   * @param fetchSize the fetch size of the result set
+   * @param maxFileSize the size after which the next part is started, 0 for no limit */
+  public TableExporter(SqlDialect dialect, String format, Charset charset, String delimiter,
+                       boolean compress, int fetchSize, long maxFileSize) {
+    this.dialect = dialect;
+    this.format = format;
+    this.charset = charset;
+    this.delimiter = delimiter == null || delimiter.length() == 0 ? ";" : delimiter;
+    this.compress = compress;
+    this.fetchSize = fetchSize;
+    this.maxFileSize = maxFileSize;
+  }
+
+  /** Exports the table.
+   * @param con the connection, it's used in a read only transaction which is rolled back
+   * @param table the name of the table as the database stores it, optionally qualified by the
+   *   schema, it's quoted in the statements
+   * @param directory the directory of the files
+   * @param baseName the name of the files without extension, the data goal takes the table
+   *   name from it
+   * @return the number of exported rows
+   * @throws SQLException on error
+   * @throws IOException on error */
+  public long export(Connection con, String table, File directory, String baseName) throws SQLException, IOException {
+    boolean autoCommit = con.getAutoCommit();
+    // most drivers stream the result set by the fetch size only in a transaction
+    if (autoCommit) { con.setAutoCommit(false); }
+    Statement st = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      st.setFetchSize(fetchSize);
+      // the reserved words and the mixed case names load only quoted
+      String q = con.getMetaData().getIdentifierQuoteString();
+      q = q == null || q.trim().isEmpty() ? "" : q.trim();
+      int dot = table.lastIndexOf('.');
+      String qualified = (dot > 0 ? quote(q, table.substring(0, dot)) + "." : "") + quote(q, table.substring(dot + 1));
+      ResultSet rs = st.executeQuery("SELECT * FROM " + qualified);
+      try {
+        ResultSetMetaData md = rs.getMetaData();
+        int count = md.getColumnCount();
+        String[] columns = new String[count];
+        int[] kinds = new int[count];
+        for (int i = 0; i < count; i++) {
+          columns[i] = md.getColumnName(i + 1);
+          kinds[i] = kind(md.getColumnType(i + 1));
+        }
+        String[] quoted = new String[count];
+        for (int i = 0; i < count; i++) {
+          quoted[i] = quote(q, columns[i]);
+        }
+        String prefix = "INSERT INTO " + qualified + " (" + StringUtils.join(quoted, ", ") + ") VALUES (";
+        while (rs.next()) {
+          if (out == null) { open(directory, baseName, columns); }
+          line.setLength(0);
+          if ("sql".equals(format)) {
+            line.append(prefix);
+            for (int i = 0; i < count; i++) {
+              if (i > 0) { line.append(", "); }
+              appendLiteral(rs, i + 1, kinds[i]);
+            }
+            line.append(')').append(";".equals(delimiter) ? "" : "\n").append(delimiter).append('\n');
+          } else {
+            for (int i = 0; i < count; i++) {
+              if (i > 0) { line.append(separator()); }
+              appendField(rs, i + 1, kinds[i]);
+            }
+            line.append('\n');
+          }
+          out.write(line.toString());
+          rows++;
+          if (maxFileSize > 0 && counter.count >= maxFileSize) { close(); }
+        }
+        if (files.isEmpty()) { open(directory, baseName, columns); }
+      } finally {
+        rs.close();
+      }
+      close();
+    } finally {
+      closeQuietly();
+      st.close();
+      con.rollback();
+      if (autoCommit) { con.setAutoCommit(true); }
+    }
+    return rows;
+  }
+
+  /** @return the written files */
+  public List<File> getFiles() { return files; }
+
+  /** @return the number of exported rows */
+  public long getRows() { return rows; }
+
+  private char separator() {
+    return "tsv".equals(format) ? '\t' : ',';
+  }
+
+  private void open(File directory, String baseName, String[] columns) throws IOException {
+    String name = baseName + (maxFileSize > 0 ? String.format(".%04d", files.size() + 1) : "") + "." + format
+      + (compress ? ".gz" : "");
+    File file = new File(directory, name);
+    // the encoder buffers only a few kilobytes, so the counted size follows the written rows
+    counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    OutputStream stream = compress ? new GZIPOutputStream(counter, BUFFER_SIZE) : counter;
+    out = new OutputStreamWriter(stream, charset);
+    files.add(file);
+    if (!"sql".equals(format)) {
+      line.setLength(0);
+      for (int i = 0; i < columns.length; i++) {
+        if (i > 0) { line.append(separator()); }
+        appendQuoted(columns[i]);
+      }
+      out.write(line.append('\n').toString());
+    }
+  }
+
+  private void close() throws IOException {
+    if (out != null) {
+      Writer w = out;
+      out = null;
+      w.close();
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      // the original error is thrown
+    }
+  }
+
+  private static int kind(int type) {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return INTEGER;
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return DECIMAL;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return FLOAT;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.DATE:
+        return DATE;
+      case Types.TIME:
+        return TIME;
+      case Types.TIMESTAMP:
+        return TIMESTAMP;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return BINARY;
+      default:
+        return STRING;
+    }
+  }
+
+  /** Returns the value in the textual form the converter reads.
+   * @return the value or null for SQL NULL */
+  private String text(ResultSet rs, int index, int kind) throws SQLException {
+    switch (kind) {
+      case DECIMAL:
+        BigDecimal decimal = rs.getBigDecimal(index);
+        return decimal == null ? null : decimal.toPlainString();
+      case FLOAT:
+        double d = rs.getDouble(index);
+        return rs.wasNull() ? null : Double.toString(d);
+      case BOOLEAN:
+        boolean b = rs.getBoolean(index);
+        return rs.wasNull() ? null : Boolean.toString(b);
+      case DATE:
+        java.sql.Date date = rs.getDate(index);
+        return date == null ? null : date.toString();
+      case TIME:
+        java.sql.Time time = rs.getTime(index);
+        return time == null ? null : time.toString();
+      case TIMESTAMP:
+        java.sql.Timestamp timestamp = rs.getTimestamp(index);
+        return timestamp == null ? null : timestamp.toString();
+      case BINARY:
+        byte[] bytes = rs.getBytes(index);
+        if (bytes == null) { return null; }
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+          hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+          hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+      default:
+        return rs.getString(index);
+    }
+  }
+
+  private void appendLiteral(ResultSet rs, int index, int kind) throws SQLException {
+    String value = text(rs, index, kind);
+    if (value == null) {
+      line.append("NULL");
+      return;
+    }
+    switch (kind) {
+      case INTEGER:
+      case DECIMAL:
+        line.append(value);
+        break;
+      case FLOAT:
+        // NaN and infinity have no numeric literal
+        if (Character.isDigit(value.charAt(value.length() - 1))) { line.append(value); } else { appendString(value); }
+        break;
+      case BOOLEAN:
+        if (dialect == SqlDialect.MYSQL || dialect == SqlDialect.MSSQL || dialect == SqlDialect.ORACLE
+            || dialect == SqlDialect.DERBY) {
+          line.append("true".equals(value) ? '1' : '0');
+        } else {
+          line.append(value.toUpperCase());
+        }
+        break;
+      case DATE:
+      case TIME:
+      case TIMESTAMP:
+        // Oracle reads the plain strings by the date format of the session
+        if (dialect == SqlDialect.ORACLE) { line.append(kind == DATE ? "DATE " : kind == TIME ? "TIME " : "TIMESTAMP "); }
+        appendString(value);
+        break;
+      case BINARY:
+        if (dialect == SqlDialect.MSSQL) {
+          line.append("0x").append(value);
+        } else if (dialect == SqlDialect.ORACLE) {
+          line.append("HEXTORAW('").append(value).append("')");
+        } else if (dialect == SqlDialect.POSTGRESQL) {
+          line.append("'\\x").append(value).append('\'');
+        } else {
+          line.append("X'").append(value).append('\'');
+        }
+        break;
+      default:
+        appendString(value);
+    }
+  }
+
+  private void appendString(String value) {
+    line.append('\'');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\'' || (c == '\\' && dialect.isBackslashEscapes())) { line.append(c); }
+      line.append(c);
+    }
+    line.append('\'');
+  }
+
+  private void appendField(ResultSet rs, int index, int kind) throws SQLException {
+    String value = text(rs, index, kind);
+    if (value == null) { return; }
+    if (kind == STRING) {
+      appendQuoted(value);
+    } else {
+      line.append(value);
+    }
+  }
+
+  private static String quote(String q, String identifier) {
+    return q + identifier.replace(q, q + q) + q;
+  }
+
+  /** Appends the field, quoted when it's empty or holds a separator, quote or line break. */
+  private void appendQuoted(String value) {
+    char separator = separator();
+    boolean quote = value.isEmpty();
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == separator || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      line.append(value);
+      return;
+    }
+    line.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') { line.append(c); }
+      line.append(c);
+    }
+    line.append('"');
+  }
+
+  /** Counts the bytes written to the file. */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    /** {@inheritDoc} */
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
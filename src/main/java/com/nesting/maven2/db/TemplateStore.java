@@ -0,0 +1,164 @@
+package com.nesting.maven2.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Index of the templates saved for one config and application database. The templates are
+ * named by the config and the {@link ScriptFingerprint fingerprint} of its scripts, the index
+ * file templates.properties in the directory of the config records when every template was
+ * saved and last used, so the least recently used ones are evicted first. The files of the
+ * file based templates are kept in the same directory.
+ * <p>The configs whose database was created from a template are remembered for the Maven
+ * session, so the later goals of the session skip their scripts, until the database is
+ * created again without the template.</p> */
+public class TemplateStore {
+
+  private static final String INDEX = "templates.properties";
+  private static final Map<String, String> CLONED = new ConcurrentHashMap<>();
+
+  private final File directory;
+  private final String prefix;
+
+  /** @param root the snapshot directory
+   * @param config the config */
+  public TemplateStore(File root, DbConfig config) {
+    String url = config.getAppDbConnectionSettings().getJdbcUrl();
+    String name = String.valueOf(config.getName()).replaceAll("[^A-Za-z0-9_]", "_").toLowerCase();
+    this.directory = new File(root, name + "-" + Integer.toHexString(String.valueOf(url).hashCode()));
+    this.prefix = name.length() > 40 ? name.substring(0, 40) : name;
+  }
+
+  /** @return the directory of the templates of the config */
+  public File getDirectory() { return directory; }
+
+  /** @param fingerprint the fingerprint of the scripts
+   * @return the name of the template of the fingerprint */
+  public String name(String fingerprint) {
+    return prefix + "_" + fingerprint.substring(0, 16);
+  }
+
+  /** @param name the name of the template
+   * @return whether the template is saved
+   * @throws IOException on error */
+  public synchronized boolean contains(String name) throws IOException {
+    return load().getProperty(name) != null;
+  }
+
+  /** Records the use of the template.
+   * @param name the name of the template
+   * @throws IOException on error */
+  public synchronized void used(String name) throws IOException {
+    Properties index = load();
+    String value = index.getProperty(name);
+    if (value == null) { return; }
+    index.setProperty(name, value.substring(0, value.indexOf(',') + 1) + System.currentTimeMillis());
+    store(index);
+  }
+
+  /** Records the saved template.
+   * @param name the name of the template
+   * @throws IOException on error */
+  public synchronized void added(String name) throws IOException {
+    Properties index = load();
+    long now = System.currentTimeMillis();
+    index.setProperty(name, now + "," + now);
+    store(index);
+  }
+
+  /** Forgets the deleted template.
+   * @param name the name of the template
+   * @throws IOException on error */
+  public synchronized void removed(String name) throws IOException {
+    Properties index = load();
+    index.remove(name);
+    store(index);
+  }
+
+  /** @param limit the number of templates which are kept
+   * @return the least recently used templates above the limit
+   * @throws IOException on error */
+  public synchronized List<String> evictable(int limit) throws IOException {
+    final Properties index = load();
+    List<String> names = new ArrayList<>(index.stringPropertyNames());
+    Collections.sort(names, new Comparator<String>() {
+        public int compare(String a, String b) {
+          return Long.compare(lastUsed(index.getProperty(b)), lastUsed(index.getProperty(a)));
+        } });
+    return names.size() > limit ? names.subList(Math.max(limit, 0), names.size()) : new ArrayList<String>();
+  }
+
+  private static long lastUsed(String value) {
+    try {
+      return Long.parseLong(value.substring(value.indexOf(',') + 1));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private Properties load() throws IOException {
+    Properties index = new Properties();
+    File file = new File(directory, INDEX);
+    if (file.isFile()) {
+      InputStream in = new FileInputStream(file);
+      try {
+        index.load(in);
+      } finally {
+        in.close();
+      }
+    }
+    return index;
+  }
+
+  private void store(Properties index) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create directory " + directory);
+    }
+    File file = new File(directory, INDEX + ".tmp");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      index.store(out, "templates of the config: saved,last used");
+    } finally {
+      out.close();
+    }
+    File target = new File(directory, INDEX);
+    if (target.exists() && !target.delete() || !file.renameTo(target)) {
+      throw new IOException("Can't write " + target);
+    }
+  }
+
+  /** Remembers that the database of the config was created from the template.
+   * @param config the config
+   * @param name the name of the template */
+  public static void cloned(DbConfig config, String name) {
+    CLONED.put(key(config), name);
+  }
+
+  /** Forgets that the database of the config was created from a template, its database is
+   * created again.
+   * @param config the config */
+  public static void forget(DbConfig config) {
+    CLONED.remove(key(config));
+  }
+
+  /** @param config the config
+   * @return the template the database of the config was created from in this session, null
+   *   if it wasn't */
+  public static String clonedFrom(DbConfig config) {
+    return CLONED.get(key(config));
+  }
+
+  private static String key(DbConfig config) {
+    return config.getName() + "|" + config.getAppDbConnectionSettings().getJdbcUrl();
+  }
+}
@@ -0,0 +1,153 @@
+package com.nesting.maven2.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/** Issues the commits of a script execution according to the {@link TransactionMode}.
+ * Unless the mode is {@link TransactionMode#AUTO} the auto-commit is switched off by
+ * {@link #begin()} and restored by {@link #end()} or {@link #rollback()}. */
+public class TransactionControl {
+
+  private final Connection con;
+  private final TransactionMode mode;
+  private final int interval;
+  private boolean autoCommit;
+  private int uncommitted;
+  private int commits;
+  private long committed;
+  private Savepoint savepoint;
+  private boolean isolatedAutoCommit;
+
+  /** @param con the connection
+   * @param mode the transaction mode
+   * @param interval the number of statements in transaction for {@link TransactionMode#INTERVAL} */
+  public TransactionControl(Connection con, TransactionMode mode, int interval) {
+    this.con = con;
+    this.mode = mode;
+    this.interval = Math.max(interval, 1);
+  }
+
+  /** Starts the transaction.
+   * @throws SQLException on error */
+  public void begin() throws SQLException {
+    if (mode != TransactionMode.AUTO) {
+      autoCommit = con.getAutoCommit();
+      con.setAutoCommit(false);
+    }
+  }
+
+  /** Checks whether the given number of statements waiting in the batch completes the interval,
+   * so the batch has to be sent and committed.
+   * @param pending the statements which wait in batch
+   * @return true if the batch should be executed now */
+  public boolean isCommitDue(int pending) {
+    return mode == TransactionMode.INTERVAL && uncommitted + pending >= interval;
+  }
+
+  /** Called after statements were executed.
+   * @param count the number of executed statements
+   * @throws SQLException on error */
+  public void executed(int count) throws SQLException {
+    if (count == 0) { return; }
+    uncommitted += count;
+    if (mode == TransactionMode.AUTO) { committed += count; }
+    if (mode == TransactionMode.STATEMENT || (mode == TransactionMode.INTERVAL && uncommitted >= interval)) {
+      commit();
+    }
+  }
+
+  /** Called when the transaction delimiter is reached.
+   * @throws SQLException on error */
+  public void transactionEnd() throws SQLException {
+    if (mode == TransactionMode.DELIMITER) { commit(); }
+  }
+
+  /** Commits the rest of the statements and restores the auto-commit.
+   * @throws SQLException on error */
+  public void end() throws SQLException {
+    if (mode != TransactionMode.AUTO) {
+      commit();
+      con.setAutoCommit(autoCommit);
+    }
+  }
+
+  /** Rolls back the statements which weren't committed yet and restores the auto-commit.
+   * @throws SQLException on error */
+  public void rollback() throws SQLException {
+    if (mode != TransactionMode.AUTO) {
+      uncommitted = 0;
+      try {
+        con.rollback();
+      } finally {
+        con.setAutoCommit(autoCommit);
+      }
+    }
+  }
+
+  /** Starts a part of the transaction which can be undone alone by {@link #undo()}: in the
+   * auto-commit mode the auto-commit is switched off for it, otherwise it starts at a savepoint.
+   * @throws SQLException on error or when the driver doesn't support savepoints */
+  public void isolate() throws SQLException {
+    if (con.getAutoCommit()) {
+      isolatedAutoCommit = true;
+      con.setAutoCommit(false);
+    } else {
+      savepoint = con.setSavepoint();
+    }
+  }
+
+  /** Keeps the isolated part, in the auto-commit mode it's committed.
+   * @throws SQLException on error */
+  public void keep() throws SQLException {
+    if (isolatedAutoCommit) {
+      isolatedAutoCommit = false;
+      try {
+        con.commit();
+      } finally {
+        con.setAutoCommit(true);
+      }
+    } else if (savepoint != null) {
+      Savepoint released = savepoint;
+      savepoint = null;
+      try {
+        con.releaseSavepoint(released);
+      } catch (SQLException e) {
+        // some drivers can't release, the savepoint ends with the transaction
+      }
+    }
+  }
+
+  /** Undoes the isolated part.
+   * @throws SQLException on error */
+  public void undo() throws SQLException {
+    if (isolatedAutoCommit) {
+      isolatedAutoCommit = false;
+      try {
+        con.rollback();
+      } finally {
+        con.setAutoCommit(true);
+      }
+    } else if (savepoint != null) {
+      Savepoint rolledBack = savepoint;
+      savepoint = null;
+      con.rollback(rolledBack);
+    }
+  }
+
+  /** @return the transaction mode */
+  public TransactionMode getMode() { return mode; }
+  /** @return the number of issued commits */
+  public int getCommits() { return commits; }
+  /** @return the number of executed statements which are committed, in auto-commit mode all of them */
+  public long getCommitted() { return committed; }
+
+  private void commit() throws SQLException {
+    if (uncommitted > 0) {
+      con.commit();
+      commits++;
+      committed += uncommitted;
+      uncommitted = 0;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package com.nesting.maven2.db;
+
+/** When the statements of a script are committed. */
+public enum TransactionMode {
+  /** The connection is left in auto-commit mode, every statement is committed by the driver. */
+  AUTO,
+  /** Explicit commit after every statement, in batch mode after every batch. */
+  STATEMENT,
+  /** One transaction for the whole script file. */
+  FILE,
+  /** Commit after every commitInterval statements. */
+  INTERVAL,
+  /** Commit at every transaction delimiter and at the end of the file. */
+  DELIMITER;
+
+  /** Finds the mode by its name, null or empty name is {@link #AUTO}.
+   * @param name the name of the mode
+   * @return the mode
+   * @throws IllegalArgumentException if the name is unknown */
+  public static TransactionMode forName(String name) {
+    return name == null || name.trim().length() == 0 ? AUTO : valueOf(name.trim().toUpperCase());
+  }
+}